@@ -0,0 +1,75 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.benchmark.ExpressionGenerator.OperatorMix;
+import com.javacalc.calculator.Calculator;
+import com.javacalc.calculator.ExpressionParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end-to-end {@link Calculator#evaluate(String)} and
+ * {@link Calculator#assignVariable(String)} paths, including the expression cache.
+ * A compile threshold of 1 measures compiled expressions; the maximum keeps every
+ * evaluation in the interpreter.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CalculatorBenchmark {
+    @Param({"INFIX", "POSTFIX"})
+    private Calculator.Mode mode;
+
+    @Param({"8", "64", "512"})
+    private int terms;
+
+    @Param({"ADDITIVE", "MULTIPLICATIVE", "MIXED"})
+    private OperatorMix mix;
+
+    @Param({"0", "4"})
+    private int variables;
+
+    @Param({"1", "2147483647"})
+    private int compileThreshold;
+
+    private Calculator calculator;
+    private String expression;
+    private String assignment;
+
+    @Setup
+    public void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(mode);
+        calculator.setCompileThreshold(compileThreshold);
+        ExpressionGenerator.defineVariables(calculator.getVariableManager(), variables);
+
+        String infix = ExpressionGenerator.infix(terms, mix, variables);
+        expression = mode == Calculator.Mode.INFIX
+                ? infix
+                : new ExpressionParser(calculator.getOperatorRegistry()).infixToPostfix(infix);
+        assignment = "result = " + expression;
+    }
+
+    @Benchmark
+    public double evaluate() {
+        return calculator.evaluate(expression);
+    }
+
+    @Benchmark
+    public double assignVariable() {
+        return calculator.assignVariable(assignment);
+    }
+}
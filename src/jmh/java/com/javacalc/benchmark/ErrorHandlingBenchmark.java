@@ -0,0 +1,60 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.calculator.Calculator;
+import com.javacalc.calculator.EvaluationResult;
+import com.javacalc.exceptions.CalculatorException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of valid and invalid input through the throwing
+ * {@link Calculator#evaluate(String)} and the result-based
+ * {@link Calculator#tryEvaluate(String, EvaluationResult)}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ErrorHandlingBenchmark {
+    @Param({"(1 + 2) * 3 - 4", "(1 + 2) * 3 -", "(1 + 2) * 3 $ 4", "(1 + 2 * 3"})
+    private String expression;
+
+    private Calculator calculator;
+    private EvaluationResult result;
+
+    @Setup
+    public void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.setCompileThreshold(Integer.MAX_VALUE);
+        result = new EvaluationResult();
+    }
+
+    @Benchmark
+    public double evaluate() {
+        try {
+            return calculator.evaluate(expression);
+        } catch (CalculatorException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Benchmark
+    public double tryEvaluate() {
+        calculator.tryEvaluate(expression, result);
+        return result.getValue();
+    }
+}
@@ -0,0 +1,75 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.benchmark.ExpressionGenerator.OperatorMix;
+import com.javacalc.calculator.CompiledExpression;
+import com.javacalc.calculator.ExpressionCompiler;
+import com.javacalc.calculator.ExpressionEvaluator;
+import com.javacalc.calculator.ExpressionParser;
+import com.javacalc.calculator.VariableBindings;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.VariableManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ExpressionEvaluator#evaluatePostfix(CharSequence)} against evaluating the
+ * same postfix expression as a pre-compiled program.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EvaluatorBenchmark {
+    @Param({"8", "64", "512"})
+    private int terms;
+
+    @Param({"ADDITIVE", "MULTIPLICATIVE", "MIXED"})
+    private OperatorMix mix;
+
+    @Param({"0", "4", "16"})
+    private int variables;
+
+    private ExpressionEvaluator evaluator;
+    private String postfix;
+    private CompiledExpression program;
+    private VariableBindings bindings;
+
+    @Setup
+    public void setUp() {
+        OperatorRegistry registry = new OperatorRegistry();
+        VariableManager manager = new VariableManager();
+        ExpressionGenerator.defineVariables(manager, variables);
+
+        evaluator = new ExpressionEvaluator(registry, manager);
+        postfix = new ExpressionParser(registry).infixToPostfix(ExpressionGenerator.infix(terms, mix, variables));
+
+        program = new ExpressionCompiler(registry).compile(postfix, postfix);
+        bindings = program.newBindings();
+        for (String name : program.getVariableNames()) {
+            bindings.set(name, manager.getVariable(name));
+        }
+    }
+
+    @Benchmark
+    public double evaluatePostfix() {
+        return evaluator.evaluatePostfix(postfix);
+    }
+
+    @Benchmark
+    public double evaluateCompiled() {
+        return program.evaluate(bindings);
+    }
+}
@@ -0,0 +1,87 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.variables.VariableManager;
+
+import java.util.Random;
+
+/**
+ * Builds deterministic infix expressions for the benchmarks, shaped by term count,
+ * operator mix and number of distinct variables.
+ */
+public final class ExpressionGenerator {
+    /**
+     * Operator mixes the suites are parameterized over.
+     */
+    public enum OperatorMix {
+        ADDITIVE("+-"),
+        MULTIPLICATIVE("*/"),
+        MIXED("+-*/%^");
+
+        private final String operators;
+
+        OperatorMix(String operators) {
+            this.operators = operators;
+        }
+    }
+
+    private ExpressionGenerator() {
+    }
+
+    /**
+     * Builds an infix expression.
+     *
+     * @param terms the number of operands
+     * @param mix the operators to draw from
+     * @param variables the number of distinct variables, named {@code v0} to {@code v(n-1)};
+     *                  every other operand is a variable when this is positive
+     * @return the expression
+     */
+    public static String infix(int terms, OperatorMix mix, int variables) {
+        Random random = new Random(terms * 31L + variables);
+        StringBuilder builder = new StringBuilder(terms * 8);
+        int open = 0;
+
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                builder.append(' ').append(operator(mix, random)).append(' ');
+            }
+            if (i < terms - 2 && random.nextInt(8) == 0) {
+                builder.append('(');
+                open++;
+            }
+            builder.append(operand(i, variables, random));
+            if (open > 0 && random.nextInt(4) == 0) {
+                builder.append(')');
+                open--;
+            }
+        }
+        while (open-- > 0) {
+            builder.append(')');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Defines the variables used by {@link #infix(int, OperatorMix, int)} with non-zero values.
+     *
+     * @param manager the variable manager to populate
+     * @param variables the number of distinct variables
+     */
+    public static void defineVariables(VariableManager manager, int variables) {
+        for (int i = 0; i < variables; i++) {
+            manager.setVariable("v" + i, 1.5 + i);
+        }
+    }
+
+    private static char operator(OperatorMix mix, Random random) {
+        return mix.operators.charAt(random.nextInt(mix.operators.length()));
+    }
+
+    private static String operand(int index, int variables, Random random) {
+        if (variables > 0 && index % 2 == 0) {
+            return "v" + (index / 2) % variables;
+        }
+        // Non-zero constants keep division and modulo defined
+        return String.valueOf(1 + random.nextInt(900) / 100.0);
+    }
+}
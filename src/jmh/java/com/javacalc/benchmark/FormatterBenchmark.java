@@ -0,0 +1,62 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.calculator.ResultFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares formatting a result with {@code String.format} and regex trimming, as the REPL
+ * used to, against {@link ResultFormatter} writing into a reused builder.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FormatterBenchmark {
+    @Param({"42", "0.1", "3.141592653589793", "-1.5E-7"})
+    private double value;
+
+    private ResultFormatter shortest;
+    private ResultFormatter sixPlaces;
+    private StringBuilder out;
+
+    @Setup
+    public void setUp() {
+        shortest = new ResultFormatter();
+        sixPlaces = new ResultFormatter(6);
+        out = new StringBuilder();
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        if (value == (long) value) {
+            return String.format("%d", (long) value);
+        }
+        return String.format("%.6f", value).replaceAll("0+$", "").replaceAll("\\.$", "");
+    }
+
+    @Benchmark
+    public int shortest() {
+        out.setLength(0);
+        return shortest.format(value, out).length();
+    }
+
+    @Benchmark
+    public int fixedPrecision() {
+        out.setLength(0);
+        return sixPlaces.format(value, out).length();
+    }
+}
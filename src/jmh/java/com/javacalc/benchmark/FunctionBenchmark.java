@@ -0,0 +1,78 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.calculator.BytecodeCompiler;
+import com.javacalc.calculator.BytecodeExpression;
+import com.javacalc.calculator.Calculator;
+import com.javacalc.calculator.CompiledExpression;
+import com.javacalc.calculator.VariableBindings;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.OperatorRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures function calls in compiled expressions: built-in functions, which have their own
+ * opcodes and become direct {@link Math} calls in bytecode, against the same functions
+ * registered as custom ones, which are called through their arity-specialized interface.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FunctionBenchmark {
+    private static final String EXPRESSION = "sqrt(x * x + y * y) + max(abs(x), abs(y)) * min(x, y)";
+
+    @Param({"BUILT_IN", "CUSTOM"})
+    private String functions;
+
+    private CompiledExpression program;
+    private VariableBindings bindings;
+    private BytecodeExpression generated;
+    private double[] vars;
+
+    @Setup
+    public void setUp() {
+        OperatorRegistry registry = new OperatorRegistry();
+        String source = EXPRESSION;
+        if (functions.equals("CUSTOM")) {
+            registry.register(new Function("csqrt", Math::sqrt));
+            registry.register(new Function("cabs", Math::abs));
+            registry.register(new Function("cmax", Math::max));
+            registry.register(new Function("cmin", Math::min));
+            source = source.replace("sqrt(", "csqrt(").replace("abs(", "cabs(")
+                    .replace("max(", "cmax(").replace("min(", "cmin(");
+        }
+        Calculator calculator = new Calculator(registry);
+        calculator.setMode(Calculator.Mode.INFIX);
+
+        program = calculator.compile(source);
+        bindings = program.newBindings().set("x", 3.25).set("y", -4.5);
+        generated = new BytecodeCompiler().compile(program);
+        vars = new double[program.getVariableNames().size()];
+        vars[program.indexOf("x")] = 3.25;
+        vars[program.indexOf("y")] = -4.5;
+    }
+
+    @Benchmark
+    public double interpreted() {
+        return program.evaluate(bindings);
+    }
+
+    @Benchmark
+    public double bytecode() {
+        return generated.eval(vars);
+    }
+}
@@ -0,0 +1,69 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.benchmark.ExpressionGenerator.OperatorMix;
+import com.javacalc.calculator.ExpressionEvaluator;
+import com.javacalc.calculator.ExpressionParser;
+import com.javacalc.calculator.InfixEvaluator;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.VariableManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures evaluating an infix expression once: converting it to postfix and evaluating that,
+ * against {@link InfixEvaluator} parsing and evaluating it in one pass.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InfixEvaluatorBenchmark {
+    @Param({"8", "64", "512"})
+    private int terms;
+
+    @Param({"ADDITIVE", "MULTIPLICATIVE", "MIXED"})
+    private OperatorMix mix;
+
+    @Param({"0", "4"})
+    private int variables;
+
+    private ExpressionParser parser;
+    private ExpressionEvaluator evaluator;
+    private InfixEvaluator infixEvaluator;
+    private String infix;
+
+    @Setup
+    public void setUp() {
+        OperatorRegistry registry = new OperatorRegistry();
+        VariableManager manager = new VariableManager();
+        ExpressionGenerator.defineVariables(manager, variables);
+
+        parser = new ExpressionParser(registry);
+        evaluator = new ExpressionEvaluator(registry, manager);
+        infixEvaluator = new InfixEvaluator(registry, manager);
+        infix = ExpressionGenerator.infix(terms, mix, variables);
+    }
+
+    @Benchmark
+    public double parseThenEvaluate() {
+        return evaluator.evaluatePostfix(parser.infixToPostfix(infix));
+    }
+
+    @Benchmark
+    public double fused() {
+        return infixEvaluator.evaluate(infix);
+    }
+}
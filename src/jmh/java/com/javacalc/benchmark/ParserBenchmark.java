@@ -0,0 +1,52 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.benchmark.ExpressionGenerator.OperatorMix;
+import com.javacalc.calculator.ExpressionParser;
+import com.javacalc.operators.OperatorRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ExpressionParser#infixToPostfix(CharSequence)}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    @Param({"8", "64", "512"})
+    private int terms;
+
+    @Param({"ADDITIVE", "MULTIPLICATIVE", "MIXED"})
+    private OperatorMix mix;
+
+    @Param({"0", "4", "16"})
+    private int variables;
+
+    private ExpressionParser parser;
+    private String infix;
+
+    @Setup
+    public void setUp() {
+        parser = new ExpressionParser(new OperatorRegistry());
+        infix = ExpressionGenerator.infix(terms, mix, variables);
+    }
+
+    @Benchmark
+    public String infixToPostfix() {
+        return parser.infixToPostfix(infix);
+    }
+}
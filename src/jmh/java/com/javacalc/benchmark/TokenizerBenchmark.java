@@ -0,0 +1,90 @@
+package com.javacalc.benchmark;
+
+import com.javacalc.calculator.ExpressionLexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the former regex tokenizer of {@code ExpressionParser} with {@link ExpressionLexer}
+ * on infix expressions of a given length in characters.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+    @Param({"1024", "10240"})
+    private int length;
+
+    private String expression;
+    private ExpressionLexer lexer;
+
+    @Setup
+    public void setUp() {
+        expression = buildExpression(length);
+        lexer = new ExpressionLexer(false);
+    }
+
+    @Benchmark
+    public int regexTokenizer() {
+        return regexTokenize(expression);
+    }
+
+    @Benchmark
+    public int expressionLexer() {
+        return lex(lexer, expression);
+    }
+
+    static String buildExpression(int length) {
+        StringBuilder builder = new StringBuilder(length + 32);
+        String[] operators = {" + ", " * ", " - ", " / "};
+        int i = 0;
+        builder.append("(x1 + 2.5)");
+        while (builder.length() < length) {
+            builder.append(operators[i % operators.length]);
+            builder.append(i % 3 == 0 ? "(var" + (i % 7) + " ^ 2)" : String.valueOf(i * 1.25));
+            i++;
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The tokenizer and classification used before the lexer: whitespace removal,
+     * a lookaround split, and a regex match per token.
+     */
+    static int regexTokenize(String expression) {
+        String[] tokens = expression.replaceAll("\\s+", "")
+                .split("(?<=[-+*/%^()])|(?=[-+*/%^()])");
+        int numbers = 0;
+        for (String token : tokens) {
+            if (token.matches("-?\\d+(\\.\\d+)?") || token.matches("[a-zA-Z][a-zA-Z0-9]*")) {
+                numbers++;
+            }
+        }
+        return numbers;
+    }
+
+    static int lex(ExpressionLexer lexer, CharSequence expression) {
+        lexer.reset(expression);
+        int operands = 0;
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (token == ExpressionLexer.Token.NUMBER || token == ExpressionLexer.Token.IDENTIFIER) {
+                operands++;
+            }
+        }
+        return operands;
+    }
+}
@@ -0,0 +1,456 @@
+package com.javacalc;
+
+import com.javacalc.calculator.Calculator;
+import com.javacalc.calculator.EvaluationResult;
+import com.javacalc.calculator.ResultFormatter;
+import com.javacalc.exceptions.CalculatorException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Evaluates expressions, one per line, and writes one output line per input line:
+ * the result, the error message, or an empty line for blank lines and commands.
+ * <p>
+ * Lines are handled as in the interactive calculator: {@code POST} and {@code INFIX} switch
+ * the mode, {@code CLEAR} clears the variables, and assignments and formula definitions set
+ * variables for the following lines. Expression lines are evaluated straight from the input
+ * bytes with {@link Calculator#tryEvaluateUncached(CharSequence, EvaluationResult)}, without
+ * decoding them into strings, and results are formatted into a large output buffer that is
+ * written when full. A file is memory-mapped in regions and a stream is read into a buffer
+ * that only grows to hold the longest line, so memory use does not depend on the input size.
+ * <p>
+ * With a parallelism above one, runs of expression lines are split across worker threads,
+ * each with its own calculator, and their output is written in input order. Commands,
+ * assignments and formula definitions are applied to every worker's calculator in turn, so
+ * all workers see the same variables and mode.
+ * <p>
+ * A processor reuses its buffers between lines, so it is not thread-safe.
+ */
+public final class BatchProcessor {
+    // Size of each mapped region of a file and initial size of the read buffer for a stream
+    static final int DEFAULT_BUFFER_SIZE = 64 << 20;
+
+    private static final int STREAM_BUFFER_SIZE = 1 << 20;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+
+    // Lines queued for parallel evaluation at most, and fewer lines are not worth splitting
+    private static final int PARALLEL_BATCH_SIZE = 1 << 16;
+    private static final int PARALLEL_THRESHOLD = 1 << 10;
+
+    private final Worker[] workers;
+    private final int bufferSize;
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+    private int queuedLines;
+    private long lines;
+    private WritableByteChannel out;
+    private ForkJoinPool pool;
+
+    /**
+     * Creates a processor that evaluates lines with a calculator, in the calculator's
+     * current mode and with its variables.
+     *
+     * @param calculator the calculator to evaluate with
+     */
+    public BatchProcessor(Calculator calculator) {
+        this(() -> calculator, 1, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a processor that evaluates lines on several threads.
+     *
+     * @param calculators creates one calculator per thread; all must start in the same state,
+     *                    as {@code Calculator::new} does
+     * @param parallelism the number of threads
+     * @throws IllegalArgumentException if parallelism is less than 1
+     */
+    public BatchProcessor(Supplier<Calculator> calculators, int parallelism) {
+        this(calculators, parallelism, DEFAULT_BUFFER_SIZE);
+    }
+
+    BatchProcessor(Calculator calculator, int bufferSize) {
+        this(() -> calculator, 1, bufferSize);
+    }
+
+    BatchProcessor(Supplier<Calculator> calculators, int parallelism, int bufferSize) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.workers = new Worker[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            workers[i] = new Worker(calculators.get());
+        }
+        this.bufferSize = bufferSize;
+        this.lineStarts = parallelism > 1 ? new int[PARALLEL_BATCH_SIZE] : null;
+        this.lineEnds = parallelism > 1 ? new int[PARALLEL_BATCH_SIZE] : null;
+    }
+
+    /**
+     * Evaluates every line of an input file and writes the results to an output file,
+     * replacing it if it exists.
+     *
+     * @param input the file of expressions
+     * @param output the file to write results to
+     * @return the number of lines processed
+     * @throws IOException if a file cannot be read or written, or a line does not fit in a
+     *                     mapped region
+     */
+    public long process(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            start(out);
+            long size = in.size();
+            long position = 0;
+
+            while (position < size) {
+                int length = (int) Math.min(bufferSize, size - position);
+                MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = processLines(region, length, last);
+                if (!last && consumed == 0) {
+                    throw new IOException("Line at byte " + position + " is longer than " + bufferSize + " bytes");
+                }
+                // Map the next region from the start of the unfinished line
+                position += consumed;
+            }
+
+            flush();
+            return lines;
+        } finally {
+            finish();
+        }
+    }
+
+    /**
+     * Evaluates every line read from a channel until its end and writes the results to
+     * another channel. Output is written whenever the input read so far has been processed,
+     * so results flow through a pipeline while it runs. Neither channel is closed.
+     *
+     * @param in the channel to read expressions from
+     * @param out the channel to write results to
+     * @return the number of lines processed
+     * @throws IOException if reading or writing fails
+     */
+    public long process(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        try {
+            start(out);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.min(bufferSize, STREAM_BUFFER_SIZE));
+            boolean end = false;
+
+            while (!end) {
+                end = in.read(buffer) < 0;
+                int consumed = processLines(buffer, buffer.position(), end);
+                // Keep the unfinished line at the start of the buffer
+                buffer.limit(buffer.position()).position(consumed);
+                buffer.compact();
+                if (!buffer.hasRemaining()) {
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+                }
+                flush();
+            }
+            return lines;
+        } finally {
+            finish();
+        }
+    }
+
+    private void start(WritableByteChannel out) {
+        this.out = out;
+        this.lines = 0;
+        if (workers.length > 1) {
+            pool = new ForkJoinPool(workers.length);
+        }
+    }
+
+    private void finish() {
+        out = null;
+        queuedLines = 0;
+        for (Worker worker : workers) {
+            worker.length = 0;
+        }
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Processes the complete lines in a buffer, and the unfinished last line at the end of
+     * the input.
+     *
+     * @return the index just past the last processed line
+     */
+    private int processLines(ByteBuffer buffer, int limit, boolean endOfInput) throws IOException {
+        int start = 0;
+        for (int i = 0; i < limit; i++) {
+            if (buffer.get(i) == '\n') {
+                processLine(buffer, start, i);
+                start = i + 1;
+            }
+        }
+        // The last line need not end with a newline
+        if (endOfInput && start < limit) {
+            processLine(buffer, start, limit);
+            start = limit;
+        }
+        evaluateQueued(buffer);
+        return start;
+    }
+
+    private void processLine(ByteBuffer buffer, int start, int end) throws IOException {
+        // Trim whitespace, including the carriage return of CRLF line endings
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        lines++;
+
+        if (workers.length == 1) {
+            Worker worker = workers[0];
+            worker.processLine(buffer, start, end);
+            if (worker.length >= OUTPUT_BUFFER_SIZE) {
+                flush();
+            }
+            return;
+        }
+        lineStarts[queuedLines] = start;
+        lineEnds[queuedLines] = end;
+        if (++queuedLines == PARALLEL_BATCH_SIZE) {
+            evaluateQueued(buffer);
+        }
+    }
+
+    /**
+     * Evaluates the queued lines, splitting runs of expressions across the workers and
+     * applying every other line to all of them.
+     */
+    private void evaluateQueued(ByteBuffer buffer) throws IOException {
+        int i = 0;
+        while (i < queuedLines) {
+            int j = i;
+            while (j < queuedLines && !changesState(workers[0].line.reset(buffer, lineStarts[j], lineEnds[j]))) {
+                j++;
+            }
+            evaluateRange(buffer, i, j);
+            if (j < queuedLines) {
+                // Apply the line to every calculator, but keep only the first worker's output
+                for (int w = 1; w < workers.length; w++) {
+                    workers[w].processLine(buffer, lineStarts[j], lineEnds[j]);
+                    workers[w].length = 0;
+                }
+                workers[0].processLine(buffer, lineStarts[j], lineEnds[j]);
+                j++;
+            }
+            i = j;
+        }
+        queuedLines = 0;
+        if (workers.length > 1 && workers[0].length >= OUTPUT_BUFFER_SIZE) {
+            flush();
+        }
+    }
+
+    private void evaluateRange(ByteBuffer buffer, int from, int to) throws IOException {
+        int count = to - from;
+        if (count < PARALLEL_THRESHOLD) {
+            for (int i = from; i < to; i++) {
+                workers[0].processLine(buffer, lineStarts[i], lineEnds[i]);
+            }
+            return;
+        }
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+        for (int w = 0; w < workers.length; w++) {
+            Worker worker = workers[w];
+            int first = from + (int) ((long) count * w / workers.length);
+            int last = from + (int) ((long) count * (w + 1) / workers.length);
+            tasks[w] = pool.submit(() -> {
+                for (int i = first; i < last; i++) {
+                    worker.processLine(buffer, lineStarts[i], lineEnds[i]);
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        // The first worker's output already follows any earlier output, so write in order
+        flush();
+    }
+
+    /**
+     * Writes the pending output of every worker, in order.
+     */
+    private void flush() throws IOException {
+        for (Worker worker : workers) {
+            if (worker.length > 0) {
+                ByteBuffer bytes = ByteBuffer.wrap(worker.output, 0, worker.length);
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+                worker.length = 0;
+            }
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b <= ' ' && b >= 0;
+    }
+
+    /**
+     * Checks whether a trimmed line is a command, assignment or formula definition.
+     */
+    private static boolean changesState(ByteSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '=') {
+                return true;
+            }
+        }
+        return isCommand(line);
+    }
+
+    private static boolean isCommand(CharSequence input) {
+        int length = input.length();
+        if (length < 4 || length > 7) {
+            return false;
+        }
+        return equalsIgnoreCase(input, "POST") || equalsIgnoreCase(input, "POSTFIX")
+                || equalsIgnoreCase(input, "INFIX") || equalsIgnoreCase(input, "CLEAR");
+    }
+
+    private static boolean equalsIgnoreCase(CharSequence input, String command) {
+        if (input.length() != command.length()) {
+            return false;
+        }
+        for (int i = 0; i < command.length(); i++) {
+            if (Character.toUpperCase(input.charAt(i)) != command.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A calculator with its own scratch state and output buffer, so that workers can
+     * evaluate lines concurrently.
+     */
+    private static final class Worker {
+        final Calculator calculator;
+        final ResultFormatter formatter;
+        final EvaluationResult result;
+        final ByteSequence line;
+        byte[] output;
+        int length;
+
+        Worker(Calculator calculator) {
+            this.calculator = calculator;
+            this.formatter = new ResultFormatter();
+            this.result = new EvaluationResult();
+            this.line = new ByteSequence();
+            this.output = new byte[OUTPUT_BUFFER_SIZE + ResultFormatter.MAX_LENGTH];
+        }
+
+        /**
+         * Evaluates one trimmed line and appends its output line.
+         */
+        void processLine(ByteBuffer buffer, int start, int end) {
+            if (start < end) {
+                boolean plain = true;
+                for (int i = start; i < end && plain; i++) {
+                    byte b = buffer.get(i);
+                    // Non-ASCII text and assignments take the string-based path
+                    plain = b >= 0 && b != '=';
+                }
+
+                if (plain && !isCommand(line.reset(buffer, start, end))) {
+                    if (calculator.tryEvaluateUncached(line, result)) {
+                        writeResult(result.getValue());
+                    } else {
+                        write(result.getMessage());
+                    }
+                } else {
+                    byte[] bytes = new byte[end - start];
+                    buffer.get(start, bytes);
+                    processText(new String(bytes, StandardCharsets.UTF_8));
+                }
+            }
+            writeByte((byte) '\n');
+        }
+
+        /**
+         * Handles a command, assignment, formula definition or non-ASCII line.
+         */
+        private void processText(String input) {
+            if (input.equalsIgnoreCase("POST") || input.equalsIgnoreCase("POSTFIX")) {
+                calculator.setMode(Calculator.Mode.POSTFIX);
+            } else if (input.equalsIgnoreCase("INFIX")) {
+                calculator.setMode(Calculator.Mode.INFIX);
+            } else if (input.equalsIgnoreCase("CLEAR")) {
+                calculator.getVariableManager().clear();
+            } else {
+                try {
+                    if (input.contains(":=")) {
+                        double value = calculator.defineFormula(input);
+                        write(input.substring(0, input.indexOf(":=")).trim());
+                        write(" := ");
+                        writeResult(value);
+                    } else if (input.contains("=")) {
+                        double value = calculator.assignVariable(input);
+                        write(input.split("=")[0].trim());
+                        write(" = ");
+                        writeResult(value);
+                    } else if (calculator.tryEvaluateUncached(input, result)) {
+                        writeResult(result.getValue());
+                    } else {
+                        write(result.getMessage());
+                    }
+                } catch (CalculatorException e) {
+                    write(e.getMessage());
+                }
+            }
+        }
+
+        private void writeResult(double value) {
+            ensureCapacity(ResultFormatter.MAX_LENGTH);
+            length = formatter.format(value, output, length);
+        }
+
+        private void write(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c >= 0x80) {
+                    byte[] bytes = text.substring(i).getBytes(StandardCharsets.UTF_8);
+                    ensureCapacity(bytes.length);
+                    System.arraycopy(bytes, 0, output, length, bytes.length);
+                    length += bytes.length;
+                    return;
+                }
+                writeByte((byte) c);
+            }
+        }
+
+        private void writeByte(byte b) {
+            ensureCapacity(1);
+            output[length++] = b;
+        }
+
+        private void ensureCapacity(int needed) {
+            if (length + needed > output.length) {
+                output = Arrays.copyOf(output, Math.max(output.length * 2, length + needed));
+            }
+        }
+    }
+}
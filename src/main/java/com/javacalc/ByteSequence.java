@@ -0,0 +1,67 @@
+package com.javacalc;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A view of ASCII bytes in a buffer as characters, so that input read as bytes can be
+ * evaluated without decoding it into a string. The view is mutable and is re-pointed at each
+ * line with {@link #reset(ByteBuffer, int, int)}.
+ */
+final class ByteSequence implements CharSequence {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    ByteSequence() {
+    }
+
+    private ByteSequence(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Points this view at a range of a buffer.
+     *
+     * @param buffer the buffer
+     * @param start the index of the first byte
+     * @param end the index just past the last byte
+     * @return this view
+     */
+    ByteSequence reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.offset = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (char) (buffer.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new ByteSequence(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
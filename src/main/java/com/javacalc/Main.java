@@ -1,15 +1,25 @@
 package com.javacalc;
 
 import com.javacalc.calculator.Calculator;
+import com.javacalc.calculator.ResultFormatter;
 import com.javacalc.exceptions.CalculatorException;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 /**
  * Main entry point for the JavaCalc calculator application.
- * Provides an interactive REPL (Read-Eval-Print Loop) for evaluating mathematical expressions.
+ * Provides an interactive REPL (Read-Eval-Print Loop) for evaluating mathematical expressions,
+ * and non-interactive batch and filter modes that evaluate one expression per line.
  */
 public class Main {
+    private static final ResultFormatter FORMATTER = new ResultFormatter();
+
     private static final String WELCOME_MESSAGE = """
             ╔═══════════════════════════════════════════════════════════════╗
             ║                     JavaCalc Calculator                       ║
@@ -19,6 +29,7 @@ public class Main {
             Choose a mode: POST (postfix notation) or INFIX (standard notation)
 
             Supported operators: + - * / ^ (power) % (modulo)
+            Functions: sqrt abs sin cos log min max
             Variables: Any name starting with a letter (e.g., x, y, result)
 
             Commands:
@@ -42,15 +53,18 @@ public class Main {
               - Write expressions naturally: 2 + 3 * 4
               - Use parentheses for grouping: (2 + 3) * 4
               - Assign variables: x = 10
+              - Define formulas: total := price * qty (recomputed when price or qty change)
               - Use variables: x * 2 + 5
               - Power: 2 ^ 3 = 8
               - Modulo: 10 % 3 = 1
+              - Functions: sqrt(16) + max(x, 2) = 14
 
             POSTFIX MODE (Reverse Polish Notation):
               - Operators come after operands: 2 3 +
               - No parentheses needed: 2 3 4 * +
               - Assign variables: x 10 =
               - Use variables: x 2 * 5 +
+              - Functions follow their arguments: 16 sqrt x 2 max +
 
             Operators (by precedence):
               ^  Power (highest)
@@ -59,9 +73,77 @@ public class Main {
               %  Modulo
               +  Addition
               -  Subtraction (lowest)
+
+            Functions:
+              sqrt(x)    Square root
+              abs(x)     Absolute value
+              sin(x)     Sine (radians)
+              cos(x)     Cosine (radians)
+              log(x)     Natural logarithm
+              min(a, b)  Smaller of two values
+              max(a, b)  Larger of two values
+            """;
+
+    private static final String USAGE = """
+            Usage: java -jar javacalc.jar [options]
+              --batch <in> <out>  Evaluate each line of a file into an output file
+              --filter            Evaluate lines from standard input to standard output
+                                  (the default when no console is attached, which is
+                                  also the case when only the output is redirected)
+              --interactive       Start the interactive calculator even without a console
+              --parallel <n>      Evaluate batch or filter lines on n threads
             """;
 
     public static void main(String[] args) {
+        String batchInput = null;
+        String batchOutput = null;
+        boolean filter = false;
+        boolean interactive = false;
+        int parallelism = 1;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--batch" -> {
+                    if (i + 2 >= args.length) {
+                        usage();
+                    }
+                    batchInput = args[++i];
+                    batchOutput = args[++i];
+                }
+                case "--filter" -> filter = true;
+                case "--interactive" -> interactive = true;
+                case "--parallel" -> {
+                    if (i + 1 >= args.length) {
+                        usage();
+                    }
+                    try {
+                        parallelism = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    if (parallelism < 1) {
+                        usage();
+                    }
+                }
+                default -> usage();
+            }
+        }
+
+        if (batchInput != null) {
+            runBatch(Path.of(batchInput), Path.of(batchOutput), parallelism);
+        } else if (filter || !interactive && System.console() == null) {
+            // Java has no portable test for a terminal on standard input alone; a console is
+            // attached only when both standard input and output are terminals
+            runFilter(parallelism);
+        } else {
+            runInteractive();
+        }
+    }
+
+    /**
+     * Runs the interactive REPL until an empty line is entered.
+     */
+    private static void runInteractive() {
         Calculator calculator = new Calculator();
         Scanner scanner = new Scanner(System.in);
 
@@ -101,7 +183,12 @@ public class Main {
 
             // Evaluate expression
             try {
-                if (input.contains("=")) {
+                if (input.contains(":=")) {
+                    // Formula definition
+                    double result = calculator.defineFormula(input);
+                    String varName = input.substring(0, input.indexOf(":=")).trim();
+                    System.out.println(varName + " := " + formatResult(result));
+                } else if (input.contains("=")) {
                     // Variable assignment
                     double result = calculator.assignVariable(input);
                     String varName = input.split("=")[0].trim();
@@ -122,16 +209,65 @@ public class Main {
     }
 
     /**
-     * Formats a result for display, showing integers without decimal points.
+     * Runs batch mode: evaluates every line of the input file and writes the results to the
+     * output file, then reports the throughput.
+     *
+     * @param input the file of expressions
+     * @param output the file to write results to
+     * @param parallelism the number of threads to evaluate with
+     */
+    private static void runBatch(Path input, Path output, int parallelism) {
+        long start = System.nanoTime();
+        long lines;
+        try {
+            lines = newProcessor(parallelism).process(input, output);
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Processed %d lines in %.3f s (%.0f lines/sec)%n", lines, seconds,
+                seconds > 0 ? lines / seconds : 0.0);
+    }
+
+    /**
+     * Runs filter mode: evaluates lines from standard input and writes one result line per
+     * input line to standard output, without banner, prompts or per-line flushing.
+     *
+     * @param parallelism the number of threads to evaluate with
+     */
+    private static void runFilter(int parallelism) {
+        // Channels on the raw descriptors bypass the line-flushing System.out
+        FileChannel in = new FileInputStream(FileDescriptor.in).getChannel();
+        FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel();
+        try {
+            newProcessor(parallelism).process(in, out);
+        } catch (IOException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static BatchProcessor newProcessor(int parallelism) {
+        return parallelism == 1
+                ? new BatchProcessor(new Calculator())
+                : new BatchProcessor(Calculator::new, parallelism);
+    }
+
+    private static void usage() {
+        System.err.print(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Formats a result for display with the shortest digits that read back exactly,
+     * showing integers without decimal points.
      *
      * @param result the result to format
      * @return formatted string representation
      */
     private static String formatResult(double result) {
-        if (result == (long) result) {
-            return String.format("%d", (long) result);
-        } else {
-            return String.format("%.6f", result).replaceAll("0+$", "").replaceAll("\\.$", "");
-        }
+        return FORMATTER.format(result);
     }
 }
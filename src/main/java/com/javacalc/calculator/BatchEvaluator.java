@@ -0,0 +1,576 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a {@link CompiledExpression} over many rows at once, column-at-a-time.
+ * Each variable is a column of values, and rows are processed in chunks: every instruction
+ * of the program is applied to a whole chunk before moving on to the next instruction, which
+ * amortizes opcode dispatch over the chunk and leaves simple counted loops that the JIT can
+ * auto-vectorize for the built-in arithmetic operators and the {@code abs}, {@code sqrt},
+ * {@code min} and {@code max} functions.
+ * <p>
+ * Variable operands are read from their columns in place and constants stay scalar, so only
+ * intermediate results occupy scratch buffers. Results are bit-identical to evaluating each
+ * row with {@link CompiledExpression#evaluate(VariableBindings)}. An evaluator keeps its
+ * scratch buffers between calls and is not thread-safe.
+ */
+public class BatchEvaluator {
+    /**
+     * Default number of rows processed per instruction.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final int chunkSize;
+    private double[][] buffers;
+
+    // Operand stack: either a scalar, or a vector of chunk values starting at an offset
+    private boolean[] scalar;
+    private double[] scalars;
+    private double[][] vectors;
+    private int[] offsets;
+
+    // Common subexpression temporaries, in the same scalar or vector form
+    private boolean[] temporaryScalar;
+    private double[] temporaryScalars;
+    private double[][] temporaryVectors;
+
+    public BatchEvaluator() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a batch evaluator.
+     *
+     * @param chunkSize the number of rows processed per instruction
+     * @throws IllegalArgumentException if the chunk size is not positive
+     */
+    public BatchEvaluator(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+        this.buffers = new double[0][];
+        this.temporaryVectors = new double[0][];
+    }
+
+    /**
+     * Evaluates an expression for every row of the given columns.
+     *
+     * @param expression the expression to evaluate
+     * @param columns a column of values for every variable of the expression
+     * @param out receives one result per row; its length is the number of rows
+     * @throws InvalidVariableException if a column is missing or shorter than {@code out}
+     */
+    public void evaluate(CompiledExpression expression, Map<String, double[]> columns, double[] out) {
+        evaluate(expression, resolveColumns(expression, columns, out.length), out, 0, out.length);
+    }
+
+    /**
+     * Orders columns by the expression's variable indices and checks their lengths.
+     *
+     * @param expression the expression to evaluate
+     * @param columns a column of values for every variable of the expression
+     * @param rows the number of rows that will be evaluated
+     * @return the columns, indexed as reported by {@link CompiledExpression#indexOf(String)}
+     * @throws InvalidVariableException if a column is missing or too short
+     */
+    static double[][] resolveColumns(CompiledExpression expression, Map<String, double[]> columns, int rows) {
+        List<String> names = expression.getVariableNames();
+        double[][] result = new double[names.size()][];
+        for (int i = 0; i < result.length; i++) {
+            String name = names.get(i);
+            double[] column = columns.get(name);
+            if (column == null) {
+                throw new InvalidVariableException("ERROR: No column provided for variable '" + name + "'");
+            }
+            if (column.length < rows) {
+                throw new InvalidVariableException("ERROR: Column '" + name + "' has " + column.length
+                        + " rows, expected " + rows);
+            }
+            result[i] = column;
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates an expression for a range of rows.
+     *
+     * @param expression the expression to evaluate
+     * @param columns columns indexed by the expression's variable indices
+     * @param out receives the results at the same row indices
+     * @param from the first row, inclusive
+     * @param to the last row, exclusive
+     */
+    void evaluate(CompiledExpression expression, double[][] columns, double[] out, int from, int to) {
+        prepare(expression.getMaxStackDepth(), expression.getTemporaryCount());
+
+        for (int start = from; start < to; start += chunkSize) {
+            int n = Math.min(chunkSize, to - start);
+            int top = run(expression, columns, start, n);
+            if (top != 1) {
+                throw new IllegalStateException("Unbalanced program");
+            }
+
+            if (scalar[0]) {
+                Arrays.fill(out, start, start + n, scalars[0]);
+            } else {
+                System.arraycopy(vectors[0], offsets[0], out, start, n);
+            }
+        }
+    }
+
+    private void prepare(int depth, int temporaries) {
+        if (temporaryVectors.length < temporaries) {
+            double[][] grown = Arrays.copyOf(temporaryVectors, temporaries);
+            for (int i = temporaryVectors.length; i < temporaries; i++) {
+                grown[i] = new double[chunkSize];
+            }
+            temporaryVectors = grown;
+            temporaryScalar = new boolean[temporaries];
+            temporaryScalars = new double[temporaries];
+        }
+        if (buffers.length < depth) {
+            double[][] grown = new double[depth][];
+            for (int i = 0; i < depth; i++) {
+                grown[i] = i < buffers.length ? buffers[i] : new double[chunkSize];
+            }
+            buffers = grown;
+            scalar = new boolean[depth];
+            scalars = new double[depth];
+            vectors = new double[depth][];
+            offsets = new int[depth];
+        }
+    }
+
+    /**
+     * Runs the program over one chunk of rows.
+     *
+     * @return the final stack height
+     */
+    private int run(CompiledExpression expression, double[][] columns, int start, int n) {
+        byte[] instructions = expression.instructions();
+        int[] operands = expression.operands();
+        double[] constants = expression.constants();
+        Operator[] operators = expression.operators();
+        Function[] functions = expression.functions();
+        int top = 0;
+
+        for (int pc = 0; pc < instructions.length; pc++) {
+            byte opcode = instructions[pc];
+            switch (opcode) {
+                case Opcodes.PUSH_CONSTANT -> {
+                    scalar[top] = true;
+                    scalars[top] = constants[operands[pc]];
+                    top++;
+                }
+                case Opcodes.LOAD_VARIABLE -> {
+                    scalar[top] = false;
+                    vectors[top] = columns[operands[pc]];
+                    offsets[top] = start;
+                    top++;
+                }
+                case Opcodes.STORE_TEMP -> storeTemporary(top - 1, operands[pc], n);
+                case Opcodes.LOAD_TEMP -> {
+                    int temporary = operands[pc];
+                    scalar[top] = temporaryScalar[temporary];
+                    scalars[top] = temporaryScalars[temporary];
+                    vectors[top] = temporaryVectors[temporary];
+                    offsets[top] = 0;
+                    top++;
+                }
+                case Opcodes.INTEGER_POWER -> integerPower(top - 1, operands[pc], n);
+                case Opcodes.FUSED_MULTIPLY_ADD -> {
+                    top -= 2;
+                    fusedMultiplyAdd(top - 1, n);
+                }
+                case Opcodes.SQRT, Opcodes.ABS, Opcodes.SIN, Opcodes.COS, Opcodes.LOG ->
+                        applyUnary(opcode, null, top - 1, n);
+                case Opcodes.CALL_UNARY -> applyUnary(opcode, functions[operands[pc]], top - 1, n);
+                case Opcodes.CALL_BINARY -> {
+                    top--;
+                    call(opcode, functions[operands[pc]], top - 1, 2, n);
+                }
+                case Opcodes.CALL_TERNARY -> {
+                    top -= 2;
+                    call(opcode, functions[operands[pc]], top - 1, 3, n);
+                }
+                default -> {
+                    top--;
+                    int left = top - 1;
+                    Operator operator = opcode == Opcodes.APPLY_OPERATOR ? operators[operands[pc]] : null;
+                    if (scalar[left] && scalar[top]) {
+                        scalars[left] = applyScalar(opcode, operator, scalars[left], scalars[top]);
+                    } else {
+                        // The result goes to the left operand's own buffer, which no other entry references
+                        double[] result = buffers[left];
+                        if (scalar[top]) {
+                            applyVectorScalar(opcode, operator, vectors[left], offsets[left], scalars[top], result, n);
+                        } else if (scalar[left]) {
+                            applyScalarVector(opcode, operator, scalars[left], vectors[top], offsets[top], result, n);
+                        } else {
+                            applyVectorVector(opcode, operator, vectors[left], offsets[left],
+                                    vectors[top], offsets[top], result, n);
+                        }
+                        scalar[left] = false;
+                        vectors[left] = result;
+                        offsets[left] = 0;
+                    }
+                }
+            }
+        }
+        return top;
+    }
+
+    private void storeTemporary(int position, int temporary, int n) {
+        temporaryScalar[temporary] = scalar[position];
+        if (scalar[position]) {
+            temporaryScalars[temporary] = scalars[position];
+        } else if (vectors[position] == buffers[position]) {
+            // Hand the result buffer to the temporary instead of copying it
+            double[] result = buffers[position];
+            buffers[position] = temporaryVectors[temporary];
+            temporaryVectors[temporary] = result;
+        } else {
+            System.arraycopy(vectors[position], offsets[position], temporaryVectors[temporary], 0, n);
+        }
+    }
+
+    private void integerPower(int position, int exponent, int n) {
+        if (scalar[position]) {
+            scalars[position] = Opcodes.integerPower(scalars[position], exponent);
+            return;
+        }
+        double[] a = vectors[position];
+        int ao = offsets[position];
+        double[] d = buffers[position];
+        if (exponent == 2) {
+            for (int i = 0; i < n; i++) {
+                d[i] = a[ao + i] * a[ao + i];
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                d[i] = Opcodes.integerPower(a[ao + i], exponent);
+            }
+        }
+        vectors[position] = d;
+        offsets[position] = 0;
+    }
+
+    private void fusedMultiplyAdd(int position, int n) {
+        if (scalar[position] && scalar[position + 1] && scalar[position + 2]) {
+            scalars[position] = Math.fma(scalars[position], scalars[position + 1], scalars[position + 2]);
+            return;
+        }
+        // Rare enough not to specialize
+        broadcast(position, 3, n);
+        double[] a = vectors[position];
+        double[] b = vectors[position + 1];
+        double[] c = vectors[position + 2];
+        int ao = offsets[position];
+        int bo = offsets[position + 1];
+        int co = offsets[position + 2];
+        double[] d = buffers[position];
+        for (int i = 0; i < n; i++) {
+            d[i] = Math.fma(a[ao + i], b[bo + i], c[co + i]);
+        }
+        vectors[position] = d;
+        offsets[position] = 0;
+    }
+
+    private void applyUnary(byte opcode, Function function, int position, int n) {
+        if (scalar[position]) {
+            Opcodes.call(opcode, function, scalars, position + 1);
+            return;
+        }
+        double[] a = vectors[position];
+        int ao = offsets[position];
+        double[] d = buffers[position];
+        switch (opcode) {
+            case Opcodes.SQRT -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.sqrt(a[ao + i]);
+                }
+            }
+            case Opcodes.ABS -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.abs(a[ao + i]);
+                }
+            }
+            case Opcodes.SIN -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.sin(a[ao + i]);
+                }
+            }
+            case Opcodes.COS -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.cos(a[ao + i]);
+                }
+            }
+            case Opcodes.LOG -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.log(a[ao + i]);
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = function.apply(a[ao + i]);
+                }
+            }
+        }
+        vectors[position] = d;
+        offsets[position] = 0;
+    }
+
+    /**
+     * Applies a custom function of two or three arguments.
+     */
+    private void call(byte opcode, Function function, int position, int arity, int n) {
+        boolean allScalar = true;
+        for (int p = position; p < position + arity; p++) {
+            allScalar &= scalar[p];
+        }
+        if (allScalar) {
+            Opcodes.call(opcode, function, scalars, position + arity);
+            return;
+        }
+        broadcast(position, arity, n);
+        double[] a = vectors[position];
+        double[] b = vectors[position + 1];
+        int ao = offsets[position];
+        int bo = offsets[position + 1];
+        double[] d = buffers[position];
+        if (arity == 2) {
+            for (int i = 0; i < n; i++) {
+                d[i] = function.apply(a[ao + i], b[bo + i]);
+            }
+        } else {
+            double[] c = vectors[position + 2];
+            int co = offsets[position + 2];
+            for (int i = 0; i < n; i++) {
+                d[i] = function.apply(a[ao + i], b[bo + i], c[co + i]);
+            }
+        }
+        vectors[position] = d;
+        offsets[position] = 0;
+    }
+
+    /**
+     * Turns scalar operands into vectors by filling their own buffers.
+     */
+    private void broadcast(int position, int count, int n) {
+        for (int p = position; p < position + count; p++) {
+            if (scalar[p]) {
+                Arrays.fill(buffers[p], 0, n, scalars[p]);
+                scalar[p] = false;
+                vectors[p] = buffers[p];
+                offsets[p] = 0;
+            }
+        }
+    }
+
+    private static double applyScalar(byte opcode, Operator operator, double a, double b) {
+        switch (opcode) {
+            case Opcodes.ADD:
+                return a + b;
+            case Opcodes.SUBTRACT:
+                return a - b;
+            case Opcodes.MULTIPLY:
+                return a * b;
+            case Opcodes.DIVIDE:
+                checkDivisor(b);
+                return a / b;
+            case Opcodes.MODULO:
+                checkDivisor(b);
+                return a % b;
+            case Opcodes.POWER:
+                return Math.pow(a, b);
+            case Opcodes.MIN:
+                return Math.min(a, b);
+            case Opcodes.MAX:
+                return Math.max(a, b);
+            default:
+                return operator.apply(a, b);
+        }
+    }
+
+    private static void applyVectorVector(byte opcode, Operator operator, double[] a, int ao,
+                                          double[] b, int bo, double[] d, int n) {
+        switch (opcode) {
+            case Opcodes.ADD -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] + b[bo + i];
+                }
+            }
+            case Opcodes.SUBTRACT -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] - b[bo + i];
+                }
+            }
+            case Opcodes.MULTIPLY -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] * b[bo + i];
+                }
+            }
+            case Opcodes.DIVIDE -> {
+                checkDivisors(b, bo, n);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] / b[bo + i];
+                }
+            }
+            case Opcodes.MODULO -> {
+                checkDivisors(b, bo, n);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] % b[bo + i];
+                }
+            }
+            case Opcodes.POWER -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a[ao + i], b[bo + i]);
+                }
+            }
+            case Opcodes.MIN -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.min(a[ao + i], b[bo + i]);
+                }
+            }
+            case Opcodes.MAX -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.max(a[ao + i], b[bo + i]);
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = operator.apply(a[ao + i], b[bo + i]);
+                }
+            }
+        }
+    }
+
+    private static void applyVectorScalar(byte opcode, Operator operator, double[] a, int ao,
+                                          double b, double[] d, int n) {
+        switch (opcode) {
+            case Opcodes.ADD -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] + b;
+                }
+            }
+            case Opcodes.SUBTRACT -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] - b;
+                }
+            }
+            case Opcodes.MULTIPLY -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] * b;
+                }
+            }
+            case Opcodes.DIVIDE -> {
+                checkDivisor(b);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] / b;
+                }
+            }
+            case Opcodes.MODULO -> {
+                checkDivisor(b);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a[ao + i] % b;
+                }
+            }
+            case Opcodes.POWER -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a[ao + i], b);
+                }
+            }
+            case Opcodes.MIN -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.min(a[ao + i], b);
+                }
+            }
+            case Opcodes.MAX -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.max(a[ao + i], b);
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = operator.apply(a[ao + i], b);
+                }
+            }
+        }
+    }
+
+    private static void applyScalarVector(byte opcode, Operator operator, double a,
+                                          double[] b, int bo, double[] d, int n) {
+        switch (opcode) {
+            case Opcodes.ADD -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a + b[bo + i];
+                }
+            }
+            case Opcodes.SUBTRACT -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a - b[bo + i];
+                }
+            }
+            case Opcodes.MULTIPLY -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = a * b[bo + i];
+                }
+            }
+            case Opcodes.DIVIDE -> {
+                checkDivisors(b, bo, n);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a / b[bo + i];
+                }
+            }
+            case Opcodes.MODULO -> {
+                checkDivisors(b, bo, n);
+                for (int i = 0; i < n; i++) {
+                    d[i] = a % b[bo + i];
+                }
+            }
+            case Opcodes.POWER -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.pow(a, b[bo + i]);
+                }
+            }
+            case Opcodes.MIN -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.min(a, b[bo + i]);
+                }
+            }
+            case Opcodes.MAX -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = Math.max(a, b[bo + i]);
+                }
+            }
+            default -> {
+                for (int i = 0; i < n; i++) {
+                    d[i] = operator.apply(a, b[bo + i]);
+                }
+            }
+        }
+    }
+
+    private static void checkDivisor(double b) {
+        if (b == 0.0) {
+            throw DivisionByZeroException.INSTANCE;
+        }
+    }
+
+    private static void checkDivisors(double[] b, int bo, int n) {
+        for (int i = 0; i < n; i++) {
+            if (b[bo + i] == 0.0) {
+                throw DivisionByZeroException.INSTANCE;
+            }
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Generates a JVM hidden class for a {@link CompiledExpression}.
+ * The generated {@code eval(double[])} method replays the opcode program directly on the
+ * JVM operand stack: built-in opcodes become {@code dadd}/{@code dsub}/{@code dmul}/
+ * {@code ddiv}/{@code drem} instructions or calls to {@code Math.pow} and {@code Math.fma},
+ * built-in functions become calls to their {@link Math} methods, which the JIT replaces with
+ * intrinsics, and only custom operators and functions are invoked through their
+ * {@link Operator} or {@link Function} instance. Hidden
+ * classes are not strongly referenced by their loader, so generated code is unloaded with
+ * its expression.
+ */
+public class BytecodeCompiler {
+    private static final String CLASS_NAME = "com/javacalc/calculator/GeneratedExpression";
+    private static final String INTERFACE_NAME = "com/javacalc/calculator/BytecodeExpression";
+    private static final String OPERATOR_NAME = "com/javacalc/operators/Operator";
+    private static final String OPERATORS_DESCRIPTOR = "[L" + OPERATOR_NAME + ";";
+    private static final String FUNCTION_NAME = "com/javacalc/operators/Function";
+    private static final String FUNCTIONS_DESCRIPTOR = "[L" + FUNCTION_NAME + ";";
+    private static final String SUPPORT_NAME = "com/javacalc/calculator/BytecodeCompiler";
+    private static final String OPCODES_NAME = "com/javacalc/calculator/Opcodes";
+
+    private static final int MAX_CODE_LENGTH = 65535;
+    private static final int MAX_LOCALS = 65535;
+
+    // Temporaries for custom operator and function calls, after 'this' (0) and 'vars' (1)
+    private static final int LEFT_LOCAL = 2;
+    private static final int RIGHT_LOCAL = 4;
+    private static final int THIRD_LOCAL = 6;
+    // Common subexpression temporaries follow, two slots each
+    private static final int FIRST_TEMP_LOCAL = 8;
+
+    /**
+     * Compiles an expression into a generated class.
+     *
+     * @param expression the compiled expression
+     * @return a bytecode implementation of the expression
+     * @throws InvalidExpressionException if the expression is too large for a single JVM method
+     */
+    public BytecodeExpression compile(CompiledExpression expression) {
+        byte[] classFile = generate(expression);
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (BytecodeExpression) lookup.findConstructor(lookup.lookupClass(),
+                            MethodType.methodType(void.class, Operator[].class, Function[].class))
+                    .invoke(expression.operators(), expression.functions());
+        } catch (CalculatorException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new CalculatorException("ERROR: Failed to generate bytecode for '" + expression.getSource() + "'", e);
+        }
+    }
+
+    /**
+     * Guards the divisor of the native division and modulo instructions.
+     * Called from generated code; trivially inlined by the JIT.
+     *
+     * @param b the divisor
+     * @return the divisor, unchanged
+     * @throws DivisionByZeroException if the divisor is zero
+     */
+    static double checkDivisor(double b) {
+        if (b == 0.0) {
+            throw DivisionByZeroException.INSTANCE;
+        }
+        return b;
+    }
+
+    private byte[] generate(CompiledExpression expression) {
+        ConstantPool pool = new ConstantPool();
+        int thisClass = pool.classRef(CLASS_NAME);
+        int superClass = pool.classRef("java/lang/Object");
+        int interfaceClass = pool.classRef(INTERFACE_NAME);
+        int operatorsField = pool.fieldRef(CLASS_NAME, "operators", OPERATORS_DESCRIPTOR);
+        int functionsField = pool.fieldRef(CLASS_NAME, "functions", FUNCTIONS_DESCRIPTOR);
+        int codeAttribute = pool.utf8("Code");
+
+        Code constructor = new Code();
+        constructor.op(0x2a);                                   // aload_0
+        constructor.op(0xb7).u2(pool.methodRef("java/lang/Object", "<init>", "()V"));
+        constructor.op(0x2a);                                   // aload_0
+        constructor.op(0x2b);                                   // aload_1
+        constructor.op(0xb5).u2(operatorsField);                // putfield operators
+        constructor.op(0x2a);                                   // aload_0
+        constructor.op(0x2c);                                   // aload_2
+        constructor.op(0xb5).u2(functionsField);                // putfield functions
+        constructor.op(0xb1);                                   // return
+
+        Code eval = generateEval(expression, pool, operatorsField, functionsField);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(61);                                 // Java 17 class file
+            int initName = pool.utf8("<init>");
+            int initDescriptor = pool.utf8("(" + OPERATORS_DESCRIPTOR + FUNCTIONS_DESCRIPTOR + ")V");
+            int evalName = pool.utf8("eval");
+            int evalDescriptor = pool.utf8("([D)D");
+            int operatorsName = pool.utf8("operators");
+            int operatorsDescriptor = pool.utf8(OPERATORS_DESCRIPTOR);
+            int functionsName = pool.utf8("functions");
+            int functionsDescriptor = pool.utf8(FUNCTIONS_DESCRIPTOR);
+            pool.writeTo(out);
+
+            out.writeShort(0x0001 | 0x0010 | 0x0020);           // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+
+            out.writeShort(2);                                  // fields
+            writeField(out, operatorsName, operatorsDescriptor);
+            writeField(out, functionsName, functionsDescriptor);
+
+            out.writeShort(2);                                  // methods
+            writeMethod(out, 0x0001, initName, initDescriptor, codeAttribute, constructor, 2, 3);
+            writeMethod(out, 0x0001 | 0x0010, evalName, evalDescriptor, codeAttribute, eval,
+                    eval.maxStack, FIRST_TEMP_LOCAL + 2 * expression.getTemporaryCount());
+
+            out.writeShort(0);                                  // class attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Code generateEval(CompiledExpression expression, ConstantPool pool, int operatorsField,
+                              int functionsField) {
+        byte[] instructions = expression.instructions();
+        int[] operands = expression.operands();
+        double[] constants = expression.constants();
+        if (FIRST_TEMP_LOCAL + 2L * expression.getTemporaryCount() > MAX_LOCALS) {
+            throw new InvalidExpressionException("ERROR: Expression is too large to compile to bytecode");
+        }
+        Code code = new Code();
+        for (int pc = 0; pc < instructions.length; pc++) {
+            int operand = operands[pc];
+            switch (instructions[pc]) {
+                case Opcodes.PUSH_CONSTANT -> {
+                    double value = constants[operand];
+                    if (Double.doubleToRawLongBits(value) == 0L) {
+                        code.op(0x0e);                          // dconst_0
+                    } else if (value == 1.0) {
+                        code.op(0x0f);                          // dconst_1
+                    } else {
+                        code.op(0x14).u2(pool.doubleConstant(value)); // ldc2_w
+                    }
+                    code.push(2);
+                }
+                case Opcodes.LOAD_VARIABLE -> {
+                    code.op(0x2b);                              // aload_1
+                    code.push(1);
+                    code.pushInt(operand, pool);
+                    code.op(0x31);                              // daload
+                    code.pop(2);
+                    code.push(2);
+                }
+                case Opcodes.ADD -> code.op(0x63).pop(2);              // dadd
+                case Opcodes.SUBTRACT -> code.op(0x67).pop(2);         // dsub
+                case Opcodes.MULTIPLY -> code.op(0x6b).pop(2);         // dmul
+                case Opcodes.DIVIDE -> {
+                    code.op(0xb8).u2(pool.methodRef(SUPPORT_NAME, "checkDivisor", "(D)D"));
+                    code.op(0x6f).pop(2);                       // ddiv
+                }
+                case Opcodes.MODULO -> {
+                    code.op(0xb8).u2(pool.methodRef(SUPPORT_NAME, "checkDivisor", "(D)D"));
+                    code.op(0x73).pop(2);                       // drem
+                }
+                case Opcodes.POWER -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "pow", "(DD)D")).pop(2);
+                case Opcodes.STORE_TEMP -> {
+                    code.op(0x5c);                              // dup2
+                    code.push(2);
+                    code.local(0x39, FIRST_TEMP_LOCAL + 2 * operand); // dstore
+                    code.pop(2);
+                }
+                case Opcodes.LOAD_TEMP -> {
+                    code.local(0x18, FIRST_TEMP_LOCAL + 2 * operand); // dload
+                    code.push(2);
+                }
+                case Opcodes.INTEGER_POWER -> {
+                    if (operand == 2) {
+                        code.op(0x5c);                          // dup2
+                        code.push(2);
+                        code.op(0x6b).pop(2);                   // dmul
+                    } else {
+                        code.pushInt(operand, pool);
+                        code.op(0xb8).u2(pool.methodRef(OPCODES_NAME, "integerPower", "(DI)D")).pop(1);
+                    }
+                }
+                case Opcodes.FUSED_MULTIPLY_ADD -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "fma", "(DDD)D")).pop(4);
+                case Opcodes.SQRT -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "sqrt", "(D)D"));
+                case Opcodes.ABS -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "abs", "(D)D"));
+                case Opcodes.SIN -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "sin", "(D)D"));
+                case Opcodes.COS -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "cos", "(D)D"));
+                case Opcodes.LOG -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "log", "(D)D"));
+                case Opcodes.MIN -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "min", "(DD)D")).pop(2);
+                case Opcodes.MAX -> code.op(0xb8).u2(pool.methodRef("java/lang/Math", "max", "(DD)D")).pop(2);
+                case Opcodes.CALL_UNARY -> callFunction(code, pool, functionsField, operand, 1);
+                case Opcodes.CALL_BINARY -> callFunction(code, pool, functionsField, operand, 2);
+                case Opcodes.CALL_TERNARY -> callFunction(code, pool, functionsField, operand, 3);
+                default -> {
+                    // operators[operand].apply(a, b): the receiver must sit below both operands
+                    code.op(0x39).u1(RIGHT_LOCAL);              // dstore b
+                    code.op(0x39).u1(LEFT_LOCAL);               // dstore a
+                    code.pop(4);
+                    code.op(0x2a);                              // aload_0
+                    code.op(0xb4).u2(operatorsField);           // getfield operators
+                    code.push(1);
+                    code.pushInt(operand, pool);
+                    code.op(0x32);                              // aaload
+                    code.pop(1);
+                    code.op(0x18).u1(LEFT_LOCAL);               // dload a
+                    code.op(0x18).u1(RIGHT_LOCAL);              // dload b
+                    code.push(4);
+                    code.op(0xb6).u2(pool.methodRef(OPERATOR_NAME, "apply", "(DD)D"));
+                    code.pop(5);
+                    code.push(2);
+                }
+            }
+
+            // Leave room for the dreturn
+            if (code.length() >= MAX_CODE_LENGTH) {
+                throw tooLarge();
+            }
+        }
+        code.op(0xaf);                                          // dreturn
+        return code;
+    }
+
+    /**
+     * Emits {@code functions[index].apply(...)} on the arguments at the top of the stack.
+     * The receiver must sit below the arguments, so they are stored in locals and reloaded.
+     */
+    private static void callFunction(Code code, ConstantPool pool, int functionsField, int index, int arity) {
+        int[] locals = {LEFT_LOCAL, RIGHT_LOCAL, THIRD_LOCAL};
+        for (int i = arity - 1; i >= 0; i--) {
+            code.op(0x39).u1(locals[i]);                        // dstore
+            code.pop(2);
+        }
+        code.op(0x2a);                                          // aload_0
+        code.op(0xb4).u2(functionsField);                       // getfield functions
+        code.push(1);
+        code.pushInt(index, pool);
+        code.op(0x32);                                          // aaload
+        code.pop(1);
+        for (int i = 0; i < arity; i++) {
+            code.op(0x18).u1(locals[i]);                        // dload
+            code.push(2);
+        }
+        code.op(0xb6).u2(pool.methodRef(FUNCTION_NAME, "apply", "(" + "D".repeat(arity) + ")D"));
+        code.pop(1 + 2 * arity);
+        code.push(2);
+    }
+
+    private static InvalidExpressionException tooLarge() {
+        return new InvalidExpressionException("ERROR: Expression is too large to compile to bytecode");
+    }
+
+    private static void writeField(DataOutputStream out, int name, int descriptor) throws IOException {
+        out.writeShort(0x0002 | 0x0010);                        // private final
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(0);
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor,
+                                    int codeAttribute, Code code, int maxStack, int maxLocals) throws IOException {
+        if (maxStack > 0xffff || maxLocals > 0xffff) {
+            throw tooLarge();
+        }
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + code.length());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length());
+        code.writeTo(out);
+        out.writeShort(0);                                      // exception table
+        out.writeShort(0);                                      // code attributes
+    }
+
+    /**
+     * Method body buffer that also tracks the operand stack depth in JVM slots.
+     */
+    private static final class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int depth;
+        private int maxStack;
+
+        Code op(int opcode) {
+            bytes.write(opcode);
+            return this;
+        }
+
+        Code u1(int value) {
+            bytes.write(value);
+            return this;
+        }
+
+        Code u2(int value) {
+            bytes.write(value >>> 8);
+            bytes.write(value);
+            return this;
+        }
+
+        void local(int opcode, int index) {
+            if (index <= 0xFF) {
+                op(opcode).u1(index);
+            } else {
+                op(0xc4).op(opcode).u2(index);                  // wide
+            }
+        }
+
+        void pushInt(int value, ConstantPool pool) {
+            if (value <= 5) {
+                op(0x03 + value);                               // iconst_<n>
+            } else if (value <= Byte.MAX_VALUE) {
+                op(0x10).u1(value);                             // bipush
+            } else if (value <= Short.MAX_VALUE) {
+                op(0x11).u2(value);                             // sipush
+            } else {
+                op(0x13).u2(pool.intConstant(value));           // ldc_w
+            }
+            push(1);
+        }
+
+        void push(int slots) {
+            depth += slots;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        Code pop(int slots) {
+            depth -= slots;
+            return this;
+        }
+
+        int length() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Class file constant pool with de-duplication of entries.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            return entry("U" + value, 1, 1, out -> out.writeUTF(value));
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("C" + internalName, 7, 1, out -> out.writeShort(name));
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(9, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(10, owner, name, descriptor);
+        }
+
+        int intConstant(int value) {
+            return entry("I" + value, 3, 1, out -> out.writeInt(value));
+        }
+
+        int doubleConstant(double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            return entry("D" + bits, 6, 2, out -> out.writeLong(bits));
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            int nameAndType = entry("N" + name + ":" + descriptor, 12, 1, out -> {
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry(tag + owner + "." + name + ":" + descriptor, tag, 1, out -> {
+                out.writeShort(ownerClass);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        private int entry(String key, int tag, int slots, EntryWriter writer) {
+            Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (count + slots > 0xFFFF) {
+                throw new InvalidExpressionException("ERROR: Expression is too large to compile to bytecode");
+            }
+            try {
+                out.writeByte(tag);
+                writer.write(out);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            int index = count;
+            count += slots;
+            entries.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            target.writeShort(count);
+            bytes.writeTo(target);
+        }
+
+        @FunctionalInterface
+        private interface EntryWriter {
+            void write(DataOutputStream out) throws IOException;
+        }
+    }
+}
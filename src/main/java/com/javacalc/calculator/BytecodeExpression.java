@@ -0,0 +1,17 @@
+package com.javacalc.calculator;
+
+/**
+ * An expression compiled to JVM bytecode by {@link BytecodeCompiler}.
+ * Implementations are generated hidden classes whose {@code eval} method is
+ * straight-line arithmetic, so the JIT can inline and register-allocate it
+ * like hand-written Java. Implementations are immutable and thread-safe.
+ */
+public interface BytecodeExpression {
+    /**
+     * Evaluates the expression.
+     *
+     * @param vars variable values, indexed as reported by {@link CompiledExpression#indexOf(String)}
+     * @return the result of the evaluation
+     */
+    double eval(double[] vars);
+}
@@ -1,14 +1,33 @@
 package com.javacalc.calculator;
 
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.DivisionByZeroException;
 import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.exceptions.InvalidVariableException;
 import com.javacalc.operators.OperatorRegistry;
 import com.javacalc.variables.VariableManager;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Main calculator class that coordinates expression parsing and evaluation.
  * Supports both infix and postfix notation modes.
+ * <p>
+ * Parsed expressions are kept in a bounded {@link ExpressionCache}, and evaluation is tiered:
+ * an expression is interpreted from its cached postfix form until it has been evaluated
+ * {@link #getCompileThreshold() compile threshold} times, after which it is compiled
+ * to bytecode and subsequent evaluations run the generated code. The first evaluation of an
+ * infix expression skips the postfix form and is parsed and evaluated in one pass by an
+ * {@link InfixEvaluator}, since most expressions seen once are never seen again.
+ * <p>
+ * A calculator given its own worker pool by {@link #setParallelism(int)} should be
+ * {@link #close() closed} when it is no longer needed, to stop the pool's threads.
  */
-public class Calculator {
+public class Calculator implements AutoCloseable {
     /**
      * Calculation mode enumeration.
      */
@@ -17,20 +36,53 @@ public class Calculator {
         INFIX     // Standard mathematical notation
     }
 
+    /**
+     * Default number of evaluations after which an expression is compiled.
+     */
+    public static final int DEFAULT_COMPILE_THRESHOLD = 100;
+
     private final OperatorRegistry operatorRegistry;
     private final VariableManager variableManager;
     private final ExpressionParser parser;
     private final ExpressionEvaluator evaluator;
+    private final InfixEvaluator infixEvaluator;
+    private final ExpressionCompiler compiler;
+    private final BytecodeCompiler bytecodeCompiler;
+    private final BatchEvaluator batchEvaluator;
+    private ParallelBatchEvaluator parallelEvaluator;
+    private final ExpressionCache expressionCache;
+    // Holder for the throwing API, which reports the errors of the result-based one
+    private final EvaluationResult result;
+    private int compileThreshold;
     private Mode mode;
 
     /**
      * Creates a new Calculator with default mode (POSTFIX).
      */
     public Calculator() {
-        this.operatorRegistry = new OperatorRegistry();
+        this(new OperatorRegistry());
+    }
+
+    /**
+     * Creates a new Calculator with default mode (POSTFIX) that uses an existing operator
+     * registry. A {@link OperatorRegistry#freeze() frozen} registry, such as
+     * {@link OperatorRegistry#defaults()}, can be shared by many calculators.
+     *
+     * @param operatorRegistry the operators to use
+     */
+    public Calculator(OperatorRegistry operatorRegistry) {
+        this.operatorRegistry = operatorRegistry;
         this.variableManager = new VariableManager();
         this.parser = new ExpressionParser(operatorRegistry);
         this.evaluator = new ExpressionEvaluator(operatorRegistry, variableManager);
+        this.infixEvaluator = new InfixEvaluator(operatorRegistry, variableManager);
+        this.compiler = new ExpressionCompiler(operatorRegistry);
+        this.bytecodeCompiler = new BytecodeCompiler();
+        this.batchEvaluator = new BatchEvaluator();
+        this.parallelEvaluator = new ParallelBatchEvaluator();
+        this.expressionCache = new ExpressionCache(operatorRegistry);
+        this.result = new EvaluationResult();
+        this.compileThreshold = DEFAULT_COMPILE_THRESHOLD;
         this.mode = Mode.POSTFIX;
     }
 
@@ -52,23 +104,402 @@ public class Calculator {
         return mode;
     }
 
+    /**
+     * Sets the number of evaluations after which an expression is compiled to bytecode.
+     * A threshold of 1 compiles every expression on first use; {@link Integer#MAX_VALUE}
+     * effectively disables compilation.
+     *
+     * @param compileThreshold the invocation count that triggers compilation
+     * @throws IllegalArgumentException if the threshold is less than 1
+     */
+    public void setCompileThreshold(int compileThreshold) {
+        if (compileThreshold < 1) {
+            throw new IllegalArgumentException("Compile threshold must be at least 1");
+        }
+        this.compileThreshold = compileThreshold;
+    }
+
+    /**
+     * Gets the number of evaluations after which an expression is compiled to bytecode.
+     *
+     * @return the compile threshold
+     */
+    public int getCompileThreshold() {
+        return compileThreshold;
+    }
+
     /**
      * Evaluates an expression in the current mode.
+     * The expression is interpreted until it crosses the compile threshold, then compiled.
      *
      * @param expression the expression to evaluate
      * @return the result of the evaluation
      * @throws InvalidExpressionException if the expression is invalid
      */
     public double evaluate(String expression) {
+        EvaluationResult result = this.result;
+        if (!tryEvaluate(expression, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Evaluates an expression in the current mode, reporting errors in a result holder instead
+     * of throwing them. Parsing and interpretation detect errors without creating exceptions,
+     * so invalid input costs about as much as valid input; reuse one holder to avoid allocating.
+     *
+     * @param expression the expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     */
+    public boolean tryEvaluate(String expression, EvaluationResult result) {
+        try {
+            ExpressionProfile profile = expressionCache.getOrCreate(expression, mode);
+            long invocations = profile.recordInvocation();
+
+            if (profile.isPromoted() && isShadowingChanged(profile)) {
+                // A variable that shadows a function name was defined or cleared; compile again
+                profile.demote();
+            }
+            if (!profile.isPromoted()) {
+                if (invocations == 1 && compileThreshold > 1 && mode == Mode.INFIX) {
+                    // An expression seen once may never be seen again; parse and evaluate it in one pass
+                    return infixEvaluator.evaluate(expression, result);
+                }
+                String postfix = postfixOf(profile, result);
+                if (postfix == null) {
+                    return false;
+                }
+                if (invocations < compileThreshold || profile.uncompilable) {
+                    return evaluator.evaluatePostfix(postfix, null, result);
+                }
+                CompiledExpression program = compiler.compile(expression, postfix, variableManager);
+                BytecodeExpression code = compileBytecode(program);
+                if (code == null) {
+                    profile.uncompilable = true;
+                    return evaluator.evaluatePostfix(postfix, null, result);
+                }
+                profile.promote(program, code, resolveSlots(program));
+                resolveShadowing(profile, compiler.shadowableNames(postfix));
+                expressionCache.updateWeight(profile);
+            }
+
+            double[] arguments = profile.arguments;
+            int[] slots = profile.slots;
+            for (int i = 0; i < arguments.length; i++) {
+                // Match the interpreter, which initializes undefined variables to 0
+                variableManager.ensureDefined(slots[i]);
+                arguments[i] = variableManager.getValue(slots[i]);
+            }
+            return result.succeed(profile.code.eval(arguments));
+        } catch (CalculatorException e) {
+            // Compiled code and custom operators still signal errors with (stackless) exceptions
+            return result.fail(e);
+        }
+    }
+
+    /**
+     * Evaluates an expression once, without caching or compiling it. Suited to a stream of
+     * mostly distinct expressions, such as the lines of a batch file: the expression can be
+     * any character sequence, for example a view over a file buffer, and it is never copied
+     * into a string or retained, so neither the cache nor the heap grows with the input.
+     *
+     * @param expression the expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     */
+    public boolean tryEvaluateUncached(CharSequence expression, EvaluationResult result) {
+        try {
+            if (mode == Mode.INFIX) {
+                return infixEvaluator.evaluate(expression, result);
+            }
+            return evaluator.evaluatePostfix(expression, null, result);
+        } catch (CalculatorException e) {
+            return result.fail(e);
+        }
+    }
+
+    /**
+     * Evaluates an expression read from a reader, in the current mode, without caching or
+     * compiling it. The expression is read and evaluated in chunks, so an expression of many
+     * megabytes needs memory proportional to its nesting depth rather than its length.
+     * The reader is not closed.
+     *
+     * @param expression the expression to evaluate
+     * @return the result of the evaluation
+     * @throws InvalidExpressionException if the expression is invalid
+     * @throws IOException if reading fails
+     */
+    public double evaluate(Reader expression) throws IOException {
+        EvaluationResult result = this.result;
+        if (!tryEvaluate(expression, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Evaluates an expression read from a reader, as {@link #evaluate(Reader)} does, reporting
+     * errors in a result holder instead of throwing them.
+     *
+     * @param expression the expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     * @throws IOException if reading fails
+     */
+    public boolean tryEvaluate(Reader expression, EvaluationResult result) throws IOException {
+        try {
+            if (mode == Mode.INFIX) {
+                return infixEvaluator.evaluate(expression, result);
+            }
+            return evaluator.evaluatePostfix(expression, result);
+        } catch (CalculatorException e) {
+            return result.fail(e);
+        }
+    }
+
+    /**
+     * Records the slots of the function names in a promoted program that a variable could
+     * shadow, and whether one did when the program was compiled.
+     */
+    private void resolveShadowing(ExpressionProfile profile, String[] names) {
+        int[] slots = new int[names.length];
+        boolean[] shadowed = new boolean[names.length];
+        for (int i = 0; i < names.length; i++) {
+            slots[i] = variableManager.slotOf(names[i]);
+            shadowed[i] = variableManager.isDefined(slots[i]);
+        }
+        profile.shadowSlots = slots;
+        profile.shadowed = shadowed;
+    }
+
+    /**
+     * Checks whether a function name in a promoted program is shadowed by a variable now but
+     * was not when the program was compiled, or the other way round.
+     */
+    private boolean isShadowingChanged(ExpressionProfile profile) {
+        int[] slots = profile.shadowSlots;
+        for (int i = 0; i < slots.length; i++) {
+            if (variableManager.isDefined(slots[i]) != profile.shadowed[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Generates bytecode for a program if it can, for example if it fits in a single JVM method.
+     *
+     * @return the generated code, or null if the program must stay interpreted
+     */
+    private BytecodeExpression compileBytecode(CompiledExpression program) {
+        try {
+            return bytecodeCompiler.compile(program);
+        } catch (RuntimeException e) {
+            // Too large for one method, or rejected by the JVM; the interpreter still evaluates it
+            return null;
+        }
+    }
+
+    /**
+     * Resolves the variables of a program to their slots in the variable manager.
+     */
+    private int[] resolveSlots(CompiledExpression program) {
+        List<String> names = program.getVariableNames();
+        int[] slots = new int[names.size()];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = variableManager.slotOf(names.get(i));
+        }
+        return slots;
+    }
+
+    /**
+     * Gets the postfix form of a cached expression, parsing it only on first use.
+     *
+     * @return the postfix form, or null if the expression is malformed
+     */
+    private String postfixOf(ExpressionProfile profile, EvaluationResult result) {
+        if (profile.postfix == null) {
+            if (profile.getMode() == Mode.INFIX) {
+                profile.postfix = parser.infixToPostfix(profile.getExpression(), result, true);
+                if (profile.postfix != null) {
+                    expressionCache.updateWeight(profile);
+                }
+            } else {
+                profile.postfix = profile.getExpression();
+            }
+        }
+        return profile.postfix;
+    }
+
+    /**
+     * Gets the invocation profiles of all cached expressions, in both modes.
+     *
+     * @return a snapshot of the expression profiles
+     */
+    public List<ExpressionProfile> getExpressionProfiles() {
+        return expressionCache.getEntries();
+    }
+
+    /**
+     * Gets the profiles of cached expressions that have been promoted to compiled code.
+     *
+     * @return a snapshot of the promoted expression profiles
+     */
+    public List<ExpressionProfile> getPromotedExpressions() {
+        List<ExpressionProfile> result = getExpressionProfiles();
+        result.removeIf(p -> !p.isPromoted());
+        return result;
+    }
+
+    /**
+     * Gets the cache of parsed expressions, for configuring its bounds and reading its statistics.
+     *
+     * @return the expression cache
+     */
+    public ExpressionCache getExpressionCache() {
+        return expressionCache;
+    }
+
+    /**
+     * Allows the compiler to apply optimizations that may change the rounding of results by
+     * an ulp: fused multiply-add, multiplication chains for integer powers above 2, and
+     * multiplication by the reciprocal for any constant divisor. Disabled by default.
+     * Expressions compiled under the previous setting are discarded.
+     *
+     * @param relaxedFloatingPoint true to allow rounding-changing optimizations
+     */
+    public void setRelaxedFloatingPoint(boolean relaxedFloatingPoint) {
+        if (relaxedFloatingPoint != compiler.isRelaxedFloatingPoint()) {
+            compiler.setRelaxedFloatingPoint(relaxedFloatingPoint);
+            expressionCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Checks whether rounding-changing optimizations are allowed.
+     *
+     * @return true if relaxed floating point is enabled
+     */
+    public boolean isRelaxedFloatingPoint() {
+        return compiler.isRelaxedFloatingPoint();
+    }
+
+    /**
+     * Compiles an expression in the current mode into a reusable program.
+     * The returned expression is immutable and thread-safe; it is evaluated with
+     * {@link CompiledExpression#evaluate(VariableBindings)} instead of against this
+     * calculator's variables. In POSTFIX mode, a function name is compiled as a variable if
+     * this calculator defines a variable of that name now.
+     *
+     * @param expression the expression to compile
+     * @return the compiled expression
+     * @throws InvalidExpressionException if the expression is invalid
+     */
+    public CompiledExpression compile(String expression) {
         String postfixExpression;
 
         if (mode == Mode.INFIX) {
-            postfixExpression = parser.infixToPostfix(expression);
+            postfixExpression = parser.infixToPostfix(expression, true);
         } else {
             postfixExpression = expression;
         }
 
-        return evaluator.evaluatePostfix(postfixExpression);
+        return compiler.compile(expression, postfixExpression, variableManager);
+    }
+
+    /**
+     * Evaluates a compiled expression for every row of a set of columns.
+     * Each variable of the expression is bound to a column, and row {@code i} of the result
+     * is the expression evaluated with the {@code i}-th value of every column.
+     *
+     * @param expression the expression to evaluate
+     * @param columns a column of values for every variable of the expression
+     * @param out receives one result per row; its length is the number of rows
+     * @throws InvalidVariableException if a column is missing or shorter than {@code out}
+     * @throws DivisionByZeroException if a row divides by zero
+     */
+    public void evaluateBatch(CompiledExpression expression, Map<String, double[]> columns, double[] out) {
+        batchEvaluator.evaluate(expression, columns, out);
+    }
+
+    /**
+     * Evaluates a compiled expression for every row of a set of columns, splitting the rows
+     * across the worker threads of a fork-join pool (see {@link #setParallelism(int)}).
+     *
+     * @param expression the expression to evaluate
+     * @param columns a column of values for every variable of the expression
+     * @param out receives one result per row; its length is the number of rows
+     * @throws InvalidVariableException if a column is missing or shorter than {@code out}
+     * @throws DivisionByZeroException if a row divides by zero
+     */
+    public void evaluateParallel(CompiledExpression expression, Map<String, double[]> columns, double[] out) {
+        parallelEvaluator.evaluate(expression, columns, out);
+    }
+
+    /**
+     * Evaluates a compiled expression for every row of bindings, splitting the rows across
+     * the worker threads of a fork-join pool. Each row holds one value per variable, ordered
+     * by {@link CompiledExpression#indexOf(String)}.
+     *
+     * @param expression the expression to evaluate
+     * @param rows the variable values of each row
+     * @param out receives one result per row; must be at least as long as {@code rows}
+     * @throws InvalidVariableException if a row has fewer values than the expression has variables
+     * @throws DivisionByZeroException if a row divides by zero
+     */
+    public void evaluateParallel(CompiledExpression expression, double[][] rows, double[] out) {
+        parallelEvaluator.evaluate(expression, rows, out);
+    }
+
+    /**
+     * Sets the number of worker threads used by parallel evaluation.
+     * By default the common fork-join pool is used. This creates a pool owned by the
+     * calculator, which replaces and shuts down any pool created by a previous call, and is
+     * itself shut down by {@link #close()}.
+     *
+     * @param parallelism the number of worker threads
+     * @throws IllegalArgumentException if parallelism is less than 1
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        ForkJoinPool previous = parallelEvaluator.getPool();
+        parallelEvaluator = new ParallelBatchEvaluator(new ForkJoinPool(parallelism),
+                ParallelBatchEvaluator.DEFAULT_SPLIT_THRESHOLD);
+        shutdownOwnedPool(previous);
+    }
+
+    /**
+     * Shuts down the worker pool created by {@link #setParallelism(int)}, if any. Parallel
+     * evaluation falls back to the common pool, and the calculator otherwise stays usable.
+     * Closing a calculator more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        ForkJoinPool previous = parallelEvaluator.getPool();
+        if (previous != ForkJoinPool.commonPool()) {
+            parallelEvaluator = new ParallelBatchEvaluator();
+            shutdownOwnedPool(previous);
+        }
+    }
+
+    private static void shutdownOwnedPool(ForkJoinPool pool) {
+        // The common pool is shared with the rest of the JVM and cannot be shut down
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Gets the number of worker threads used by parallel evaluation.
+     *
+     * @return the parallelism
+     */
+    public int getParallelism() {
+        return parallelEvaluator.getParallelism();
     }
 
     /**
@@ -79,6 +510,22 @@ public class Calculator {
      * @throws InvalidExpressionException if the assignment is invalid
      */
     public double assignVariable(String expression) {
+        String[] parts = splitAssignment(expression);
+        double value = evaluate(parts[1]);
+        variableManager.setVariable(parts[0], value);
+
+        return value;
+    }
+
+    /**
+     * Splits an assignment such as "x = 5 + 3" into its validated variable name and
+     * right-hand expression.
+     *
+     * @param expression the assignment expression
+     * @return the variable name and the value expression, both trimmed
+     * @throws InvalidExpressionException if the assignment is invalid
+     */
+    static String[] splitAssignment(String expression) {
         String[] parts = expression.split("=", 2);
 
         if (parts.length != 2) {
@@ -97,10 +544,49 @@ public class Calculator {
             throw new InvalidExpressionException("ERROR: Right side of assignment cannot be empty");
         }
 
-        double value = evaluate(valueExpression);
-        variableManager.setVariable(variableName, value);
+        return new String[] {variableName, valueExpression};
+    }
 
-        return value;
+    /**
+     * Handles formula definitions (e.g., "total := price * qty").
+     * Unlike an assignment, the variable keeps its expression and is recomputed whenever one
+     * of the variables it reads changes, so it never goes stale.
+     *
+     * @param expression the formula definition
+     * @return the current value of the formula
+     * @throws InvalidExpressionException if the definition is invalid
+     * @throws InvalidVariableException if the formula refers to itself, directly or through
+     *                                  other formulas
+     */
+    public double defineFormula(String expression) {
+        int separator = expression.indexOf(":=");
+
+        if (separator < 0) {
+            throw new InvalidExpressionException("ERROR: Invalid formula definition");
+        }
+
+        String variableName = expression.substring(0, separator).trim();
+        String valueExpression = expression.substring(separator + 2).trim();
+
+        if (!VariableManager.isValidVariableName(variableName)) {
+            throw new InvalidExpressionException("ERROR: Invalid variable name '" + variableName + "'. " +
+                    "Variable names must start with a letter and contain only letters and digits.");
+        }
+
+        if (valueExpression.isEmpty()) {
+            throw new InvalidExpressionException("ERROR: Right side of formula cannot be empty");
+        }
+
+        CompiledExpression program = compile(valueExpression);
+        int[] slots = resolveSlots(program);
+        for (int slot : slots) {
+            // Match the interpreter, which initializes undefined variables to 0
+            variableManager.ensureDefined(slot);
+        }
+
+        int slot = variableManager.slotOf(variableName);
+        variableManager.setFormula(slot, new ExpressionFormula(program, compileBytecode(program), slots));
+        return variableManager.getValue(slot);
     }
 
     /**
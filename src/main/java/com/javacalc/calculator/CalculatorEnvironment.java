@@ -0,0 +1,306 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.VariableManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The shared, thread-safe part of a calculator: a frozen snapshot of an {@link OperatorRegistry}
+ * and a cache of compiled expressions, from which cheap per-request {@link CalculatorSession}s are created.
+ * <p>
+ * A {@link Calculator} owns its registry, parser, evaluators and cache, which suits one
+ * long-lived user. A service that needs an isolated calculator per request or tenant should
+ * instead create one environment and a session per request: a session holds only its own
+ * variables and mode, and every session compiles an expression at most once between them.
+ * Sessions can also be pooled with {@link #acquireSession()} and {@link #releaseSession}, so
+ * that creating one allocates nothing in the steady state.
+ * <p>
+ * Compiled expressions are kept in an LRU cache of at most {@link #DEFAULT_MAXIMUM_SIZE maximum
+ * size} entries, shared by both modes. Like {@link Calculator}, an expression is interpreted
+ * until the sessions between them have evaluated it {@link #getCompileThreshold() compile
+ * threshold} times, and only then compiled to bytecode, so a stream of one-off expressions
+ * neither generates classes nor grows the cache without bound. An expression too large for
+ * bytecode stays interpreted.
+ */
+public final class CalculatorEnvironment {
+    /**
+     * Default maximum number of cached expressions.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    /**
+     * Default maximum number of idle sessions kept for reuse.
+     */
+    public static final int DEFAULT_POOL_SIZE = 64;
+
+    private final OperatorRegistry operatorRegistry;
+    // Parsing and compiling keep no state between calls, so one instance serves every thread
+    private final ExpressionParser parser;
+    private final ExpressionCompiler compiler;
+    private final BytecodeCompiler bytecodeCompiler;
+    // LRU in access order; guarded by itself, since every lookup reorders it
+    private final LinkedHashMap<ExpressionCache.Key, Program> programs;
+    private final int maximumSize;
+    private volatile int compileThreshold;
+
+    private final Queue<CalculatorSession> idleSessions;
+    private final AtomicInteger idleCount;
+    private final int poolSize;
+
+    /**
+     * Creates an environment with the built-in operators and default bounds.
+     */
+    public CalculatorEnvironment() {
+        this(OperatorRegistry.defaults(), DEFAULT_MAXIMUM_SIZE, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * Creates an environment with the given operators and bounds.
+     *
+     * @param operatorRegistry the operators to use. A frozen registry is shared as is; otherwise
+     *                         the environment takes a frozen copy, so the caller can keep
+     *                         registering on it without affecting this environment
+     * @param maximumSize the maximum number of cached expressions
+     * @param poolSize the maximum number of idle sessions kept for reuse
+     * @throws IllegalArgumentException if a bound is negative
+     */
+    public CalculatorEnvironment(OperatorRegistry operatorRegistry, int maximumSize, int poolSize) {
+        if (maximumSize < 0 || poolSize < 0) {
+            throw new IllegalArgumentException("Cache and pool sizes must not be negative");
+        }
+        this.operatorRegistry = operatorRegistry.isFrozen()
+                ? operatorRegistry
+                : new OperatorRegistry(operatorRegistry).freeze();
+        this.parser = new ExpressionParser(this.operatorRegistry);
+        this.compiler = new ExpressionCompiler(this.operatorRegistry);
+        this.bytecodeCompiler = new BytecodeCompiler();
+        this.programs = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ExpressionCache.Key, Program> eldest) {
+                return size() > CalculatorEnvironment.this.maximumSize;
+            }
+        };
+        this.maximumSize = maximumSize;
+        this.compileThreshold = Calculator.DEFAULT_COMPILE_THRESHOLD;
+        this.idleSessions = new ConcurrentLinkedQueue<>();
+        this.idleCount = new AtomicInteger();
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Creates a new session with no variables, in POSTFIX mode.
+     *
+     * @return the session
+     */
+    public CalculatorSession newSession() {
+        return new CalculatorSession(this);
+    }
+
+    /**
+     * Takes an idle session from the pool, or creates one if the pool is empty.
+     * The session has no variables and is in POSTFIX mode.
+     *
+     * @return the session
+     */
+    public CalculatorSession acquireSession() {
+        CalculatorSession session = idleSessions.poll();
+        if (session == null) {
+            return newSession();
+        }
+        idleCount.decrementAndGet();
+        return session;
+    }
+
+    /**
+     * Resets a session and returns it to the pool. The caller must not use the session
+     * afterwards. If the pool is full, the session is discarded.
+     *
+     * @param session a session created by this environment
+     * @throws IllegalArgumentException if the session belongs to another environment
+     */
+    public void releaseSession(CalculatorSession session) {
+        if (session.getEnvironment() != this) {
+            throw new IllegalArgumentException("Session belongs to another environment");
+        }
+        session.reset();
+        if (idleCount.incrementAndGet() <= poolSize) {
+            idleSessions.offer(session);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Compiles an expression, reusing the cached program if any session has compiled it before.
+     *
+     * @param expression the expression to compile
+     * @param mode the mode the expression is written in
+     * @return the compiled expression
+     * @throws InvalidExpressionException if the expression is invalid
+     */
+    public CompiledExpression compile(String expression, Calculator.Mode mode) {
+        return lookup(expression, mode).expression;
+    }
+
+    /**
+     * Sets the number of evaluations, across all sessions, after which a cached expression is
+     * compiled to bytecode. Expressions already compiled are not affected.
+     *
+     * @param compileThreshold the invocation count that triggers compilation
+     * @throws IllegalArgumentException if the threshold is less than 1
+     */
+    public void setCompileThreshold(int compileThreshold) {
+        if (compileThreshold < 1) {
+            throw new IllegalArgumentException("Compile threshold must be at least 1");
+        }
+        this.compileThreshold = compileThreshold;
+    }
+
+    /**
+     * Gets the number of evaluations after which a cached expression is compiled to bytecode.
+     *
+     * @return the compile threshold
+     */
+    public int getCompileThreshold() {
+        return compileThreshold;
+    }
+
+    /**
+     * Gets the maximum number of cached expressions.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the number of cached expressions, in both modes.
+     *
+     * @return the cache size
+     */
+    public int getCachedExpressionCount() {
+        synchronized (programs) {
+            return programs.size();
+        }
+    }
+
+    /**
+     * Gets the number of idle sessions in the pool.
+     *
+     * @return the number of pooled sessions
+     */
+    public int getIdleSessionCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Gets the frozen operator registry shared by this environment's sessions: the registry
+     * passed to the constructor if it was frozen, or a snapshot of it taken at construction.
+     *
+     * @return the operator registry
+     */
+    public OperatorRegistry getOperatorRegistry() {
+        return operatorRegistry;
+    }
+
+    /**
+     * Gets the program for an evaluation of an expression, counting the evaluation and
+     * promoting the program to bytecode once the count reaches the compile threshold.
+     * The threshold may have been lowered below the count, so one thread claims the promotion.
+     */
+    Program program(String expression, Calculator.Mode mode) {
+        Program program = lookup(expression, mode);
+        if (program.cached && program.code == null && !program.uncompilable
+                && program.invocations.incrementAndGet() >= compileThreshold
+                && program.promoting.compareAndSet(false, true)) {
+            promote(program);
+        }
+        return program;
+    }
+
+    /**
+     * Gets the program for an expression from the cache, compiling and caching it on a miss.
+     * Two threads missing on the same expression at once may both compile it; the first one
+     * cached wins.
+     */
+    Program lookup(String expression, Calculator.Mode mode) {
+        ExpressionCache.Key key = new ExpressionCache.Key(expression, mode);
+        Program program;
+        synchronized (programs) {
+            program = programs.get(key);
+        }
+        if (program == null) {
+            String postfix = mode == Calculator.Mode.INFIX ? parser.infixToPostfix(expression, true) : expression;
+            program = new Program(compiler.compile(expression, postfix), compiler.shadowableNames(postfix),
+                    maximumSize > 0);
+            if (!program.cached) {
+                return program;
+            }
+            synchronized (programs) {
+                Program existing = programs.putIfAbsent(key, program);
+                if (existing != null) {
+                    program = existing;
+                }
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Compiles an expression for one session's variables, which shadow functions of the same
+     * name. The program is not cached.
+     */
+    CompiledExpression compile(String expression, Calculator.Mode mode, VariableManager variables) {
+        String postfix = mode == Calculator.Mode.INFIX ? parser.infixToPostfix(expression, true) : expression;
+        return compiler.compile(expression, postfix, variables);
+    }
+
+    /**
+     * Gets the function names in a postfix expression that a variable could shadow.
+     */
+    String[] shadowableNames(String postfixExpression) {
+        return compiler.shadowableNames(postfixExpression);
+    }
+
+    private void promote(Program program) {
+        try {
+            program.code = bytecodeCompiler.compile(program.expression);
+        } catch (RuntimeException e) {
+            // Too large for one method, or rejected by the JVM; the interpreter still evaluates it
+            program.uncompilable = true;
+        }
+    }
+
+    /**
+     * A compiled expression, its evaluation count and, once promoted, its generated bytecode.
+     */
+    static final class Program {
+        final CompiledExpression expression;
+        // Function names that a session's variable of the same name would shadow; usually none
+        final String[] shadowableNames;
+        // False when the cache bound is 0: the program is used once, interpreted, and dropped
+        final boolean cached;
+        final AtomicInteger invocations;
+        // Set by the one thread that generates the bytecode
+        final AtomicBoolean promoting;
+        // Null until promoted; sessions interpret the expression meanwhile
+        volatile BytecodeExpression code;
+        volatile boolean uncompilable;
+
+        Program(CompiledExpression expression, String[] shadowableNames, boolean cached) {
+            this.expression = expression;
+            this.shadowableNames = shadowableNames;
+            this.cached = cached;
+            this.invocations = new AtomicInteger();
+            this.promoting = new AtomicBoolean();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.variables.VariableManager;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lightweight calculator for one request or tenant, created by a {@link CalculatorEnvironment}.
+ * A session holds only its own variables and mode; operators and compiled expressions are shared
+ * through the environment, so sessions are isolated from each other but cheap to create.
+ * <p>
+ * Like {@link Calculator}, a session is not thread-safe. Use one session per thread, and
+ * return pooled sessions with {@link CalculatorEnvironment#releaseSession(CalculatorSession)}.
+ */
+public final class CalculatorSession {
+    private final CalculatorEnvironment environment;
+    private final VariableManager variableManager;
+    // Variable slots of cached programs, bounded like the environment's cache and cleared on reset
+    private final Map<CompiledExpression, int[]> slots;
+    // Bindings for interpreting cached programs until they are promoted, bounded and cleared likewise
+    private final Map<CompiledExpression, VariableBindings> bindings;
+    private double[] arguments;
+    private Calculator.Mode mode;
+
+    CalculatorSession(CalculatorEnvironment environment) {
+        this.environment = environment;
+        this.variableManager = new VariableManager();
+        this.slots = new IdentityHashMap<>();
+        this.bindings = new IdentityHashMap<>();
+        this.arguments = new double[8];
+        this.mode = Calculator.Mode.POSTFIX;
+    }
+
+    /**
+     * Sets the session mode.
+     *
+     * @param mode the mode to use (POSTFIX or INFIX)
+     */
+    public void setMode(Calculator.Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Gets the current session mode.
+     *
+     * @return the current mode
+     */
+    public Calculator.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Evaluates an expression in the current mode against this session's variables.
+     *
+     * @param expression the expression to evaluate
+     * @return the result of the evaluation
+     * @throws InvalidExpressionException if the expression is invalid
+     */
+    public double evaluate(String expression) {
+        CalculatorEnvironment.Program program;
+        try {
+            program = environment.program(expression, mode);
+        } catch (InvalidExpressionException e) {
+            // The shared program reads every function name as a call, which may not be valid
+            // where this session's variables shadow the function
+            if (mode == Calculator.Mode.POSTFIX && isShadowed(environment.shadowableNames(expression))) {
+                return evaluateUncached(environment.compile(expression, mode, variableManager));
+            }
+            throw e;
+        }
+        if (isShadowed(program.shadowableNames)) {
+            // The shared program calls a function that this session's variable shadows
+            return evaluateUncached(environment.compile(expression, mode, variableManager));
+        }
+        int[] programSlots = slots.get(program.expression);
+        if (programSlots == null) {
+            programSlots = resolveSlots(program.expression);
+            if (program.cached) {
+                if (slots.size() >= environment.getMaximumSize()) {
+                    // Some keys are programs the environment has evicted; start over rather than pin them
+                    slots.clear();
+                }
+                slots.put(program.expression, programSlots);
+            }
+        }
+
+        BytecodeExpression code = program.code;
+        if (code != null) {
+            if (arguments.length < programSlots.length) {
+                arguments = new double[programSlots.length];
+            }
+            double[] arguments = this.arguments;
+            for (int i = 0; i < programSlots.length; i++) {
+                // Match the interpreter, which initializes undefined variables to 0
+                variableManager.ensureDefined(programSlots[i]);
+                arguments[i] = variableManager.getValue(programSlots[i]);
+            }
+            return code.eval(arguments);
+        }
+
+        VariableBindings programBindings = bindingsFor(program);
+        for (int i = 0; i < programSlots.length; i++) {
+            variableManager.ensureDefined(programSlots[i]);
+            programBindings.set(i, variableManager.getValue(programSlots[i]));
+        }
+        return program.expression.evaluate(programBindings);
+    }
+
+    /**
+     * Gets this session's bindings for interpreting a program, reused across evaluations of a
+     * cached program.
+     */
+    private VariableBindings bindingsFor(CalculatorEnvironment.Program program) {
+        VariableBindings programBindings = bindings.get(program.expression);
+        if (programBindings == null) {
+            programBindings = program.expression.newBindings();
+            if (program.cached) {
+                if (bindings.size() >= environment.getMaximumSize()) {
+                    bindings.clear();
+                }
+                bindings.put(program.expression, programBindings);
+            }
+        }
+        return programBindings;
+    }
+
+    /**
+     * Evaluates an expression in the current mode, reporting errors in a result holder instead
+     * of throwing them.
+     *
+     * @param expression the expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     */
+    public boolean tryEvaluate(String expression, EvaluationResult result) {
+        try {
+            return result.succeed(evaluate(expression));
+        } catch (CalculatorException e) {
+            // Compilation reports errors with exceptions, which are stackless and cheap to catch
+            return result.fail(e);
+        }
+    }
+
+    /**
+     * Handles variable assignment expressions (e.g., "x = 5 + 3").
+     *
+     * @param expression the assignment expression
+     * @return the assigned value
+     * @throws InvalidExpressionException if the assignment is invalid
+     */
+    public double assignVariable(String expression) {
+        String[] parts = Calculator.splitAssignment(expression);
+        double value = evaluate(parts[1]);
+        variableManager.setVariable(parts[0], value);
+
+        return value;
+    }
+
+    /**
+     * Clears all variables and restores POSTFIX mode, leaving the session as if newly created.
+     */
+    public void reset() {
+        variableManager.clear();
+        // A pooled session would otherwise pin programs the environment has since evicted
+        slots.clear();
+        bindings.clear();
+        mode = Calculator.Mode.POSTFIX;
+    }
+
+    /**
+     * Gets this session's variables.
+     *
+     * @return the variable manager
+     */
+    public VariableManager getVariableManager() {
+        return variableManager;
+    }
+
+    /**
+     * Gets the environment this session was created by.
+     *
+     * @return the environment
+     */
+    public CalculatorEnvironment getEnvironment() {
+        return environment;
+    }
+
+    private double evaluateUncached(CompiledExpression program) {
+        int[] programSlots = resolveSlots(program);
+        VariableBindings bindings = program.newBindings();
+        for (int i = 0; i < programSlots.length; i++) {
+            variableManager.ensureDefined(programSlots[i]);
+            bindings.set(i, variableManager.getValue(programSlots[i]));
+        }
+        return program.evaluate(bindings);
+    }
+
+    private boolean isShadowed(String[] names) {
+        for (String name : names) {
+            if (variableManager.hasVariable(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int[] resolveSlots(CompiledExpression program) {
+        List<String> names = program.getVariableNames();
+        int[] result = new int[names.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = variableManager.slotOf(names.get(i));
+        }
+        return result;
+    }
+}
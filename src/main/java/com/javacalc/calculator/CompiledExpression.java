@@ -0,0 +1,229 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An expression that has been parsed once into a pre-resolved postfix program.
+ * The program is an opcode stream (see {@link Opcodes}) with an operand per instruction
+ * that indexes the constant pool, the variables, or the custom operator or function table.
+ * Built-in operators and functions are dispatched by opcode, so evaluation performs no
+ * parsing, string work, map lookups or megamorphic operator calls.
+ * The maximum operand stack depth is computed at compile time and the stack itself is
+ * preallocated in the {@link VariableBindings}, so evaluation allocates nothing.
+ * Instances are immutable and may be shared between threads; each thread should use
+ * its own {@link VariableBindings}.
+ */
+public final class CompiledExpression {
+    private final String source;
+    private final byte[] instructions;
+    private final int[] operands;
+    private final double[] constants;
+    private final Operator[] operators;
+    private final Function[] functions;
+    private final String[] variableNames;
+    private final int maxStackDepth;
+    private final int temporaryCount;
+    private final int eliminatedNodes;
+
+    CompiledExpression(String source, byte[] instructions, int[] operands, double[] constants,
+                       Operator[] operators, Function[] functions, String[] variableNames, int maxStackDepth,
+                       int temporaryCount, int eliminatedNodes) {
+        this.source = source;
+        this.instructions = instructions;
+        this.operands = operands;
+        this.constants = constants;
+        this.operators = operators;
+        this.functions = functions;
+        this.variableNames = variableNames;
+        this.maxStackDepth = maxStackDepth;
+        this.temporaryCount = temporaryCount;
+        this.eliminatedNodes = eliminatedNodes;
+    }
+
+    /**
+     * Evaluates the program against the given variable values.
+     *
+     * @param bindings variable values created by {@link #newBindings()}
+     * @return the result of the evaluation
+     * @throws InvalidVariableException if the bindings belong to a different expression
+     */
+    public double evaluate(VariableBindings bindings) {
+        if (bindings.getExpression() != this) {
+            throw new InvalidVariableException("ERROR: Variable bindings belong to a different expression");
+        }
+
+        double[] values = bindings.values();
+        double[] stack = bindings.stack();
+        double[] temporaries = bindings.temporaries();
+        int top = 0;
+
+        for (int pc = 0; pc < instructions.length; pc++) {
+            switch (instructions[pc]) {
+                case Opcodes.PUSH_CONSTANT -> stack[top++] = constants[operands[pc]];
+                case Opcodes.LOAD_VARIABLE -> stack[top++] = values[operands[pc]];
+                case Opcodes.STORE_TEMP -> temporaries[operands[pc]] = stack[top - 1];
+                case Opcodes.LOAD_TEMP -> stack[top++] = temporaries[operands[pc]];
+                case Opcodes.ADD -> {
+                    top--;
+                    stack[top - 1] += stack[top];
+                }
+                case Opcodes.SUBTRACT -> {
+                    top--;
+                    stack[top - 1] -= stack[top];
+                }
+                case Opcodes.MULTIPLY -> {
+                    top--;
+                    stack[top - 1] *= stack[top];
+                }
+                case Opcodes.DIVIDE -> {
+                    double b = stack[--top];
+                    if (b == 0.0) {
+                        throw DivisionByZeroException.INSTANCE;
+                    }
+                    stack[top - 1] /= b;
+                }
+                case Opcodes.MODULO -> {
+                    double b = stack[--top];
+                    if (b == 0.0) {
+                        throw DivisionByZeroException.INSTANCE;
+                    }
+                    stack[top - 1] %= b;
+                }
+                case Opcodes.POWER -> {
+                    top--;
+                    stack[top - 1] = Math.pow(stack[top - 1], stack[top]);
+                }
+                case Opcodes.INTEGER_POWER -> stack[top - 1] = Opcodes.integerPower(stack[top - 1], operands[pc]);
+                case Opcodes.FUSED_MULTIPLY_ADD -> {
+                    top -= 2;
+                    stack[top - 1] = Math.fma(stack[top - 1], stack[top], stack[top + 1]);
+                }
+                case Opcodes.SQRT -> stack[top - 1] = Math.sqrt(stack[top - 1]);
+                case Opcodes.ABS -> stack[top - 1] = Math.abs(stack[top - 1]);
+                case Opcodes.SIN -> stack[top - 1] = Math.sin(stack[top - 1]);
+                case Opcodes.COS -> stack[top - 1] = Math.cos(stack[top - 1]);
+                case Opcodes.LOG -> stack[top - 1] = Math.log(stack[top - 1]);
+                case Opcodes.MIN -> {
+                    top--;
+                    stack[top - 1] = Math.min(stack[top - 1], stack[top]);
+                }
+                case Opcodes.MAX -> {
+                    top--;
+                    stack[top - 1] = Math.max(stack[top - 1], stack[top]);
+                }
+                case Opcodes.CALL_UNARY -> stack[top - 1] = functions[operands[pc]].apply(stack[top - 1]);
+                case Opcodes.CALL_BINARY -> {
+                    top--;
+                    stack[top - 1] = functions[operands[pc]].apply(stack[top - 1], stack[top]);
+                }
+                case Opcodes.CALL_TERNARY -> {
+                    top -= 2;
+                    stack[top - 1] = functions[operands[pc]].apply(stack[top - 1], stack[top], stack[top + 1]);
+                }
+                default -> {
+                    double b = stack[--top];
+                    stack[top - 1] = operators[operands[pc]].apply(stack[top - 1], b);
+                }
+            }
+        }
+
+        return stack[0];
+    }
+
+    /**
+     * Creates a new set of variable bindings for this expression, with every variable set to 0.
+     *
+     * @return fresh variable bindings
+     */
+    public VariableBindings newBindings() {
+        return new VariableBindings(this);
+    }
+
+    /**
+     * Gets the index of a variable used by this expression.
+     *
+     * @param name the variable name
+     * @return the variable index, or -1 if the expression does not use the variable
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < variableNames.length; i++) {
+            if (variableNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the names of the variables used by this expression, in index order.
+     *
+     * @return an unmodifiable list of variable names
+     */
+    public List<String> getVariableNames() {
+        return Collections.unmodifiableList(Arrays.asList(variableNames));
+    }
+
+    /**
+     * Gets the expression text this program was compiled from.
+     *
+     * @return the source expression
+     */
+    public String getSource() {
+        return source;
+    }
+
+    int getVariableCount() {
+        return variableNames.length;
+    }
+
+    /**
+     * Gets the number of operation nodes removed by common subexpression elimination.
+     * Each repeated subexpression is computed once per evaluation, so this is the number of
+     * operations saved per evaluation; {@code (x + y) * (x + y) + (x + y) / z} reports 2.
+     *
+     * @return the number of eliminated operations
+     */
+    public int getEliminatedNodes() {
+        return eliminatedNodes;
+    }
+
+    int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    int getTemporaryCount() {
+        return temporaryCount;
+    }
+
+    byte[] instructions() {
+        return instructions;
+    }
+
+    int[] operands() {
+        return operands;
+    }
+
+    double[] constants() {
+        return constants;
+    }
+
+    Operator[] operators() {
+        return operators;
+    }
+
+    Function[] functions() {
+        return functions;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,155 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.ErrorCode;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.exceptions.InvalidVariableException;
+
+/**
+ * The outcome of an evaluation that reports errors instead of throwing them, such as
+ * {@link Calculator#tryEvaluate(String, EvaluationResult)}: either a value or an
+ * {@link ErrorCode}.
+ * <p>
+ * A result is a mutable holder meant to be reused for many evaluations, so that neither valid
+ * nor invalid input allocates. An error records where in the input it was found, and the error
+ * message is only built if {@link #getMessage()} is called, so the input must not be modified
+ * before then. A result is not thread-safe.
+ */
+public final class EvaluationResult {
+    private double value;
+    private ErrorCode error;
+    // The offending token, for building the message on demand
+    private CharSequence source;
+    private int start;
+    private int end;
+    // Set when the error was reported by an exception, such as one from a custom operator
+    private CalculatorException exception;
+    private String message;
+
+    /**
+     * Checks whether the evaluation succeeded.
+     *
+     * @return true if {@link #getValue()} holds the result
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Gets the result of a successful evaluation.
+     *
+     * @return the value, or NaN if the evaluation failed
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Gets the kind of error of a failed evaluation.
+     *
+     * @return the error code, or null if the evaluation succeeded
+     */
+    public ErrorCode getError() {
+        return error;
+    }
+
+    /**
+     * Gets the message of a failed evaluation, the same one the throwing API would report.
+     *
+     * @return the error message, or null if the evaluation succeeded
+     */
+    public String getMessage() {
+        if (error != null && message == null) {
+            message = buildMessage();
+        }
+        return message;
+    }
+
+    /**
+     * Converts a failed result into the exception the throwing API reports for it.
+     *
+     * @return the exception
+     * @throws IllegalStateException if the evaluation succeeded
+     */
+    public CalculatorException toException() {
+        if (error == null) {
+            throw new IllegalStateException("Evaluation succeeded");
+        }
+        if (exception != null) {
+            return exception;
+        }
+        return switch (error) {
+            case DIVISION_BY_ZERO -> DivisionByZeroException.INSTANCE;
+            case INVALID_VARIABLE -> new InvalidVariableException(getMessage());
+            case OTHER -> new CalculatorException(getMessage());
+            default -> new InvalidExpressionException(error, getMessage());
+        };
+    }
+
+    /**
+     * Records a successful evaluation.
+     *
+     * @param value the result
+     * @return true
+     */
+    boolean succeed(double value) {
+        this.value = value;
+        this.error = null;
+        this.source = null;
+        this.exception = null;
+        this.message = null;
+        return true;
+    }
+
+    /**
+     * Records an error found in the input.
+     *
+     * @param error the kind of error
+     * @param source the input, or null if the error has no offending token
+     * @param start the offset of the offending token
+     * @param end the offset just past the offending token
+     * @return false
+     */
+    boolean fail(ErrorCode error, CharSequence source, int start, int end) {
+        this.value = Double.NaN;
+        this.error = error;
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.exception = null;
+        this.message = null;
+        return false;
+    }
+
+    /**
+     * Records an error reported by an exception.
+     *
+     * @param exception the exception
+     * @return false
+     */
+    boolean fail(CalculatorException exception) {
+        fail(exception.getErrorCode(), null, 0, 0);
+        this.exception = exception;
+        this.message = exception.getMessage();
+        return false;
+    }
+
+    private String buildMessage() {
+        String token = source == null ? "" : source.subSequence(start, end).toString();
+        return switch (error) {
+            case INVALID_TOKEN -> "ERROR: Invalid token '" + token + "'";
+            case INSUFFICIENT_OPERANDS -> "ERROR: Insufficient operands for operator '" + token + "'";
+            case TOO_MANY_OPERANDS -> "ERROR: Invalid expression - too many operands";
+            case MISMATCHED_PARENTHESES -> "ERROR: Mismatched parentheses";
+            case WRONG_ARGUMENT_COUNT -> "ERROR: Wrong number of arguments for function '" + token + "'";
+            case DIVISION_BY_ZERO -> DivisionByZeroException.MESSAGE;
+            default -> "ERROR: Invalid expression";
+        };
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess() ? "EvaluationResult[" + value + "]" : "EvaluationResult[" + getMessage() + "]";
+    }
+}
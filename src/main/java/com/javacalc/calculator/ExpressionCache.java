@@ -0,0 +1,306 @@
+package com.javacalc.calculator;
+
+import com.javacalc.operators.OperatorRegistry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded LRU cache of parsed expressions keyed on expression text and {@link Calculator.Mode}.
+ * Each entry is the expression's {@link ExpressionProfile}, which holds the parsed postfix
+ * program, the invocation counters and, once promoted, the compiled code. The cache is bounded
+ * both by entry count and by an estimate of the memory the entries retain, and is cleared
+ * whenever the operator registry changes, since every cached program depends on it.
+ */
+public class ExpressionCache {
+    /**
+     * Default maximum number of cached expressions.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 10_000;
+
+    /**
+     * Default maximum estimated memory retained by cached expressions, in bytes.
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+    // Rough per-entry costs: map node, key, profile object and counters
+    private static final int ENTRY_OVERHEAD = 160;
+    // Generated hidden class: class metadata, constant pool and method bodies
+    private static final int GENERATED_CLASS_OVERHEAD = 2048;
+
+    private final OperatorRegistry operatorRegistry;
+    private final LinkedHashMap<Key, ExpressionProfile> entries;
+    private int maximumSize;
+    private long maximumWeight;
+    private long weight;
+    private int registryVersion;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long invalidationCount;
+
+    /**
+     * Creates a cache with the default bounds.
+     *
+     * @param operatorRegistry the registry the cached programs were parsed against
+     */
+    public ExpressionCache(OperatorRegistry operatorRegistry) {
+        this(operatorRegistry, DEFAULT_MAXIMUM_SIZE, DEFAULT_MAXIMUM_WEIGHT);
+    }
+
+    /**
+     * Creates a cache with the given bounds.
+     *
+     * @param operatorRegistry the registry the cached programs were parsed against
+     * @param maximumSize the maximum number of entries
+     * @param maximumWeight the maximum estimated memory retained by entries, in bytes
+     */
+    public ExpressionCache(OperatorRegistry operatorRegistry, int maximumSize, long maximumWeight) {
+        this.operatorRegistry = operatorRegistry;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.registryVersion = operatorRegistry.getVersion();
+        setMaximumSize(maximumSize);
+        setMaximumWeight(maximumWeight);
+    }
+
+    /**
+     * Gets the cached entry for an expression, creating an empty one on a miss.
+     *
+     * @param expression the expression text
+     * @param mode the mode the expression is written in
+     * @return the entry for the expression
+     */
+    public ExpressionProfile getOrCreate(String expression, Calculator.Mode mode) {
+        checkRegistryVersion();
+
+        Key key = new Key(expression, mode);
+        ExpressionProfile profile = entries.get(key);
+        if (profile != null) {
+            hitCount++;
+            return profile;
+        }
+
+        missCount++;
+        profile = new ExpressionProfile(expression, mode);
+        profile.weight = weigh(profile);
+        entries.put(key, profile);
+        weight += profile.weight;
+        evict();
+        return profile;
+    }
+
+    /**
+     * Re-estimates the memory retained by an entry after it has been parsed or promoted.
+     *
+     * @param profile the updated entry
+     */
+    void updateWeight(ExpressionProfile profile) {
+        if (entries.get(new Key(profile.getExpression(), profile.getMode())) != profile) {
+            return;
+        }
+        long newWeight = weigh(profile);
+        weight += newWeight - profile.weight;
+        profile.weight = newWeight;
+        evict();
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        invalidationCount += entries.size();
+        entries.clear();
+        weight = 0;
+    }
+
+    private void checkRegistryVersion() {
+        int currentVersion = operatorRegistry.getVersion();
+        if (currentVersion != registryVersion) {
+            invalidateAll();
+            registryVersion = currentVersion;
+        }
+    }
+
+    private void evict() {
+        Iterator<ExpressionProfile> iterator = entries.values().iterator();
+        // The most recently used entry is always kept, even if it alone exceeds the weight bound
+        while (entries.size() > 1 && (entries.size() > maximumSize || weight > maximumWeight)) {
+            ExpressionProfile eldest = iterator.next();
+            iterator.remove();
+            weight -= eldest.weight;
+            evictionCount++;
+        }
+    }
+
+    private static long weigh(ExpressionProfile profile) {
+        long result = ENTRY_OVERHEAD + 2L * profile.getExpression().length();
+        if (profile.getMode() == Calculator.Mode.INFIX) {
+            // The postfix conversion, estimated as long as the expression until it is parsed
+            String postfix = profile.postfix;
+            result += 2L * (postfix == null ? profile.getExpression().length() : postfix.length());
+        }
+        if (profile.program != null) {
+            result += GENERATED_CLASS_OVERHEAD + 16L * profile.program.instructions().length;
+        }
+        return result;
+    }
+
+    /**
+     * Sets the maximum number of entries, evicting least recently used entries if needed.
+     *
+     * @param maximumSize the maximum number of entries
+     * @throws IllegalArgumentException if the size is less than 1
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be at least 1");
+        }
+        this.maximumSize = maximumSize;
+        evict();
+    }
+
+    /**
+     * Sets the maximum estimated memory retained by entries, evicting if needed.
+     *
+     * @param maximumWeight the maximum weight in bytes
+     * @throws IllegalArgumentException if the weight is not positive
+     */
+    public void setMaximumWeight(long maximumWeight) {
+        if (maximumWeight < 1) {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+        this.maximumWeight = maximumWeight;
+        evict();
+    }
+
+    /**
+     * Gets the maximum number of entries.
+     *
+     * @return the maximum size
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Gets the maximum estimated memory retained by entries.
+     *
+     * @return the maximum weight in bytes
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Gets the number of cached expressions.
+     *
+     * @return the entry count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the estimated memory retained by all entries.
+     *
+     * @return the total weight in bytes
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Gets the number of lookups that found a cached entry.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets the number of lookups that had to create a new entry.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets the number of entries removed to stay within the size and weight bounds.
+     *
+     * @return the eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Gets the number of entries discarded by {@link #invalidateAll()} or operator registration.
+     *
+     * @return the invalidation count
+     */
+    public long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * Gets the fraction of lookups that were hits.
+     *
+     * @return the hit rate, or 0 if there were no lookups
+     */
+    public double getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    /**
+     * Gets all cached entries, from least to most recently used.
+     *
+     * @return a snapshot of the entries
+     */
+    public List<ExpressionProfile> getEntries() {
+        checkRegistryVersion();
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public String toString() {
+        return "ExpressionCache[size=" + entries.size() + ", weight=" + weight
+                + ", hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount + ", invalidations=" + invalidationCount + "]";
+    }
+
+    /**
+     * Cache key: an expression and the mode it is written in.
+     */
+    static final class Key {
+        private final String expression;
+        private final Calculator.Mode mode;
+
+        Key(String expression, Calculator.Mode mode) {
+            this.expression = expression;
+            this.mode = mode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key other)) {
+                return false;
+            }
+            return mode == other.mode && expression.equals(other.expression);
+        }
+
+        @Override
+        public int hashCode() {
+            return expression.hashCode() * 31 + mode.ordinal();
+        }
+    }
+}
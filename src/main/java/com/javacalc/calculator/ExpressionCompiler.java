@@ -0,0 +1,328 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.ErrorCode;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.SymbolTable;
+import com.javacalc.variables.VariableManager;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles postfix expressions into {@link CompiledExpression} programs.
+ * All token classification, number parsing and operator and function lookup happens here,
+ * once, instead of on every evaluation.
+ */
+public class ExpressionCompiler {
+    private final OperatorRegistry operatorRegistry;
+    private boolean relaxedFloatingPoint;
+
+    public ExpressionCompiler(OperatorRegistry operatorRegistry) {
+        this.operatorRegistry = operatorRegistry;
+    }
+
+    /**
+     * Allows optimizations that may change the rounding of results, such as fusing
+     * {@code a * b + c} or replacing {@code x ^ 3} with multiplications.
+     * Disabled by default, so compiled expressions return exactly what interpretation does.
+     *
+     * @param relaxedFloatingPoint true to allow rounding-changing rewrites
+     */
+    public void setRelaxedFloatingPoint(boolean relaxedFloatingPoint) {
+        this.relaxedFloatingPoint = relaxedFloatingPoint;
+    }
+
+    /**
+     * Checks whether optimizations that may change the rounding of results are allowed.
+     *
+     * @return true if rounding-changing rewrites are allowed
+     */
+    public boolean isRelaxedFloatingPoint() {
+        return relaxedFloatingPoint;
+    }
+
+    /**
+     * Compiles a postfix expression into a reusable program.
+     * The program is validated as a whole, so evaluating it can never run out of operands.
+     * The expression is built into a tree and simplified by {@link ExpressionOptimizer} before
+     * it is flattened, so constant subexpressions are computed once here rather than on every
+     * evaluation. Every function name is compiled as a call.
+     *
+     * @param source the original expression text, kept for diagnostics
+     * @param postfixExpression the postfix expression to compile
+     * @return the compiled expression
+     * @throws InvalidExpressionException if the expression is malformed
+     */
+    public CompiledExpression compile(String source, CharSequence postfixExpression) {
+        return compile(source, postfixExpression, null);
+    }
+
+    /**
+     * Compiles a postfix expression into a reusable program, reading a function name as a
+     * variable if a variable of that name is currently defined, as
+     * {@link ExpressionEvaluator} does. The choice is made now, so the program does not follow
+     * variables that are defined or cleared later.
+     *
+     * @param source the original expression text, kept for diagnostics
+     * @param postfixExpression the postfix expression to compile
+     * @param variables the variables that may shadow functions, or null to compile every
+     *                  function name as a call
+     * @return the compiled expression
+     * @throws InvalidExpressionException if the expression is malformed
+     */
+    public CompiledExpression compile(String source, CharSequence postfixExpression, VariableManager variables) {
+        ExpressionOptimizer optimizer = new ExpressionOptimizer(relaxedFloatingPoint);
+        SymbolTable variableNames = new SymbolTable();
+        ExpressionNode root = buildTree(postfixExpression, optimizer, variableNames, variables);
+        return emit(source, root, variableNames.toArray());
+    }
+
+    /**
+     * Gets the function names in a postfix expression that are not marked as a call or a
+     * variable, and so read as a variable whenever one of that name is defined.
+     *
+     * @return the distinct names, usually none
+     */
+    String[] shadowableNames(CharSequence postfixExpression) {
+        SymbolTable names = new SymbolTable();
+        ExpressionLexer lexer = new ExpressionLexer(true).reset(postfixExpression);
+        boolean marked = false;
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (token == ExpressionLexer.Token.IDENTIFIER && !marked
+                    && operatorRegistry.findFunction(postfixExpression, lexer.tokenStart(), lexer.tokenEnd()) != null) {
+                names.intern(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+            }
+            marked = token == ExpressionLexer.Token.SYMBOL && isMarker(lexer.tokenChar());
+        }
+        return names.toArray();
+    }
+
+    private static boolean isMarker(char symbol) {
+        return symbol == ExpressionParser.CALL || symbol == ExpressionParser.VARIABLE;
+    }
+
+    private ExpressionNode buildTree(CharSequence postfixExpression, ExpressionOptimizer optimizer,
+                                     SymbolTable variableNames, VariableManager variables) {
+        ExpressionLexer lexer = new ExpressionLexer(true).reset(postfixExpression);
+        ExpressionNode[] stack = new ExpressionNode[16];
+        int depth = 0;
+        // A marker from ExpressionParser's marked output, which fixes how the next name reads
+        char marker = 0;
+
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, depth * 2);
+            }
+
+            switch (token) {
+                case NUMBER -> stack[depth++] = optimizer.constant(lexer.numberValue());
+                case IDENTIFIER -> {
+                    Function function = marker == ExpressionParser.VARIABLE ? null
+                            : operatorRegistry.findFunction(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                    if (function != null && marker == 0 && variables != null
+                            && variables.hasVariable(postfixExpression, lexer.tokenStart(), lexer.tokenEnd())) {
+                        // A defined variable shadows a function of the same name
+                        function = null;
+                    }
+                    marker = 0;
+                    if (function == null) {
+                        stack[depth++] = optimizer.variable(
+                                variableNames.intern(postfixExpression, lexer.tokenStart(), lexer.tokenEnd()));
+                        break;
+                    }
+                    int arity = function.getArity();
+                    if (depth < arity) {
+                        throw new InvalidExpressionException(ErrorCode.INSUFFICIENT_OPERANDS,
+                                "ERROR: Insufficient operands for operator '" + function.getName() + "'");
+                    }
+
+                    depth -= arity;
+                    stack[depth] = optimizer.call(function, Arrays.copyOfRange(stack, depth, depth + arity));
+                    depth++;
+                }
+                case SYMBOL -> {
+                    char symbol = lexer.tokenChar();
+                    if (isMarker(symbol)) {
+                        marker = symbol;
+                        continue;
+                    }
+                    if (!operatorRegistry.isOperator(symbol)) {
+                        throw new InvalidExpressionException(ErrorCode.INVALID_TOKEN,
+                                "ERROR: Invalid token '" + lexer.tokenText() + "'");
+                    }
+                    if (depth < 2) {
+                        throw new InvalidExpressionException(ErrorCode.INSUFFICIENT_OPERANDS,
+                                "ERROR: Insufficient operands for operator '" + symbol + "'");
+                    }
+
+                    ExpressionNode right = stack[--depth];
+                    ExpressionNode left = stack[depth - 1];
+                    stack[depth - 1] = optimizer.binary(operatorRegistry.getOperator(symbol), left, right);
+                }
+                default -> throw new InvalidExpressionException(ErrorCode.INVALID_TOKEN,
+                        "ERROR: Invalid token '" + lexer.tokenText() + "'");
+            }
+        }
+
+        if (depth != 1) {
+            throw new InvalidExpressionException(ErrorCode.TOO_MANY_OPERANDS,
+                    "ERROR: Invalid expression - too many operands");
+        }
+        return stack[0];
+    }
+
+    /**
+     * Flattens a tree into a postfix program. Operation nodes that are shared by several
+     * parents are evaluated once, at their first use, and kept in a temporary that later uses
+     * load. Traversals use explicit stacks so that very deep expressions cannot overflow the
+     * call stack.
+     */
+    private static CompiledExpression emit(String source, ExpressionNode root, String[] variableNames) {
+        Map<ExpressionNode, Integer> uses = countUses(root);
+
+        Program program = new Program();
+        Map<ExpressionNode, Integer> temporaries = new IdentityHashMap<>();
+        int distinctOperations = 0;
+
+        // Post-order walk; next[i] is the next operand to visit of the node at nodes[i]
+        ExpressionNode[] nodes = new ExpressionNode[16];
+        int[] next = new int[16];
+        int top = 0;
+        nodes[0] = root;
+
+        while (top >= 0) {
+            ExpressionNode node = nodes[top];
+            if (next[top] == 0) {
+                Integer temporary = temporaries.get(node);
+                if (temporary != null) {
+                    program.add(Opcodes.LOAD_TEMP, temporary, 1);
+                    top--;
+                    continue;
+                }
+            }
+
+            if (next[top] < node.arity()) {
+                ExpressionNode operand = node.operand(next[top]++);
+                if (++top == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, top * 2);
+                    next = Arrays.copyOf(next, top * 2);
+                }
+                nodes[top] = operand;
+                next[top] = 0;
+                continue;
+            }
+
+            program.add(node);
+            if (node.arity() > 0) {
+                distinctOperations++;
+                if (uses.get(node) > 1) {
+                    int temporary = temporaries.size();
+                    temporaries.put(node, temporary);
+                    program.add(Opcodes.STORE_TEMP, temporary, 0);
+                }
+            }
+            top--;
+        }
+
+        return program.build(source, variableNames, temporaries.size(), root.operations - distinctOperations);
+    }
+
+    /**
+     * Counts how many parents refer to each distinct node of a DAG.
+     */
+    private static Map<ExpressionNode, Integer> countUses(ExpressionNode root) {
+        Map<ExpressionNode, Integer> uses = new IdentityHashMap<>();
+        ArrayDeque<ExpressionNode> pending = new ArrayDeque<>();
+        uses.put(root, 1);
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            ExpressionNode node = pending.pop();
+            for (int i = 0; i < node.arity(); i++) {
+                ExpressionNode operand = node.operand(i);
+                // Operands of a node are only walked the first time the node is seen
+                if (uses.merge(operand, 1, Integer::sum) == 1) {
+                    pending.push(operand);
+                }
+            }
+        }
+        return uses;
+    }
+
+    /**
+     * Growable instruction stream with its constant, operator and function tables.
+     */
+    private static final class Program {
+        private byte[] instructions = new byte[16];
+        private int[] operands = new int[16];
+        private int length;
+        private final List<Double> constants = new ArrayList<>();
+        private final List<Operator> operators = new ArrayList<>();
+        private final List<Function> functions = new ArrayList<>();
+        private int depth;
+        private int maxDepth;
+
+        void add(ExpressionNode node) {
+            if (node instanceof ExpressionNode.Constant constant) {
+                add(Opcodes.PUSH_CONSTANT, constants.size(), 1);
+                constants.add(constant.value);
+            } else if (node instanceof ExpressionNode.Variable variable) {
+                add(Opcodes.LOAD_VARIABLE, variable.index, 1);
+            } else if (node instanceof ExpressionNode.IntegerPower power) {
+                add(Opcodes.INTEGER_POWER, power.exponent, 0);
+            } else if (node instanceof ExpressionNode.FusedMultiplyAdd) {
+                add(Opcodes.FUSED_MULTIPLY_ADD, 0, -2);
+            } else if (node instanceof ExpressionNode.Call call) {
+                int index = 0;
+                if (call.opcode == Opcodes.CALL_UNARY || call.opcode == Opcodes.CALL_BINARY
+                        || call.opcode == Opcodes.CALL_TERNARY) {
+                    index = functions.indexOf(call.function);
+                    if (index < 0) {
+                        index = functions.size();
+                        functions.add(call.function);
+                    }
+                }
+                add(call.opcode, index, 1 - call.arity());
+            } else {
+                ExpressionNode.Binary binary = (ExpressionNode.Binary) node;
+                int index = 0;
+                if (binary.opcode == Opcodes.APPLY_OPERATOR) {
+                    index = operators.indexOf(binary.operator);
+                    if (index < 0) {
+                        index = operators.size();
+                        operators.add(binary.operator);
+                    }
+                }
+                add(binary.opcode, index, -1);
+            }
+        }
+
+        void add(byte opcode, int operand, int stackEffect) {
+            if (length == instructions.length) {
+                instructions = Arrays.copyOf(instructions, length * 2);
+                operands = Arrays.copyOf(operands, length * 2);
+            }
+            instructions[length] = opcode;
+            operands[length] = operand;
+            length++;
+            depth += stackEffect;
+            maxDepth = Math.max(maxDepth, depth);
+        }
+
+        CompiledExpression build(String source, String[] variableNames, int temporaries, int eliminated) {
+            double[] constantPool = new double[constants.size()];
+            for (int i = 0; i < constantPool.length; i++) {
+                constantPool[i] = constants.get(i);
+            }
+            return new CompiledExpression(source, Arrays.copyOf(instructions, length),
+                    Arrays.copyOf(operands, length), constantPool, operators.toArray(new Operator[0]),
+                    functions.toArray(new Function[0]), variableNames, maxDepth, temporaries, eliminated);
+        }
+    }
+}
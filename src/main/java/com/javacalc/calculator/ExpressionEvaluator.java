@@ -1,23 +1,42 @@
 package com.javacalc.calculator;
 
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.ErrorCode;
 import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
 import com.javacalc.operators.Operator;
 import com.javacalc.operators.OperatorRegistry;
 import com.javacalc.variables.VariableManager;
+import com.javacalc.variables.VariableSnapshot;
 
-import java.util.Stack;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
 
 /**
  * Evaluates postfix (Reverse Polish Notation) expressions.
- * Supports floating-point arithmetic, variables, and extensible operators.
+ * Supports floating-point arithmetic, variables, and extensible operators and functions;
+ * a function name applies the function to the operands before it, as in {@code 3 4 max},
+ * unless a variable of that name is defined, which then shadows the function.
+ * <p>
+ * Operands live on a primitive {@code double[]} stack that is kept between calls and only
+ * grows, so evaluating an expression of numbers and operators allocates nothing.
+ * An evaluator is therefore not thread-safe, nor reentrant from within an operator.
  */
 public class ExpressionEvaluator {
     private final OperatorRegistry operatorRegistry;
     private final VariableManager variableManager;
+    private final ExpressionLexer lexer;
+    private double[] stack;
+    // Holder for the throwing API, which reports the errors of the result-based one
+    private final EvaluationResult result;
 
     public ExpressionEvaluator(OperatorRegistry operatorRegistry, VariableManager variableManager) {
         this.operatorRegistry = operatorRegistry;
         this.variableManager = variableManager;
+        this.lexer = new ExpressionLexer(true);
+        this.stack = new double[16];
+        this.result = new EvaluationResult();
     }
 
     /**
@@ -27,63 +46,182 @@ public class ExpressionEvaluator {
      * @return the result of the evaluation
      * @throws InvalidExpressionException if the expression is malformed
      */
-    public double evaluatePostfix(String postfixExpression) {
-        Stack<Double> stack = new Stack<>();
-        String[] tokens = postfixExpression.trim().split("\\s+");
+    public double evaluatePostfix(CharSequence postfixExpression) {
+        return evaluatePostfix(postfixExpression, null);
+    }
 
-        for (String token : tokens) {
-            if (token.isEmpty()) {
-                continue;
-            }
+    /**
+     * Evaluates a postfix expression against a snapshot of variables instead of this
+     * evaluator's variable manager. Undefined variables read as 0 and nothing is written,
+     * so many threads can evaluate against one shared snapshot, each with its own evaluator.
+     *
+     * @param postfixExpression the postfix expression to evaluate
+     * @param snapshot the variable values to read, or null to use the variable manager
+     * @return the result of the evaluation
+     * @throws InvalidExpressionException if the expression is malformed
+     */
+    public double evaluatePostfix(CharSequence postfixExpression, VariableSnapshot snapshot) {
+        EvaluationResult result = this.result;
+        if (!evaluatePostfix(postfixExpression, snapshot, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
 
-            // Check if token is a number
-            if (isNumber(token)) {
-                stack.push(Double.parseDouble(token));
+    /**
+     * Evaluates a postfix expression, reporting errors in a result holder instead of throwing
+     * them. Calculator exceptions thrown by custom operators are reported in the result too.
+     *
+     * @param postfixExpression the postfix expression to evaluate
+     * @param snapshot the variable values to read, or null to use the variable manager
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     */
+    public boolean evaluatePostfix(CharSequence postfixExpression, VariableSnapshot snapshot,
+                                   EvaluationResult result) {
+        int top = feed(postfixExpression, snapshot, result, 0);
+        return top >= 0 && finish(top, result);
+    }
+
+    /**
+     * Evaluates a postfix expression read from a reader until its end, reporting errors in a
+     * result holder. The expression is read in chunks, so memory use depends on the depth of
+     * the operand stack rather than the length of the expression. The reader is not closed.
+     *
+     * @param postfixExpression the postfix expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     * @throws IOException if reading fails
+     */
+    public boolean evaluatePostfix(Reader postfixExpression, EvaluationResult result) throws IOException {
+        ExpressionReader reader = new ExpressionReader(postfixExpression, true);
+        int top = 0;
+        for (CharSequence chunk = reader.next(); chunk != null; chunk = reader.next()) {
+            top = feed(chunk, null, result, top);
+            if (top < 0) {
+                // Build the message while the chunk holding the offending token is intact
+                result.getMessage();
+                return false;
             }
-            // Check if token is a variable
-            else if (VariableManager.isValidVariableName(token)) {
-                if (!variableManager.hasVariable(token)) {
-                    // Initialize undefined variables to 0
-                    variableManager.setVariable(token, 0.0);
-                }
-                stack.push(variableManager.getVariable(token));
+        }
+        return finish(top, result);
+    }
+
+    /**
+     * Evaluates the tokens of the next part of an expression on top of the operand stack.
+     *
+     * @param top the number of operands on the stack
+     * @return the new number of operands, or -1 on an error, which ends the evaluation
+     */
+    private int feed(CharSequence postfixExpression, VariableSnapshot snapshot, EvaluationResult result, int top) {
+        ExpressionLexer lexer = this.lexer.reset(postfixExpression);
+        double[] stack = this.stack;
+        // A marker from ExpressionParser's marked output, which fixes how the next name reads
+        char marker = 0;
+
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (top == stack.length) {
+                stack = this.stack = Arrays.copyOf(stack, top * 2);
             }
-            // Token must be an operator
-            else if (token.length() == 1 && operatorRegistry.isOperator(token.charAt(0))) {
-                if (stack.size() < 2) {
-                    throw new InvalidExpressionException("ERROR: Insufficient operands for operator '" + token + "'");
+
+            switch (token) {
+                case NUMBER -> stack[top++] = lexer.numberValue();
+                case IDENTIFIER -> {
+                    Function function = marker == ExpressionParser.VARIABLE ? null
+                            : operatorRegistry.findFunction(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                    if (function != null && marker == 0 && isDefined(postfixExpression, snapshot)) {
+                        // A defined variable shadows a function of the same name
+                        function = null;
+                    }
+                    marker = 0;
+                    if (function != null) {
+                        if (top < function.getArity()) {
+                            result.fail(ErrorCode.INSUFFICIENT_OPERANDS, postfixExpression,
+                                    lexer.tokenStart(), lexer.tokenEnd());
+                            return -1;
+                        }
+                        try {
+                            top = Opcodes.call(Opcodes.forFunction(function), function, stack, top);
+                        } catch (CalculatorException e) {
+                            result.fail(e);
+                            return -1;
+                        }
+                    } else if (snapshot != null) {
+                        int slot = snapshot.slotOf(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                        stack[top++] = slot < 0 ? 0.0 : snapshot.getValue(slot);
+                    } else {
+                        int slot = variableManager.slotOf(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                        // Initialize undefined variables to 0
+                        variableManager.ensureDefined(slot);
+                        stack[top++] = variableManager.getValue(slot);
+                    }
                 }
+                case SYMBOL -> {
+                    char symbol = lexer.tokenChar();
+                    if (symbol == ExpressionParser.CALL || symbol == ExpressionParser.VARIABLE) {
+                        marker = symbol;
+                        continue;
+                    }
+                    if (!operatorRegistry.isOperator(symbol)) {
+                        result.fail(ErrorCode.INVALID_TOKEN, postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                        return -1;
+                    }
+                    if (top < 2) {
+                        result.fail(ErrorCode.INSUFFICIENT_OPERANDS, postfixExpression,
+                                lexer.tokenStart(), lexer.tokenEnd());
+                        return -1;
+                    }
 
-                double b = stack.pop();
-                double a = stack.pop();
+                    double b = stack[--top];
+                    double a = stack[top - 1];
 
-                Operator operator = operatorRegistry.getOperator(token.charAt(0));
-                double result = operator.apply(a, b);
-                stack.push(result);
-            } else {
-                throw new InvalidExpressionException("ERROR: Invalid token '" + token + "'");
+                    Operator operator = operatorRegistry.getOperator(symbol);
+                    byte opcode = Opcodes.forOperator(operator);
+                    if ((opcode == Opcodes.DIVIDE || opcode == Opcodes.MODULO) && b == 0.0) {
+                        result.fail(ErrorCode.DIVISION_BY_ZERO, null, 0, 0);
+                        return -1;
+                    }
+                    switch (opcode) {
+                        case Opcodes.ADD -> stack[top - 1] = a + b;
+                        case Opcodes.SUBTRACT -> stack[top - 1] = a - b;
+                        case Opcodes.MULTIPLY -> stack[top - 1] = a * b;
+                        case Opcodes.DIVIDE -> stack[top - 1] = a / b;
+                        case Opcodes.MODULO -> stack[top - 1] = a % b;
+                        case Opcodes.POWER -> stack[top - 1] = Math.pow(a, b);
+                        default -> {
+                            try {
+                                stack[top - 1] = operator.apply(a, b);
+                            } catch (CalculatorException e) {
+                                result.fail(e);
+                                return -1;
+                            }
+                        }
+                    }
+                }
+                default -> {
+                    result.fail(ErrorCode.INVALID_TOKEN, postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+                    return -1;
+                }
             }
         }
-
-        if (stack.size() != 1) {
-            throw new InvalidExpressionException("ERROR: Invalid expression - too many operands");
-        }
-
-        return stack.pop();
+        return top;
     }
 
     /**
-     * Checks if a token is a valid number (integer or decimal, possibly negative).
-     *
-     * @param token the token to check
-     * @return true if the token is a number
+     * Checks if the current identifier names a defined variable.
      */
-    private boolean isNumber(String token) {
-        try {
-            Double.parseDouble(token);
-            return true;
-        } catch (NumberFormatException e) {
-            return false;
+    private boolean isDefined(CharSequence postfixExpression, VariableSnapshot snapshot) {
+        if (snapshot != null) {
+            return snapshot.hasVariable(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
         }
+        return variableManager.hasVariable(postfixExpression, lexer.tokenStart(), lexer.tokenEnd());
+    }
+
+    private boolean finish(int top, EvaluationResult result) {
+        if (top != 1) {
+            return result.fail(ErrorCode.TOO_MANY_OPERANDS, null, 0, 0);
+        }
+
+        return result.succeed(stack[0]);
     }
 }
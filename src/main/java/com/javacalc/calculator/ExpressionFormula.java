@@ -0,0 +1,51 @@
+package com.javacalc.calculator;
+
+import com.javacalc.variables.Formula;
+import com.javacalc.variables.VariableManager;
+
+/**
+ * A formula variable defined by an expression, created by {@link Calculator#defineFormula(String)}.
+ * The expression is compiled to bytecode once, when the formula is defined, and each
+ * recomputation reads the current values of its variables from their slots. An expression too
+ * large for bytecode is interpreted instead.
+ */
+final class ExpressionFormula implements Formula {
+    private final CompiledExpression program;
+    // Null if the expression could not be compiled to bytecode
+    private final BytecodeExpression code;
+    private final int[] slots;
+    private final double[] arguments;
+    private final VariableBindings bindings;
+
+    ExpressionFormula(CompiledExpression program, BytecodeExpression code, int[] slots) {
+        this.program = program;
+        this.code = code;
+        this.slots = slots;
+        this.arguments = code != null ? new double[slots.length] : null;
+        this.bindings = code != null ? null : program.newBindings();
+    }
+
+    @Override
+    public int[] getDependencies() {
+        return slots;
+    }
+
+    @Override
+    public double compute(VariableManager variables) {
+        if (code == null) {
+            for (int i = 0; i < slots.length; i++) {
+                bindings.set(i, variables.getValue(slots[i]));
+            }
+            return program.evaluate(bindings);
+        }
+        for (int i = 0; i < slots.length; i++) {
+            arguments[i] = variables.getValue(slots[i]);
+        }
+        return code.eval(arguments);
+    }
+
+    @Override
+    public String toString() {
+        return program.getSource();
+    }
+}
@@ -0,0 +1,181 @@
+package com.javacalc.calculator;
+
+/**
+ * Single-pass, character-scanning lexer for infix and postfix expressions.
+ * Tokens are reported as a {@link Token} kind plus start and end offsets into the
+ * original {@link CharSequence}; no substrings are created while scanning, so a lexer
+ * can be {@link #reset(CharSequence) reset} and reused without producing garbage.
+ * <p>
+ * Recognised tokens are unsigned decimal numbers ({@code 12}, {@code 3.5}, {@code 1e-9}),
+ * which are scanned and converted by a {@link NumberScanner}, identifiers (a letter followed
+ * by letters and digits), parentheses, and single-character symbols.
+ * Whether a symbol is a registered operator is left to the caller. When signed numbers are
+ * enabled (postfix notation), a {@code '-'} that starts a token and is directly followed by
+ * a digit is part of the number.
+ */
+public final class ExpressionLexer {
+    /**
+     * Token kinds.
+     */
+    public enum Token {
+        NUMBER,
+        IDENTIFIER,
+        LEFT_PAREN,
+        RIGHT_PAREN,
+        SYMBOL,
+        END
+    }
+
+    private final boolean signedNumbers;
+    private final NumberScanner numbers = new NumberScanner();
+    private CharSequence input;
+    private int length;
+    private int position;
+    private int tokenStart;
+    private int tokenEnd;
+    private Token token;
+
+    /**
+     * Creates a lexer.
+     *
+     * @param signedNumbers whether a leading {@code '-'} belongs to the number it precedes
+     */
+    public ExpressionLexer(boolean signedNumbers) {
+        this.signedNumbers = signedNumbers;
+        reset("");
+    }
+
+    /**
+     * Starts lexing a new input.
+     *
+     * @param input the expression text
+     * @return this lexer
+     */
+    public ExpressionLexer reset(CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+        this.position = 0;
+        this.tokenStart = 0;
+        this.tokenEnd = 0;
+        this.token = null;
+        return this;
+    }
+
+    /**
+     * Advances to the next token.
+     *
+     * @return the kind of the new current token, {@link Token#END} at the end of input
+     */
+    public Token next() {
+        int i = position;
+        while (i < length && isWhitespace(input.charAt(i))) {
+            i++;
+        }
+
+        tokenStart = i;
+        if (i == length) {
+            tokenEnd = i;
+            position = i;
+            return token = Token.END;
+        }
+
+        char c = input.charAt(i);
+        if (isDigit(c) || (signedNumbers && c == '-' && i + 1 < length && isDigit(input.charAt(i + 1))
+                && (i == 0 || isWhitespace(input.charAt(i - 1))))) {
+            i = numbers.scan(input, i);
+            token = Token.NUMBER;
+        } else if (isLetter(c)) {
+            i++;
+            while (i < length && (isLetter(input.charAt(i)) || isDigit(input.charAt(i)))) {
+                i++;
+            }
+            token = Token.IDENTIFIER;
+        } else {
+            i++;
+            token = c == '(' ? Token.LEFT_PAREN : c == ')' ? Token.RIGHT_PAREN : Token.SYMBOL;
+        }
+
+        tokenEnd = i;
+        position = i;
+        return token;
+    }
+
+    /**
+     * Gets the kind of the current token.
+     *
+     * @return the current token kind, or null before the first call to {@link #next()}
+     */
+    public Token token() {
+        return token;
+    }
+
+    /**
+     * Gets the offset of the first character of the current token.
+     *
+     * @return the start offset
+     */
+    public int tokenStart() {
+        return tokenStart;
+    }
+
+    /**
+     * Gets the offset just past the last character of the current token.
+     *
+     * @return the end offset
+     */
+    public int tokenEnd() {
+        return tokenEnd;
+    }
+
+    /**
+     * Gets the first character of the current token, which is the whole token for
+     * parentheses and symbols.
+     *
+     * @return the first character
+     */
+    public char tokenChar() {
+        return input.charAt(tokenStart);
+    }
+
+    /**
+     * Gets the input being lexed.
+     *
+     * @return the input
+     */
+    public CharSequence input() {
+        return input;
+    }
+
+    /**
+     * Copies the current token into a new string. Intended for error messages and
+     * other places that genuinely need a {@link String}.
+     *
+     * @return the token text
+     */
+    public String tokenText() {
+        return input.subSequence(tokenStart, tokenEnd).toString();
+    }
+
+    /**
+     * Converts the current {@link Token#NUMBER} token to a double.
+     * The digits were accumulated while the token was scanned, so typical literals are
+     * converted without reading them again or allocating.
+     *
+     * @return the numeric value
+     */
+    public double numberValue() {
+        return numbers.value();
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+    }
+}
@@ -0,0 +1,276 @@
+package com.javacalc.calculator;
+
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+
+import java.util.Objects;
+
+/**
+ * Immutable expression tree node, built from a postfix expression by {@link ExpressionCompiler}
+ * and rewritten by {@link ExpressionOptimizer} before it is flattened into a
+ * {@link CompiledExpression} program.
+ * <p>
+ * The optimizer interns nodes, so equal subtrees are usually the same object and the tree is
+ * really a DAG. {@link #equals(Object)} therefore compares operands by identity, which is
+ * structural equality for interned operands.
+ */
+abstract class ExpressionNode {
+    /** The number of operation nodes in this subtree, counting shared subtrees at every use. */
+    final int operations;
+
+    private ExpressionNode(int operations) {
+        this.operations = operations;
+    }
+
+    /**
+     * Gets the number of operands of this node.
+     *
+     * @return 0 for leaves
+     */
+    abstract int arity();
+
+    /**
+     * Gets an operand of this node, in evaluation order.
+     *
+     * @param index the operand index, less than {@link #arity()}
+     * @return the operand
+     */
+    abstract ExpressionNode operand(int index);
+
+    /**
+     * A numeric literal, or the result of folding a constant subtree.
+     */
+    static final class Constant extends ExpressionNode {
+        final double value;
+
+        Constant(double value) {
+            super(0);
+            this.value = value;
+        }
+
+        boolean is(double expected) {
+            return value == expected;
+        }
+
+        @Override
+        int arity() {
+            return 0;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Constant other
+                    && Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Double.hashCode(value);
+        }
+    }
+
+    /**
+     * A variable, identified by its index in the compiled expression.
+     */
+    static final class Variable extends ExpressionNode {
+        final int index;
+
+        Variable(int index) {
+            super(0);
+            this.index = index;
+        }
+
+        @Override
+        int arity() {
+            return 0;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Variable other && index == other.index;
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+    }
+
+    /**
+     * A binary operator applied to two subtrees.
+     */
+    static final class Binary extends ExpressionNode {
+        /** The operator's opcode, {@link Opcodes#APPLY_OPERATOR} for custom operators. */
+        final byte opcode;
+        final Operator operator;
+        final ExpressionNode left;
+        final ExpressionNode right;
+
+        Binary(byte opcode, Operator operator, ExpressionNode left, ExpressionNode right) {
+            super(1 + left.operations + right.operations);
+            this.opcode = opcode;
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        int arity() {
+            return 2;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            return index == 0 ? left : right;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Binary other && opcode == other.opcode && operator == other.operator
+                    && left == other.left && right == other.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(opcode, System.identityHashCode(left), System.identityHashCode(right));
+        }
+    }
+
+    /**
+     * A base raised to a positive integer power by repeated multiplication.
+     */
+    static final class IntegerPower extends ExpressionNode {
+        final ExpressionNode base;
+        final int exponent;
+
+        IntegerPower(ExpressionNode base, int exponent) {
+            super(1 + base.operations);
+            this.base = base;
+            this.exponent = exponent;
+        }
+
+        @Override
+        int arity() {
+            return 1;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            return base;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IntegerPower other && base == other.base && exponent == other.exponent;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(base) + exponent;
+        }
+    }
+
+    /**
+     * {@code a * b + c} computed with a single rounding.
+     */
+    static final class FusedMultiplyAdd extends ExpressionNode {
+        final ExpressionNode a;
+        final ExpressionNode b;
+        final ExpressionNode c;
+
+        FusedMultiplyAdd(ExpressionNode a, ExpressionNode b, ExpressionNode c) {
+            super(1 + a.operations + b.operations + c.operations);
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        @Override
+        int arity() {
+            return 3;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            return index == 0 ? a : index == 1 ? b : c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof FusedMultiplyAdd other && a == other.a && b == other.b && c == other.c;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(a), System.identityHashCode(b), System.identityHashCode(c));
+        }
+    }
+
+    /**
+     * A function applied to as many subtrees as it takes arguments.
+     */
+    static final class Call extends ExpressionNode {
+        /** The function's opcode, a {@code CALL_*} opcode for custom functions. */
+        final byte opcode;
+        final Function function;
+        private final ExpressionNode[] arguments;
+
+        Call(byte opcode, Function function, ExpressionNode[] arguments) {
+            super(1 + operations(arguments));
+            this.opcode = opcode;
+            this.function = function;
+            this.arguments = arguments;
+        }
+
+        private static int operations(ExpressionNode[] arguments) {
+            int operations = 0;
+            for (ExpressionNode argument : arguments) {
+                operations += argument.operations;
+            }
+            return operations;
+        }
+
+        @Override
+        int arity() {
+            return arguments.length;
+        }
+
+        @Override
+        ExpressionNode operand(int index) {
+            return arguments[index];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Call other) || opcode != other.opcode || function != other.function
+                    || arguments.length != other.arguments.length) {
+                return false;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] != other.arguments[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = opcode;
+            for (ExpressionNode argument : arguments) {
+                hash = 31 * hash + System.identityHashCode(argument);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.javacalc.calculator;
+
+import com.javacalc.calculator.ExpressionNode.Binary;
+import com.javacalc.calculator.ExpressionNode.Constant;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Simplifies expression trees as they are built.
+ * Nodes are created bottom-up, so every node is simplified once, after its operands have
+ * been, and no recursion is needed however deep the expression is.
+ * <p>
+ * The rewrites are:
+ * <ul>
+ *   <li>constant folding of built-in operators whose operands are both constants, for example
+ *       {@code 60 * 60 * 24}, and of built-in functions whose arguments are all constants;
+ *       custom operators and functions are never folded because they may be replaced</li>
+ *   <li>the identities {@code x * 1}, {@code 1 * x}, {@code x / 1}, {@code x ^ 1},
+ *       {@code x + 0}, {@code 0 + x} and {@code x - 0}</li>
+ *   <li>strength reduction of a division by a power of two to a multiplication by its exact
+ *       reciprocal</li>
+ *   <li>common subexpressions: every node is interned, so a repeated subtree such as the
+ *       {@code (x + y)} in {@code (x + y) * (x + y)} becomes a single shared node, which
+ *       {@link ExpressionCompiler} evaluates once into a temporary</li>
+ * </ul>
+ * A division or modulo by a constant zero is never folded, so it still throws
+ * {@link com.javacalc.exceptions.DivisionByZeroException} when evaluated, and no rewrite
+ * discards a subtree that could throw. Folding performs the same floating-point operations
+ * as evaluation, so results are unchanged; the one exception is that the additive identities
+ * return a negative zero {@code x} as is, where the addition would have produced a positive zero.
+ * <p>
+ * With relaxed floating point, rewrites that may change the rounding of a result by an ulp
+ * are also applied: small integer powers such as {@code x ^ 2} become multiplication chains,
+ * since {@link Math#pow(double, double)} is only specified to within an ulp, division by any
+ * constant becomes multiplication by its reciprocal, and {@code a * b + c} is fused into
+ * {@link Math#fma(double, double, double)}.
+ */
+final class ExpressionOptimizer {
+    /**
+     * Largest integer exponent rewritten to a multiplication chain with relaxed floating point.
+     */
+    static final int MAX_INTEGER_EXPONENT = 64;
+
+    private final boolean relaxed;
+    private final Map<ExpressionNode, ExpressionNode> nodes = new HashMap<>();
+
+    /**
+     * Creates an optimizer.
+     *
+     * @param relaxed whether rewrites that may change rounding are allowed
+     */
+    ExpressionOptimizer(boolean relaxed) {
+        this.relaxed = relaxed;
+    }
+
+    /**
+     * Creates a constant node.
+     *
+     * @param value the constant value
+     * @return the node
+     */
+    ExpressionNode constant(double value) {
+        return intern(new Constant(value));
+    }
+
+    /**
+     * Creates a variable node.
+     *
+     * @param index the variable index
+     * @return the node
+     */
+    ExpressionNode variable(int index) {
+        return intern(new ExpressionNode.Variable(index));
+    }
+
+    /**
+     * Creates the simplest node equivalent to applying an operator to two simplified operands.
+     *
+     * @param operator the operator
+     * @param left the left operand
+     * @param right the right operand
+     * @return the simplified node
+     */
+    ExpressionNode binary(Operator operator, ExpressionNode left, ExpressionNode right) {
+        byte opcode = Opcodes.forOperator(operator);
+        if (opcode == Opcodes.APPLY_OPERATOR) {
+            // Custom operators may have side effects, so every application is kept
+            return new Binary(opcode, operator, left, right);
+        }
+
+        if (left instanceof Constant a && right instanceof Constant b && canFold(opcode, b.value)) {
+            return constant(fold(opcode, a.value, b.value));
+        }
+
+        ExpressionNode simplified = applyIdentity(opcode, left, right);
+        if (simplified == null) {
+            simplified = reduceStrength(opcode, left, right);
+        }
+        return intern(simplified != null ? simplified : new Binary(opcode, operator, left, right));
+    }
+
+    /**
+     * Creates the simplest node equivalent to applying a function to simplified arguments.
+     *
+     * @param function the function
+     * @param arguments the arguments, as many as the function takes
+     * @return the simplified node
+     */
+    ExpressionNode call(Function function, ExpressionNode[] arguments) {
+        byte opcode = Opcodes.forFunction(function);
+        if (opcode == Opcodes.CALL_UNARY || opcode == Opcodes.CALL_BINARY || opcode == Opcodes.CALL_TERNARY) {
+            // Custom functions may have side effects, so every call is kept
+            return new ExpressionNode.Call(opcode, function, arguments);
+        }
+
+        double[] values = new double[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            if (!(arguments[i] instanceof Constant constant)) {
+                return intern(new ExpressionNode.Call(opcode, function, arguments));
+            }
+            values[i] = constant.value;
+        }
+        // Built-in functions never throw, so a constant call is always folded
+        Opcodes.call(opcode, function, values, values.length);
+        return constant(values[0]);
+    }
+
+    /**
+     * Returns the existing node equal to a new node, or the new node if there is none.
+     * Operands are interned first, so equality of their identities is structural equality.
+     */
+    private ExpressionNode intern(ExpressionNode node) {
+        ExpressionNode existing = nodes.putIfAbsent(node, node);
+        return existing != null ? existing : node;
+    }
+
+    private static boolean canFold(byte opcode, double divisor) {
+        // Leave division by zero to fail at evaluation time
+        return (opcode != Opcodes.DIVIDE && opcode != Opcodes.MODULO) || divisor != 0;
+    }
+
+    private static double fold(byte opcode, double a, double b) {
+        return switch (opcode) {
+            case Opcodes.ADD -> a + b;
+            case Opcodes.SUBTRACT -> a - b;
+            case Opcodes.MULTIPLY -> a * b;
+            case Opcodes.DIVIDE -> a / b;
+            case Opcodes.MODULO -> a % b;
+            case Opcodes.POWER -> Math.pow(a, b);
+            default -> throw new IllegalArgumentException("Not a built-in opcode: " + opcode);
+        };
+    }
+
+    private static ExpressionNode applyIdentity(byte opcode, ExpressionNode left, ExpressionNode right) {
+        boolean leftIs0 = left instanceof Constant c && c.is(0);
+        boolean leftIs1 = left instanceof Constant c && c.is(1);
+        boolean rightIs0 = right instanceof Constant c && c.is(0);
+        boolean rightIs1 = right instanceof Constant c && c.is(1);
+
+        return switch (opcode) {
+            case Opcodes.ADD -> rightIs0 ? left : leftIs0 ? right : null;
+            case Opcodes.SUBTRACT -> rightIs0 ? left : null;
+            case Opcodes.MULTIPLY -> rightIs1 ? left : leftIs1 ? right : null;
+            case Opcodes.DIVIDE, Opcodes.POWER -> rightIs1 ? left : null;
+            default -> null;
+        };
+    }
+
+    private ExpressionNode reduceStrength(byte opcode, ExpressionNode left, ExpressionNode right) {
+        switch (opcode) {
+            case Opcodes.POWER:
+                if (relaxed && right instanceof Constant exponent) {
+                    double value = exponent.value;
+                    if (value >= 2 && value <= MAX_INTEGER_EXPONENT && value == Math.rint(value)) {
+                        return new ExpressionNode.IntegerPower(left, (int) value);
+                    }
+                }
+                return null;
+            case Opcodes.DIVIDE:
+                if (right instanceof Constant divisor && divisor.value != 0) {
+                    double reciprocal = 1.0 / divisor.value;
+                    boolean exact = isPowerOfTwo(divisor.value) && isPowerOfTwo(reciprocal);
+                    if (exact || relaxed && Double.isFinite(reciprocal) && reciprocal != 0) {
+                        return new Binary(Opcodes.MULTIPLY, OperatorRegistry.MULTIPLICATION, left,
+                                constant(reciprocal));
+                    }
+                }
+                return null;
+            case Opcodes.ADD:
+                if (!relaxed) {
+                    return null;
+                }
+                if (left instanceof Binary product && product.opcode == Opcodes.MULTIPLY) {
+                    return new ExpressionNode.FusedMultiplyAdd(product.left, product.right, right);
+                }
+                if (right instanceof Binary product && product.opcode == Opcodes.MULTIPLY) {
+                    return new ExpressionNode.FusedMultiplyAdd(product.left, product.right, left);
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Checks whether a value is a normal power of two. Multiplying by such a value scales
+     * exactly like dividing by its reciprocal, so both round to the same result.
+     */
+    private static boolean isPowerOfTwo(double value) {
+        int exponent = Math.getExponent(value);
+        return exponent >= Double.MIN_EXPONENT && exponent <= Double.MAX_EXPONENT
+                && (Double.doubleToRawLongBits(value) & 0x000F_FFFF_FFFF_FFFFL) == 0;
+    }
+}
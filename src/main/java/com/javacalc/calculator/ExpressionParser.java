@@ -1,16 +1,26 @@
 package com.javacalc.calculator;
 
+import com.javacalc.exceptions.ErrorCode;
 import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
 import com.javacalc.operators.OperatorRegistry;
-import com.javacalc.variables.VariableManager;
 
 import java.util.Stack;
 
 /**
  * Parser for converting infix expressions to postfix notation using the Shunting Yard algorithm.
- * Supports operators, parentheses, numbers, and variables.
+ * Supports operators, parentheses, numbers, variables, and function calls such as
+ * {@code max(a, b)}, which are written to the output as {@code a b max}. A name is a function
+ * only when it is followed by {@code (}, so a variable may share a function's name. Tokens are
+ * read with an {@link ExpressionLexer} and copied to the output straight from the input
+ * characters.
  */
 public class ExpressionParser {
+    // Marks the '(' of a function call on an operator stack, and a call in marked output
+    static final char CALL = '\uFFFF';
+    // Marks a variable that shares a function's name in marked output
+    static final char VARIABLE = '\uFFFE';
+
     private final OperatorRegistry operatorRegistry;
 
     public ExpressionParser(OperatorRegistry operatorRegistry) {
@@ -25,84 +35,186 @@ public class ExpressionParser {
      * @return the postfix expression
      * @throws InvalidExpressionException if the expression is malformed
      */
-    public String infixToPostfix(String expression) {
-        StringBuilder output = new StringBuilder();
-        Stack<Character> stack = new Stack<>();
+    public String infixToPostfix(CharSequence expression) {
+        return infixToPostfix(expression, false);
+    }
 
-        // Tokenize the expression
-        String[] tokens = tokenize(expression);
+    /**
+     * Converts an infix expression to postfix notation, marked as described in
+     * {@link #infixToPostfix(CharSequence, EvaluationResult, boolean)}.
+     *
+     * @throws InvalidExpressionException if the expression is malformed
+     */
+    String infixToPostfix(CharSequence expression, boolean marked) {
+        EvaluationResult result = new EvaluationResult();
+        String postfix = infixToPostfix(expression, result, marked);
+        if (postfix == null) {
+            throw result.toException();
+        }
+        return postfix;
+    }
 
-        for (String token : tokens) {
-            if (token.isEmpty()) {
-                continue;
-            }
+    /**
+     * Converts an infix expression to postfix notation, reporting errors in a result holder
+     * instead of throwing them.
+     * <p>
+     * A call and a variable that share a name are written alike, so in the output such a name
+     * reads as the function unless a variable of that name is defined, as in any postfix
+     * expression.
+     *
+     * @param expression the infix expression
+     * @param result receives the error if the expression is malformed
+     * @return the postfix expression, or null if the expression is malformed
+     */
+    public String infixToPostfix(CharSequence expression, EvaluationResult result) {
+        return infixToPostfix(expression, result, false);
+    }
 
-            // Handle numbers (including negative numbers)
-            if (isNumber(token)) {
-                output.append(token).append(" ");
-            }
-            // Handle variables
-            else if (VariableManager.isValidVariableName(token)) {
-                output.append(token).append(" ");
-            }
-            // Handle opening parenthesis
-            else if (token.equals("(")) {
-                stack.push('(');
+    /**
+     * Converts an infix expression to postfix notation for this package's evaluators and
+     * compiler. With {@code marked}, every function call is written with a leading
+     * {@link #CALL} and every variable that shares a function's name with a leading
+     * {@link #VARIABLE}, so the output keeps the meaning the names had in infix whatever
+     * variables are defined when it is read.
+     */
+    String infixToPostfix(CharSequence expression, EvaluationResult result, boolean marked) {
+        StringBuilder output = new StringBuilder(expression.length() + 16);
+        Stack<Character> stack = new Stack<>();
+        Stack<Call> calls = new Stack<>();
+        ExpressionLexer lexer = new ExpressionLexer(false).reset(expression);
+        // A function name that has been read: a call if '(' follows, otherwise a variable
+        Function pending = null;
+        // Whether the current argument of the innermost call is still empty
+        boolean expectArgument = false;
+
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (pending != null && token != ExpressionLexer.Token.LEFT_PAREN) {
+                // Not a call, so the name is a variable
+                appendVariable(output, pending, marked);
+                pending = null;
             }
-            // Handle closing parenthesis
-            else if (token.equals(")")) {
-                while (!stack.isEmpty() && stack.peek() != '(') {
-                    output.append(stack.pop()).append(" ");
+            switch (token) {
+                // Numbers and variables go straight to the output
+                case NUMBER -> {
+                    output.append(expression, lexer.tokenStart(), lexer.tokenEnd()).append(' ');
+                    expectArgument = false;
                 }
-                if (stack.isEmpty()) {
-                    throw new InvalidExpressionException("ERROR: Mismatched parentheses");
+                case IDENTIFIER -> {
+                    pending = operatorRegistry.findFunction(expression, lexer.tokenStart(), lexer.tokenEnd());
+                    if (pending == null) {
+                        output.append(expression, lexer.tokenStart(), lexer.tokenEnd()).append(' ');
+                    }
+                    expectArgument = false;
                 }
-                stack.pop(); // Remove the '('
-            }
-            // Handle operators
-            else if (token.length() == 1 && operatorRegistry.isOperator(token.charAt(0))) {
-                char currentOp = token.charAt(0);
-                while (!stack.isEmpty() && stack.peek() != '(' &&
-                       operatorRegistry.isOperator(stack.peek()) &&
-                       operatorRegistry.getPrecedence(stack.peek()) >= operatorRegistry.getPrecedence(currentOp)) {
-                    output.append(stack.pop()).append(" ");
+                case LEFT_PAREN -> {
+                    if (pending != null) {
+                        stack.push(CALL);
+                        calls.push(new Call(pending));
+                        pending = null;
+                        expectArgument = true;
+                    } else {
+                        stack.push('(');
+                        expectArgument = false;
+                    }
+                }
+                case RIGHT_PAREN -> {
+                    while (!stack.isEmpty() && !isOpening(stack.peek())) {
+                        output.append(stack.pop()).append(' ');
+                    }
+                    if (stack.isEmpty()) {
+                        result.fail(ErrorCode.MISMATCHED_PARENTHESES, null, 0, 0);
+                        return null;
+                    }
+                    if (stack.pop() == CALL) {
+                        // A function goes to the output after its arguments
+                        Call call = calls.pop();
+                        if (expectArgument || call.arguments != call.function.getArity()) {
+                            return fail(result, ErrorCode.WRONG_ARGUMENT_COUNT, call.function);
+                        }
+                        if (marked) {
+                            output.append(CALL);
+                        }
+                        output.append(call.function.getName()).append(' ');
+                    }
+                    expectArgument = false;
+                }
+                default -> {
+                    char currentOp = lexer.tokenChar();
+                    if (currentOp == ',') {
+                        // End the current argument, which must be directly inside a call
+                        while (!stack.isEmpty() && !isOpening(stack.peek())) {
+                            output.append(stack.pop()).append(' ');
+                        }
+                        if (stack.isEmpty() || stack.peek() != CALL) {
+                            result.fail(ErrorCode.INVALID_TOKEN, expression, lexer.tokenStart(), lexer.tokenEnd());
+                            return null;
+                        }
+                        Call call = calls.peek();
+                        if (expectArgument) {
+                            return fail(result, ErrorCode.WRONG_ARGUMENT_COUNT, call.function);
+                        }
+                        call.arguments++;
+                        expectArgument = true;
+                        continue;
+                    }
+                    if (!operatorRegistry.isOperator(currentOp)) {
+                        result.fail(ErrorCode.INVALID_TOKEN, expression, lexer.tokenStart(), lexer.tokenEnd());
+                        return null;
+                    }
+                    while (!stack.isEmpty() && !isOpening(stack.peek()) &&
+                           operatorRegistry.getPrecedence(stack.peek()) >= operatorRegistry.getPrecedence(currentOp)) {
+                        output.append(stack.pop()).append(' ');
+                    }
+                    stack.push(currentOp);
                 }
-                stack.push(currentOp);
-            } else {
-                throw new InvalidExpressionException("ERROR: Invalid token '" + token + "'");
             }
         }
+        if (pending != null) {
+            appendVariable(output, pending, marked);
+        }
 
         // Pop remaining operators
         while (!stack.isEmpty()) {
-            if (stack.peek() == '(') {
-                throw new InvalidExpressionException("ERROR: Mismatched parentheses");
+            if (isOpening(stack.peek())) {
+                result.fail(ErrorCode.MISMATCHED_PARENTHESES, null, 0, 0);
+                return null;
             }
-            output.append(stack.pop()).append(" ");
+            output.append(stack.pop()).append(' ');
         }
 
-        return output.toString().trim();
+        // Drop the trailing separator
+        if (output.length() > 0) {
+            output.setLength(output.length() - 1);
+        }
+        return output.toString();
     }
 
-    /**
-     * Tokenizes an expression by splitting on operators and parentheses.
-     *
-     * @param expression the expression to tokenize
-     * @return array of tokens
-     */
-    private String[] tokenize(String expression) {
-        // Remove all whitespace and split by operators/parentheses while keeping delimiters
-        return expression.replaceAll("\\s+", "")
-                .split("(?<=[-+*/%^()])|(?=[-+*/%^()])");
+    static boolean isOpening(char symbol) {
+        return symbol == '(' || symbol == CALL;
+    }
+
+    private static void appendVariable(StringBuilder output, Function function, boolean marked) {
+        if (marked) {
+            output.append(VARIABLE);
+        }
+        output.append(function.getName()).append(' ');
+    }
+
+    private static String fail(EvaluationResult result, ErrorCode error, Function function) {
+        String name = function.getName();
+        result.fail(error, name, 0, name.length());
+        return null;
     }
 
     /**
-     * Checks if a token is a valid number (integer or decimal, possibly negative).
-     *
-     * @param token the token to check
-     * @return true if the token is a number
+     * A function call whose closing parenthesis has not been read yet.
      */
-    private boolean isNumber(String token) {
-        return token.matches("-?\\d+(\\.\\d+)?");
+    private static final class Call {
+        final Function function;
+        int arguments = 1;
+
+        Call(Function function) {
+            this.function = function;
+        }
     }
 }
@@ -0,0 +1,140 @@
+package com.javacalc.calculator;
+
+import java.time.Instant;
+
+/**
+ * Cached state and invocation counters for one expression evaluated through
+ * {@link Calculator#evaluate(String)}. Expressions start in the interpreter, which reuses the
+ * cached postfix program, and are promoted to generated bytecode once their invocation count
+ * reaches the calculator's compile threshold. Bytecode is best-effort: an expression too large
+ * for a single JVM method stays in the interpreter for good.
+ */
+public class ExpressionProfile {
+    private final String expression;
+    private final Calculator.Mode mode;
+    private long invocationCount;
+    private long promotionInvocation;
+    private Instant promotedAt;
+
+    // Interpreter tier, set on first successful parse
+    String postfix;
+
+    // Compiled tier, set on promotion
+    CompiledExpression program;
+    BytecodeExpression code;
+    double[] arguments;
+    int[] slots;
+    // Function names a variable could shadow, and whether one did when the program was compiled
+    int[] shadowSlots;
+    boolean[] shadowed;
+    // Set when bytecode generation failed, so the expression is never promoted again
+    boolean uncompilable;
+
+    // Estimated retained memory, maintained by ExpressionCache
+    long weight;
+
+    ExpressionProfile(String expression, Calculator.Mode mode) {
+        this.expression = expression;
+        this.mode = mode;
+    }
+
+    /**
+     * Counts one invocation.
+     *
+     * @return the invocation count including this one
+     */
+    long recordInvocation() {
+        return ++invocationCount;
+    }
+
+    void promote(CompiledExpression program, BytecodeExpression code, int[] slots) {
+        this.program = program;
+        this.code = code;
+        this.arguments = new double[program.getVariableCount()];
+        this.slots = slots;
+        this.promotionInvocation = invocationCount;
+        this.promotedAt = Instant.now();
+    }
+
+    /**
+     * Drops the compiled tier, so that the expression is compiled again on its next evaluation.
+     */
+    void demote() {
+        this.program = null;
+        this.code = null;
+        this.arguments = null;
+        this.slots = null;
+        this.shadowSlots = null;
+        this.shadowed = null;
+    }
+
+    /**
+     * Gets the expression text.
+     *
+     * @return the expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Gets the mode the expression is evaluated in.
+     *
+     * @return the mode
+     */
+    public Calculator.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the number of times the expression has been evaluated.
+     *
+     * @return the invocation count
+     */
+    public long getInvocationCount() {
+        return invocationCount;
+    }
+
+    /**
+     * Checks if the expression has been promoted to compiled code.
+     *
+     * @return true if the expression runs compiled
+     */
+    public boolean isPromoted() {
+        return code != null;
+    }
+
+    /**
+     * Checks if the expression could not be compiled to bytecode and is always interpreted.
+     *
+     * @return true if promotion failed
+     */
+    public boolean isUncompilable() {
+        return uncompilable;
+    }
+
+    /**
+     * Gets the invocation on which the expression was promoted.
+     *
+     * @return the promoting invocation, or 0 if not promoted
+     */
+    public long getPromotionInvocation() {
+        return promotionInvocation;
+    }
+
+    /**
+     * Gets the time at which the expression was promoted.
+     *
+     * @return the promotion time, or null if not promoted
+     */
+    public Instant getPromotedAt() {
+        return promotedAt;
+    }
+
+    @Override
+    public String toString() {
+        return mode + " '" + expression + "': " + invocationCount + " invocations"
+                + (isPromoted() ? ", promoted at invocation " + promotionInvocation + " (" + promotedAt + ")" : "")
+                + (uncompilable ? ", not compilable" : "");
+    }
+}
@@ -0,0 +1,94 @@
+package com.javacalc.calculator;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits an expression read from a {@link Reader} into chunks that each end at a token
+ * boundary, so that an evaluator can lex chunk after chunk with an {@link ExpressionLexer}
+ * and never hold more than one buffer of the input.
+ * <p>
+ * A chunk ends just after whitespace, or in infix notation just after a parenthesis or a
+ * symbol that cannot be part of a number or identifier; a token is therefore never split
+ * between chunks, and a {@code '-'} at the start of a chunk follows whitespace, as the lexer
+ * assumes for signed numbers. The buffer only grows if a single token does not fit in it.
+ * <p>
+ * Each chunk is a view of the buffer that is overwritten when the next chunk is read.
+ */
+final class ExpressionReader {
+    private static final int INITIAL_BUFFER_SIZE = 1 << 15;
+
+    private final Reader reader;
+    private final boolean signedNumbers;
+    private char[] buffer;
+    private int start;
+    private int end;
+    private boolean endOfInput;
+
+    /**
+     * Creates a reader of expression chunks.
+     *
+     * @param reader the expression text
+     * @param signedNumbers whether the lexer treats a leading {@code '-'} as part of a number
+     */
+    ExpressionReader(Reader reader, boolean signedNumbers) {
+        this.reader = reader;
+        this.signedNumbers = signedNumbers;
+        this.buffer = new char[INITIAL_BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the next chunk.
+     *
+     * @return the chunk, or null at the end of the input
+     * @throws IOException if reading fails
+     */
+    CharSequence next() throws IOException {
+        while (true) {
+            if (endOfInput) {
+                if (start == end) {
+                    return null;
+                }
+                return take(end);
+            }
+
+            for (int i = end; i > start; i--) {
+                if (isBoundary(buffer[i - 1])) {
+                    return take(i);
+                }
+            }
+
+            // No complete token is buffered: keep the partial one and read more
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+            if (end == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            int read = reader.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                end += read;
+            }
+        }
+    }
+
+    private CharSequence take(int cut) {
+        CharBuffer chunk = CharBuffer.wrap(buffer, start, cut - start);
+        start = cut;
+        return chunk;
+    }
+
+    private boolean isBoundary(char c) {
+        if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B) {
+            return true;
+        }
+        // In postfix, a '-' directly after another symbol is an operator, not a sign, so only
+        // whitespace is a safe boundary; in infix any symbol outside literals and names is
+        return !signedNumbers && !ExpressionLexer.isLetter(c) && !ExpressionLexer.isDigit(c)
+                && c != '.' && c != '+' && c != '-';
+    }
+}
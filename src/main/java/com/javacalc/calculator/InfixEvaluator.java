@@ -0,0 +1,405 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.ErrorCode;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.VariableManager;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Evaluates infix expressions in a single pass, for expressions that are evaluated once.
+ * <p>
+ * This is the Shunting Yard algorithm of {@link ExpressionParser} with the output queue
+ * replaced by an operand stack: numbers and variables are pushed as they are read, and an
+ * operator is applied as soon as it is popped from the operator stack, instead of being
+ * written to a postfix string that {@link ExpressionEvaluator} then reads again. Both stacks
+ * are primitive arrays kept between calls, so a valid expression allocates nothing.
+ * <p>
+ * An expression can also be streamed from a {@link Reader}, which is read in chunks, so even a
+ * machine-generated expression of many megabytes is evaluated in memory proportional to its
+ * nesting depth rather than its length.
+ * <p>
+ * A function call such as {@code max(a, b)} keeps a marker on the operator stack until its
+ * closing parenthesis, when the function is applied to the operands of its arguments. A name
+ * is a function only when it is followed by {@code (}; otherwise it is a variable, even if a
+ * function has the same name.
+ * <p>
+ * Results and errors are the same as converting to postfix and evaluating that: a syntax
+ * error anywhere in the expression is reported in preference to an evaluation error, so after
+ * an evaluation error the rest of the expression is still parsed, and undefined variables are
+ * only initialized to 0 once the whole expression has parsed.
+ * <p>
+ * An evaluator is not thread-safe, nor reentrant from within an operator.
+ */
+public class InfixEvaluator {
+    // Every ASCII character, so that an operator can be quoted in an error message without allocating
+    private static final String ASCII = ascii();
+
+    private final OperatorRegistry operatorRegistry;
+    private final VariableManager variableManager;
+    private final ExpressionLexer lexer;
+    private double[] operands;
+    private int operandCount;
+    // Pending operators and '(' markers
+    private char[] operators;
+    private int operatorCount;
+    // Open function calls and the number of arguments each has started so far
+    private Function[] calls;
+    private int[] arguments;
+    private int callCount;
+    // A function name that has been read: a call if '(' follows, otherwise a variable
+    private Function pending;
+    // Whether the current argument of the innermost call is still empty
+    private boolean expectArgument;
+    // Distinct slots of the variables read, to initialize once the expression is known to parse
+    private int[] slots;
+    private int slotCount;
+    private boolean[] read;
+    private boolean failed;
+    // Holder for the throwing API, which reports the errors of the result-based one
+    private final EvaluationResult result;
+
+    public InfixEvaluator(OperatorRegistry operatorRegistry, VariableManager variableManager) {
+        this.operatorRegistry = operatorRegistry;
+        this.variableManager = variableManager;
+        this.lexer = new ExpressionLexer(false);
+        this.operands = new double[16];
+        this.operators = new char[16];
+        this.calls = new Function[8];
+        this.arguments = new int[8];
+        this.slots = new int[8];
+        this.read = new boolean[16];
+        this.result = new EvaluationResult();
+    }
+
+    /**
+     * Evaluates an infix expression.
+     *
+     * @param expression the infix expression to evaluate
+     * @return the result of the evaluation
+     * @throws InvalidExpressionException if the expression is malformed
+     */
+    public double evaluate(CharSequence expression) {
+        EvaluationResult result = this.result;
+        if (!evaluate(expression, result)) {
+            throw result.toException();
+        }
+        return result.getValue();
+    }
+
+    /**
+     * Evaluates an infix expression, reporting errors in a result holder instead of throwing
+     * them. Calculator exceptions thrown by custom operators are reported in the result too.
+     *
+     * @param expression the infix expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     */
+    public boolean evaluate(CharSequence expression, EvaluationResult result) {
+        begin();
+        return feed(expression, result) && finish(result);
+    }
+
+    /**
+     * Evaluates an infix expression read from a reader until its end, reporting errors in a
+     * result holder. The reader is not closed.
+     *
+     * @param expression the infix expression to evaluate
+     * @param result receives the value or the error
+     * @return true if the evaluation succeeded
+     * @throws IOException if reading fails
+     */
+    public boolean evaluate(Reader expression, EvaluationResult result) throws IOException {
+        begin();
+        ExpressionReader reader = new ExpressionReader(expression, false);
+        for (CharSequence chunk = reader.next(); chunk != null; chunk = reader.next()) {
+            if (!feed(chunk, result)) {
+                // Build the message while the chunk holding the offending token is intact
+                result.getMessage();
+                return false;
+            }
+        }
+        return finish(result);
+    }
+
+    private void begin() {
+        operandCount = 0;
+        operatorCount = 0;
+        Arrays.fill(calls, 0, callCount, null);
+        callCount = 0;
+        pending = null;
+        expectArgument = false;
+        // A syntax error ends an evaluation without initializing the variables it read
+        clearRead();
+        failed = false;
+    }
+
+    /**
+     * Reads the tokens of the next part of the expression, applying operators as they are
+     * popped.
+     *
+     * @return false on a syntax error, which ends the evaluation
+     */
+    private boolean feed(CharSequence expression, EvaluationResult result) {
+        ExpressionLexer lexer = this.lexer.reset(expression);
+        int top = operatorCount;
+
+        for (ExpressionLexer.Token token = lexer.next(); token != ExpressionLexer.Token.END; token = lexer.next()) {
+            if (pending != null && token != ExpressionLexer.Token.LEFT_PAREN) {
+                pushPendingVariable();
+            }
+            switch (token) {
+                case NUMBER -> {
+                    push(lexer.numberValue());
+                    expectArgument = false;
+                }
+                case IDENTIFIER -> {
+                    pending = operatorRegistry.findFunction(expression, lexer.tokenStart(), lexer.tokenEnd());
+                    if (pending == null && !failed) {
+                        pushVariable(variableManager.slotOf(expression, lexer.tokenStart(), lexer.tokenEnd()));
+                    }
+                    expectArgument = false;
+                }
+                case LEFT_PAREN -> {
+                    if (pending != null) {
+                        top = pushOperator(top, ExpressionParser.CALL);
+                        pushCall(pending);
+                        pending = null;
+                        expectArgument = true;
+                    } else {
+                        top = pushOperator(top, '(');
+                        expectArgument = false;
+                    }
+                }
+                case RIGHT_PAREN -> {
+                    while (top > 0 && !ExpressionParser.isOpening(operators[top - 1])) {
+                        apply(operators[--top], result);
+                    }
+                    if (top == 0) {
+                        return result.fail(ErrorCode.MISMATCHED_PARENTHESES, null, 0, 0);
+                    }
+                    if (operators[--top] == ExpressionParser.CALL) {
+                        Function function = calls[--callCount];
+                        calls[callCount] = null;
+                        if (expectArgument || arguments[callCount] != function.getArity()) {
+                            return fail(result, ErrorCode.WRONG_ARGUMENT_COUNT, function);
+                        }
+                        call(function, result);
+                    }
+                    expectArgument = false;
+                }
+                default -> {
+                    char symbol = lexer.tokenChar();
+                    if (symbol == ',') {
+                        // End the current argument, which must be directly inside a call
+                        while (top > 0 && !ExpressionParser.isOpening(operators[top - 1])) {
+                            apply(operators[--top], result);
+                        }
+                        if (top == 0 || operators[top - 1] != ExpressionParser.CALL) {
+                            return result.fail(ErrorCode.INVALID_TOKEN, expression, lexer.tokenStart(), lexer.tokenEnd());
+                        }
+                        if (expectArgument) {
+                            return fail(result, ErrorCode.WRONG_ARGUMENT_COUNT, calls[callCount - 1]);
+                        }
+                        arguments[callCount - 1]++;
+                        expectArgument = true;
+                        continue;
+                    }
+                    if (!operatorRegistry.isOperator(symbol)) {
+                        return result.fail(ErrorCode.INVALID_TOKEN, expression, lexer.tokenStart(), lexer.tokenEnd());
+                    }
+                    int precedence = operatorRegistry.getPrecedence(symbol);
+                    while (top > 0 && !ExpressionParser.isOpening(operators[top - 1]) &&
+                           operatorRegistry.getPrecedence(operators[top - 1]) >= precedence) {
+                        apply(operators[--top], result);
+                    }
+                    top = pushOperator(top, symbol);
+                }
+            }
+        }
+
+        operatorCount = top;
+        return true;
+    }
+
+    /**
+     * Applies the remaining operators once the whole expression has been read.
+     */
+    private boolean finish(EvaluationResult result) {
+        if (pending != null) {
+            pushPendingVariable();
+        }
+        int top = operatorCount;
+        while (top > 0) {
+            char symbol = operators[--top];
+            if (ExpressionParser.isOpening(symbol)) {
+                return result.fail(ErrorCode.MISMATCHED_PARENTHESES, null, 0, 0);
+            }
+            apply(symbol, result);
+        }
+
+        // The expression parsed, so initialize the undefined variables it read, as evaluation does
+        for (int i = 0; i < slotCount; i++) {
+            variableManager.ensureDefined(slots[i]);
+        }
+        clearRead();
+        if (failed) {
+            return false;
+        }
+        if (operandCount != 1) {
+            return result.fail(ErrorCode.TOO_MANY_OPERANDS, null, 0, 0);
+        }
+        return result.succeed(operands[0]);
+    }
+
+    private void push(double value) {
+        if (failed) {
+            return;
+        }
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = value;
+    }
+
+    private void pushVariable(int slot) {
+        markRead(slot);
+        push(variableManager.getValue(slot));
+    }
+
+    /**
+     * Reads the pending function name as a variable, since no '(' followed it. The name is
+     * taken from the function, as the token may have been in an earlier chunk of the input.
+     */
+    private void pushPendingVariable() {
+        if (!failed) {
+            pushVariable(variableManager.slotOf(pending.getName()));
+        }
+        pending = null;
+    }
+
+    private int pushOperator(int top, char symbol) {
+        if (top == operators.length) {
+            operators = Arrays.copyOf(operators, top * 2);
+        }
+        operators[top] = symbol;
+        return top + 1;
+    }
+
+    private void pushCall(Function function) {
+        if (callCount == calls.length) {
+            calls = Arrays.copyOf(calls, callCount * 2);
+            arguments = Arrays.copyOf(arguments, callCount * 2);
+        }
+        calls[callCount] = function;
+        arguments[callCount++] = 1;
+    }
+
+    private void markRead(int slot) {
+        if (slot >= read.length) {
+            read = Arrays.copyOf(read, Math.max(read.length * 2, slot + 1));
+        }
+        if (!read[slot]) {
+            read[slot] = true;
+            if (slotCount == slots.length) {
+                slots = Arrays.copyOf(slots, slotCount * 2);
+            }
+            slots[slotCount++] = slot;
+        }
+    }
+
+    private void clearRead() {
+        for (int i = 0; i < slotCount; i++) {
+            read[slots[i]] = false;
+        }
+        slotCount = 0;
+    }
+
+    /**
+     * Applies an operator to the top two operands. After the first evaluation error, operators
+     * are no longer applied, but parsing goes on so that a later syntax error takes precedence.
+     */
+    private void apply(char symbol, EvaluationResult result) {
+        if (failed) {
+            return;
+        }
+        if (operandCount < 2) {
+            failed = true;
+            if (symbol < ASCII.length()) {
+                result.fail(ErrorCode.INSUFFICIENT_OPERANDS, ASCII, symbol, symbol + 1);
+            } else {
+                result.fail(ErrorCode.INSUFFICIENT_OPERANDS, String.valueOf(symbol), 0, 1);
+            }
+            return;
+        }
+
+        double[] operands = this.operands;
+        double b = operands[--operandCount];
+        double a = operands[operandCount - 1];
+
+        Operator operator = operatorRegistry.getOperator(symbol);
+        byte opcode = Opcodes.forOperator(operator);
+        if ((opcode == Opcodes.DIVIDE || opcode == Opcodes.MODULO) && b == 0.0) {
+            failed = true;
+            result.fail(ErrorCode.DIVISION_BY_ZERO, null, 0, 0);
+            return;
+        }
+        switch (opcode) {
+            case Opcodes.ADD -> operands[operandCount - 1] = a + b;
+            case Opcodes.SUBTRACT -> operands[operandCount - 1] = a - b;
+            case Opcodes.MULTIPLY -> operands[operandCount - 1] = a * b;
+            case Opcodes.DIVIDE -> operands[operandCount - 1] = a / b;
+            case Opcodes.MODULO -> operands[operandCount - 1] = a % b;
+            case Opcodes.POWER -> operands[operandCount - 1] = Math.pow(a, b);
+            default -> {
+                try {
+                    operands[operandCount - 1] = operator.apply(a, b);
+                } catch (CalculatorException e) {
+                    failed = true;
+                    result.fail(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies a function to the operands of its arguments, unless an evaluation error has
+     * already occurred.
+     */
+    private void call(Function function, EvaluationResult result) {
+        if (failed) {
+            return;
+        }
+        if (operandCount < function.getArity()) {
+            failed = true;
+            String name = function.getName();
+            result.fail(ErrorCode.INSUFFICIENT_OPERANDS, name, 0, name.length());
+            return;
+        }
+        try {
+            operandCount = Opcodes.call(Opcodes.forFunction(function), function, operands, operandCount);
+        } catch (CalculatorException e) {
+            failed = true;
+            result.fail(e);
+        }
+    }
+
+    private static boolean fail(EvaluationResult result, ErrorCode error, Function function) {
+        String name = function.getName();
+        return result.fail(error, name, 0, name.length());
+    }
+
+    private static String ascii() {
+        char[] chars = new char[128];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) i;
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,165 @@
+package com.javacalc.calculator;
+
+/**
+ * Recognizes and converts decimal literals in a single pass over the input characters.
+ * <p>
+ * A literal is an optional {@code '-'}, digits, an optional fraction ({@code '.'} followed by
+ * digits) and an optional exponent ({@code 'e'} or {@code 'E'}, an optional sign and digits),
+ * for example {@code 42}, {@code 3.25} or {@code 1e-9}. While scanning, the first 18
+ * significant digits are accumulated into a {@code long} and the decimal exponent is tracked,
+ * so {@link #value()} does not read the characters again.
+ * <p>
+ * When the significand is exactly representable as a double and the power of ten is too
+ * (up to 10<sup>22</sup>), a single multiplication or division gives the correctly rounded
+ * result; this covers practically every literal written by hand. Other literals are converted
+ * with {@link Double#parseDouble(String)}, which is correctly rounded for any input, at the
+ * cost of one substring. Scanning never throws: an input that is not a literal is reported by
+ * the returned offset.
+ * <p>
+ * A scanner holds the state of the last scanned literal, so it is not thread-safe.
+ */
+public final class NumberScanner {
+    // Powers of ten that are exactly representable as doubles
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Largest significand for which long-to-double conversion is exact
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+
+    // Significant digits that always fit in a long
+    private static final int MAX_DIGITS = 18;
+
+    // Exponents beyond this overflow or underflow whatever the digits; clamping avoids int overflow
+    private static final int MAX_EXPONENT = 100_000;
+
+    private CharSequence input;
+    private int start;
+    private int end;
+    private boolean negative;
+    private long significand;
+    private int exponent;
+    // Whether nonzero digits beyond the first 18 were dropped from the significand
+    private boolean truncated;
+
+    /**
+     * Scans the longest literal that starts at an offset.
+     *
+     * @param input the text
+     * @param start the offset of the first character of the literal
+     * @return the offset just past the literal, or {@code start} if no literal starts there
+     */
+    public int scan(CharSequence input, int start) {
+        int length = input.length();
+        int i = start;
+        boolean negative = i < length && input.charAt(i) == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == length || !isDigit(input.charAt(i))) {
+            return start;
+        }
+
+        long significand = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean truncated = false;
+
+        for (char c; i < length && isDigit(c = input.charAt(i)); i++) {
+            if (digits < MAX_DIGITS) {
+                significand = significand * 10 + (c - '0');
+                // Leading zeros are not significant
+                if (significand != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+                truncated |= c != '0';
+            }
+        }
+
+        if (i + 1 < length && input.charAt(i) == '.' && isDigit(input.charAt(i + 1))) {
+            i++;
+            for (char c; i < length && isDigit(c = input.charAt(i)); i++) {
+                if (digits < MAX_DIGITS) {
+                    significand = significand * 10 + (c - '0');
+                    if (significand != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                } else {
+                    truncated |= c != '0';
+                }
+            }
+        }
+
+        if (i < length && (input.charAt(i) == 'e' || input.charAt(i) == 'E')) {
+            int j = i + 1;
+            boolean negativeExponent = false;
+            if (j < length && (input.charAt(j) == '-' || input.charAt(j) == '+')) {
+                negativeExponent = input.charAt(j) == '-';
+                j++;
+            }
+            // Without digits, the 'e' is not part of the literal
+            if (j < length && isDigit(input.charAt(j))) {
+                int explicit = 0;
+                for (char c; j < length && isDigit(c = input.charAt(j)); j++) {
+                    if (explicit < MAX_EXPONENT) {
+                        explicit = explicit * 10 + (c - '0');
+                    }
+                }
+                exponent += negativeExponent ? -explicit : explicit;
+                i = j;
+            }
+        }
+
+        this.input = input;
+        this.start = start;
+        this.end = i;
+        this.negative = negative;
+        this.significand = significand;
+        this.exponent = exponent;
+        this.truncated = truncated;
+        return i;
+    }
+
+    /**
+     * Converts the last scanned literal to the nearest double.
+     *
+     * @return the value of the literal
+     */
+    public double value() {
+        double value;
+        if (significand == 0) {
+            value = 0.0;
+        } else if (truncated || significand > MAX_EXACT_SIGNIFICAND) {
+            return slowValue();
+        } else if (exponent == 0) {
+            value = significand;
+        } else if (exponent < 0 && exponent >= -22) {
+            // Both operands are exact, so the single division is correctly rounded
+            value = significand / POWERS_OF_TEN[-exponent];
+        } else if (exponent > 0 && exponent <= 22) {
+            value = significand * POWERS_OF_TEN[exponent];
+        } else if (exponent > 22 && exponent <= 22 + 15) {
+            // Move the excess power into the significand while it stays exact, as in 123e30
+            double scaled = significand * POWERS_OF_TEN[exponent - 22];
+            if (scaled >= MAX_EXACT_SIGNIFICAND) {
+                return slowValue();
+            }
+            value = scaled * POWERS_OF_TEN[22];
+        } else {
+            return slowValue();
+        }
+        return negative ? -value : value;
+    }
+
+    private double slowValue() {
+        return Double.parseDouble(input.subSequence(start, end).toString());
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
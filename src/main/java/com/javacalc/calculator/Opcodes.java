@@ -0,0 +1,164 @@
+package com.javacalc.calculator;
+
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+
+/**
+ * Instruction set of {@link CompiledExpression} programs.
+ * Built-in operators have dedicated opcodes so that interpreters can dispatch them with a
+ * {@code switch}; only custom operators go through {@link #APPLY_OPERATOR}, whose operand
+ * indexes the program's dense operator table. Likewise built-in functions have dedicated
+ * opcodes that call {@link Math} directly, where the JIT substitutes its intrinsics, and
+ * custom functions go through the {@code CALL_*} opcode of their arity, whose operand indexes
+ * the program's function table.
+ */
+final class Opcodes {
+    /** Push {@code constants[operand]}. */
+    static final byte PUSH_CONSTANT = 0;
+    /** Push {@code variables[operand]}. */
+    static final byte LOAD_VARIABLE = 1;
+    /** Pop b and a, push {@code operators[operand].apply(a, b)}. */
+    static final byte APPLY_OPERATOR = 2;
+    static final byte ADD = 3;
+    static final byte SUBTRACT = 4;
+    static final byte MULTIPLY = 5;
+    static final byte DIVIDE = 6;
+    static final byte MODULO = 7;
+    static final byte POWER = 8;
+    /** Pop a, push a raised to the positive integer power {@code operand}, see {@link #integerPower}. */
+    static final byte INTEGER_POWER = 9;
+    /** Pop c, b and a, push {@code Math.fma(a, b, c)}. */
+    static final byte FUSED_MULTIPLY_ADD = 10;
+    /** Copy the top of the stack into {@code temporaries[operand]}, leaving it on the stack. */
+    static final byte STORE_TEMP = 11;
+    /** Push {@code temporaries[operand]}. */
+    static final byte LOAD_TEMP = 12;
+    /** Pop a, push {@code functions[operand].apply(a)}. */
+    static final byte CALL_UNARY = 13;
+    /** Pop b and a, push {@code functions[operand].apply(a, b)}. */
+    static final byte CALL_BINARY = 14;
+    /** Pop c, b and a, push {@code functions[operand].apply(a, b, c)}. */
+    static final byte CALL_TERNARY = 15;
+    static final byte SQRT = 16;
+    static final byte ABS = 17;
+    static final byte SIN = 18;
+    static final byte COS = 19;
+    static final byte LOG = 20;
+    static final byte MIN = 21;
+    static final byte MAX = 22;
+
+    private Opcodes() {
+    }
+
+    /**
+     * Gets the dedicated opcode of a built-in operator.
+     *
+     * @param operator the operator
+     * @return the operator's opcode, or {@link #APPLY_OPERATOR} for custom operators
+     */
+    static byte forOperator(Operator operator) {
+        if (operator == OperatorRegistry.ADDITION) {
+            return ADD;
+        } else if (operator == OperatorRegistry.SUBTRACTION) {
+            return SUBTRACT;
+        } else if (operator == OperatorRegistry.MULTIPLICATION) {
+            return MULTIPLY;
+        } else if (operator == OperatorRegistry.DIVISION) {
+            return DIVIDE;
+        } else if (operator == OperatorRegistry.MODULO) {
+            return MODULO;
+        } else if (operator == OperatorRegistry.POWER) {
+            return POWER;
+        }
+        return APPLY_OPERATOR;
+    }
+
+    /**
+     * Gets the dedicated opcode of a built-in function.
+     *
+     * @param function the function
+     * @return the function's opcode, or the {@code CALL_*} opcode of its arity for custom functions
+     */
+    static byte forFunction(Function function) {
+        if (function == OperatorRegistry.SQRT) {
+            return SQRT;
+        } else if (function == OperatorRegistry.ABS) {
+            return ABS;
+        } else if (function == OperatorRegistry.SIN) {
+            return SIN;
+        } else if (function == OperatorRegistry.COS) {
+            return COS;
+        } else if (function == OperatorRegistry.LOG) {
+            return LOG;
+        } else if (function == OperatorRegistry.MIN) {
+            return MIN;
+        } else if (function == OperatorRegistry.MAX) {
+            return MAX;
+        }
+        return switch (function.getArity()) {
+            case 1 -> CALL_UNARY;
+            case 2 -> CALL_BINARY;
+            default -> CALL_TERNARY;
+        };
+    }
+
+    /**
+     * Applies a function to the operands on top of a stack, replacing them with the result.
+     *
+     * @param opcode the function's opcode, from {@link #forFunction(Function)}
+     * @param function the function
+     * @param stack the operand stack, with at least the function's arity of operands
+     * @param top the number of operands on the stack
+     * @return the new number of operands
+     */
+    static int call(byte opcode, Function function, double[] stack, int top) {
+        switch (opcode) {
+            case SQRT -> stack[top - 1] = Math.sqrt(stack[top - 1]);
+            case ABS -> stack[top - 1] = Math.abs(stack[top - 1]);
+            case SIN -> stack[top - 1] = Math.sin(stack[top - 1]);
+            case COS -> stack[top - 1] = Math.cos(stack[top - 1]);
+            case LOG -> stack[top - 1] = Math.log(stack[top - 1]);
+            case CALL_UNARY -> stack[top - 1] = function.apply(stack[top - 1]);
+            case MIN -> {
+                top--;
+                stack[top - 1] = Math.min(stack[top - 1], stack[top]);
+            }
+            case MAX -> {
+                top--;
+                stack[top - 1] = Math.max(stack[top - 1], stack[top]);
+            }
+            case CALL_BINARY -> {
+                top--;
+                stack[top - 1] = function.apply(stack[top - 1], stack[top]);
+            }
+            default -> {
+                top -= 2;
+                stack[top - 1] = function.apply(stack[top - 1], stack[top], stack[top + 1]);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Raises a value to a positive integer power by repeated squaring.
+     * For an exponent of 2 this is exactly {@code base * base}, which is also what
+     * {@code Math.pow} computes; larger exponents round after each multiplication.
+     *
+     * @param base the base
+     * @param exponent the exponent, at least 1
+     * @return the power
+     */
+    static double integerPower(double base, int exponent) {
+        double result = base;
+        int bit = Integer.highestOneBit(exponent) >>> 1;
+        while (bit != 0) {
+            result *= result;
+            if ((exponent & bit) != 0) {
+                result *= base;
+            }
+            bit >>>= 1;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,155 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.InvalidVariableException;
+
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates a {@link CompiledExpression} over large inputs on a {@link ForkJoinPool}.
+ * The rows are split recursively into ranges, and every leaf range is evaluated with its own
+ * evaluation state and writes only its own slice of the output array, so workers never share
+ * mutable state or contend on the output.
+ * <p>
+ * Compiled expressions are immutable, which is what makes this safe; the calculator's own
+ * variables and interpreter are not involved.
+ */
+public class ParallelBatchEvaluator {
+    /**
+     * Default number of rows below which a range is evaluated on the current worker.
+     */
+    public static final int DEFAULT_SPLIT_THRESHOLD = 16 * BatchEvaluator.DEFAULT_CHUNK_SIZE;
+
+    private final ForkJoinPool pool;
+    private final int splitThreshold;
+
+    /**
+     * Creates a parallel evaluator that runs on the common pool.
+     */
+    public ParallelBatchEvaluator() {
+        this(ForkJoinPool.commonPool(), DEFAULT_SPLIT_THRESHOLD);
+    }
+
+    /**
+     * Creates a parallel evaluator.
+     *
+     * @param pool the pool to run on
+     * @param splitThreshold the number of rows below which a range is not split further
+     * @throws IllegalArgumentException if the split threshold is not positive
+     */
+    public ParallelBatchEvaluator(ForkJoinPool pool, int splitThreshold) {
+        if (splitThreshold < 1) {
+            throw new IllegalArgumentException("Split threshold must be positive");
+        }
+        this.pool = pool;
+        this.splitThreshold = splitThreshold;
+    }
+
+    /**
+     * Evaluates an expression for every row of the given columns.
+     *
+     * @param expression the expression to evaluate
+     * @param columns a column of values for every variable of the expression
+     * @param out receives one result per row; its length is the number of rows
+     * @throws InvalidVariableException if a column is missing or shorter than {@code out}
+     */
+    public void evaluate(CompiledExpression expression, Map<String, double[]> columns, double[] out) {
+        double[][] resolved = BatchEvaluator.resolveColumns(expression, columns, out.length);
+        pool.invoke(new ColumnTask(expression, resolved, out, 0, out.length));
+    }
+
+    /**
+     * Evaluates an expression for every row of bindings. Each row holds one value per
+     * variable, ordered by the indices reported by {@link CompiledExpression#indexOf(String)}.
+     *
+     * @param expression the expression to evaluate
+     * @param rows the variable values of each row
+     * @param out receives one result per row; must be at least as long as {@code rows}
+     * @throws InvalidVariableException if a row has fewer values than the expression has variables
+     * @throws IllegalArgumentException if {@code out} is shorter than {@code rows}
+     */
+    public void evaluate(CompiledExpression expression, double[][] rows, double[] out) {
+        if (out.length < rows.length) {
+            throw new IllegalArgumentException("Output has " + out.length + " rows, expected " + rows.length);
+        }
+        pool.invoke(new RowTask(expression, rows, out, 0, rows.length));
+    }
+
+    /**
+     * Gets the parallelism of the pool this evaluator runs on.
+     *
+     * @return the target number of worker threads
+     */
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    ForkJoinPool getPool() {
+        return pool;
+    }
+
+    private final class ColumnTask extends RecursiveAction {
+        private final CompiledExpression expression;
+        private final double[][] columns;
+        private final double[] out;
+        private final int from;
+        private final int to;
+
+        ColumnTask(CompiledExpression expression, double[][] columns, double[] out, int from, int to) {
+            this.expression = expression;
+            this.columns = columns;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= splitThreshold) {
+                new BatchEvaluator().evaluate(expression, columns, out, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ColumnTask(expression, columns, out, from, middle),
+                    new ColumnTask(expression, columns, out, middle, to));
+        }
+    }
+
+    private final class RowTask extends RecursiveAction {
+        private final CompiledExpression expression;
+        private final double[][] rows;
+        private final double[] out;
+        private final int from;
+        private final int to;
+
+        RowTask(CompiledExpression expression, double[][] rows, double[] out, int from, int to) {
+            this.expression = expression;
+            this.rows = rows;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= splitThreshold) {
+                VariableBindings bindings = expression.newBindings();
+                double[] values = bindings.values();
+                for (int i = from; i < to; i++) {
+                    double[] row = rows[i];
+                    if (row.length < values.length) {
+                        throw new InvalidVariableException("ERROR: Row " + i + " has " + row.length
+                                + " values, expected " + values.length);
+                    }
+                    System.arraycopy(row, 0, values, 0, values.length);
+                    out[i] = expression.evaluate(bindings);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RowTask(expression, rows, out, from, middle),
+                    new RowTask(expression, rows, out, middle, to));
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package com.javacalc.calculator;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes results as decimal text without regular expressions or intermediate strings.
+ * <p>
+ * By default a result is written with the fewest significant digits that read back as the same
+ * double, for example {@code 0.1}, {@code 0.30000000000000004} or {@code 42}; the digits are
+ * found with Giulietti's Schubfach algorithm, which needs one 128-bit multiplication per bound
+ * instead of the big-number arithmetic of {@link Double#toString(double)}. With a maximum
+ * number of fraction digits, the shortest digits are rounded half-up to that many places and
+ * trailing zeros are dropped, like {@code String.format("%.6f")} followed by trimming.
+ * <p>
+ * Results from 10<sup>-6</sup> up to 10<sup>21</sup> are written in plain notation and
+ * others in scientific notation such as {@code 1.5e-7}, which {@link NumberScanner} reads
+ * back. Negative zero is written as {@code 0}, and non-finite results as {@code NaN},
+ * {@code Infinity} and {@code -Infinity}.
+ * <p>
+ * A formatter writes through an internal buffer, so it is not thread-safe.
+ */
+public final class ResultFormatter {
+    /**
+     * Maximum number of characters written for one result.
+     */
+    public static final int MAX_LENGTH = 25;
+
+    // Results with a decimal point position outside this range use scientific notation
+    private static final int MIN_PLAIN_POSITION = -5;
+    private static final int MAX_PLAIN_POSITION = 21;
+
+    private static final int P = 53;
+    private static final int Q_MIN = -1074;
+    private static final long C_MIN = 1L << (P - 1);
+    private static final long C_TINY = 3;
+    private static final long SIGNIFICAND_MASK = C_MIN - 1;
+    private static final int EXPONENT_MASK = (1 << 11) - 1;
+    private static final long MASK_63 = Long.MAX_VALUE;
+
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    // For each k, the 126-bit g = floor(10^-k * 2^-r) + 1 with 2^125 <= g < 2^126, as 63-bit halves
+    private static final long[] G = powersOfTen();
+
+    private static final long[] LONG_POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L,
+            1_000_000_000L, 10_000_000_000L, 100_000_000_000L, 1_000_000_000_000L,
+            10_000_000_000_000L, 100_000_000_000_000L, 1_000_000_000_000_000L,
+            10_000_000_000_000_000L, 100_000_000_000_000_000L, 1_000_000_000_000_000_000L
+    };
+
+    private final int maximumFractionDigits;
+    private final byte[] buffer = new byte[MAX_LENGTH];
+    private final byte[] digits = new byte[19];
+
+    // The decimal found by toDecimal: significand * 10^exponent
+    private long significand;
+    private int exponent;
+
+    /**
+     * Creates a formatter that writes the shortest representation that reads back exactly.
+     */
+    public ResultFormatter() {
+        this.maximumFractionDigits = -1;
+    }
+
+    /**
+     * Creates a formatter that rounds results to a fixed number of decimal places.
+     *
+     * @param maximumFractionDigits the maximum number of digits after the decimal point
+     * @throws IllegalArgumentException if the number is negative
+     */
+    public ResultFormatter(int maximumFractionDigits) {
+        if (maximumFractionDigits < 0) {
+            throw new IllegalArgumentException("Fraction digits must not be negative");
+        }
+        this.maximumFractionDigits = maximumFractionDigits;
+    }
+
+    /**
+     * Formats a result as a string.
+     *
+     * @param value the result
+     * @return the decimal text
+     */
+    public String format(double value) {
+        return new String(buffer, 0, write(value), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Appends a result to a string builder.
+     *
+     * @param value the result
+     * @param out the builder to append to
+     * @return the builder
+     */
+    public StringBuilder format(double value, StringBuilder out) {
+        int length = write(value);
+        for (int i = 0; i < length; i++) {
+            out.append((char) buffer[i]);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a result as ASCII bytes.
+     *
+     * @param value the result
+     * @param out the destination, with room for {@link #MAX_LENGTH} bytes at the offset
+     * @param offset the offset to write at
+     * @return the offset just past the written bytes
+     */
+    public int format(double value, byte[] out, int offset) {
+        int length = write(value);
+        System.arraycopy(buffer, 0, out, offset, length);
+        return offset + length;
+    }
+
+    private int write(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        boolean negative = bits < 0;
+        int biasedExponent = (int) (bits >>> (P - 1)) & EXPONENT_MASK;
+        long fraction = bits & SIGNIFICAND_MASK;
+
+        if (biasedExponent == EXPONENT_MASK) {
+            return fraction != 0 ? ascii("NaN", 0) : ascii("Infinity", negative ? sign() : 0);
+        }
+        if (biasedExponent != 0) {
+            int mq = -Q_MIN + 1 - biasedExponent;
+            long c = C_MIN | fraction;
+            if (0 < mq && mq < P && (c >> mq) << mq == c) {
+                // An integer below 2^53 is its own shortest representation
+                significand = c >> mq;
+                exponent = 0;
+            } else {
+                toDecimal(-mq, c, 0);
+            }
+        } else if (fraction != 0) {
+            if (fraction < C_TINY) {
+                toDecimal(Q_MIN, 10 * fraction, -1);
+            } else {
+                toDecimal(Q_MIN, fraction, 0);
+            }
+        } else {
+            significand = 0;
+        }
+        return layout(negative);
+    }
+
+    /**
+     * Finds the shortest decimal in the rounding interval of c * 2^q, following Schubfach.
+     */
+    private void toDecimal(int q, long c, int dk) {
+        int out = (int) c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+        // The interval is asymmetric only at a power of two above the smallest normal
+        if (c != C_MIN || q == Q_MIN) {
+            cbl = cb - 2;
+            k = floorLog10Pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = floorLog10ThreeQuartersPow2(q);
+        }
+        int h = q + floorLog2Pow10(-k) + 2;
+        int index = (k - K_MIN) << 1;
+        long g1 = G[index];
+        long g0 = G[index + 1];
+        long vb = roundToOdd(g1, g0, cb << h);
+        long vbl = roundToOdd(g1, g0, cbl << h);
+        long vbr = roundToOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+        // Prefer one digit less when a multiple of ten lies in the interval; unlike
+        // Double.toString, which keeps at least two digits, this may leave a single digit
+        if (s >= 10) {
+            long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+            long tp10 = sp10 + 10;
+            boolean upin = vbl + out <= sp10 << 2;
+            boolean wpin = (tp10 << 2) + out <= vbr;
+            if (upin != wpin) {
+                significand = upin ? sp10 : tp10;
+                exponent = k + dk;
+                return;
+            }
+        }
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+        if (uin != win) {
+            significand = uin ? s : t;
+        } else {
+            // Both candidates are in the interval; take the closer one, or the even one on a tie
+            long cmp = vb - ((s + t) << 1);
+            significand = cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t;
+        }
+        exponent = k + dk;
+    }
+
+    private static long roundToOdd(long g1, long g0, long cp) {
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | ((z & MASK_63) + MASK_63) >>> 63;
+    }
+
+    /**
+     * Rounds the decimal to the fraction digits, if limited, and lays it out in the buffer.
+     */
+    private int layout(boolean negative) {
+        long f = significand;
+        int e = exponent;
+        if (f != 0) {
+            while (f % 10 == 0) {
+                f /= 10;
+                e++;
+            }
+            if (maximumFractionDigits >= 0 && -e > maximumFractionDigits) {
+                int drop = -e - maximumFractionDigits;
+                if (drop >= LONG_POWERS_OF_TEN.length) {
+                    f = 0;
+                } else {
+                    long divisor = LONG_POWERS_OF_TEN[drop];
+                    long quotient = f / divisor;
+                    f = (f - quotient * divisor) * 2 >= divisor ? quotient + 1 : quotient;
+                    e = -maximumFractionDigits;
+                    while (f != 0 && f % 10 == 0) {
+                        f /= 10;
+                        e++;
+                    }
+                }
+            }
+        }
+        if (f == 0) {
+            buffer[0] = '0';
+            return 1;
+        }
+
+        int n = 0;
+        for (long rest = f; rest != 0; rest /= 10) {
+            digits[n++] = (byte) ('0' + rest % 10);
+        }
+        // Digits are collected least significant first; digit(i) is the i-th most significant
+        int length = negative ? sign() : 0;
+        int position = n + e;
+
+        if (position > 0 && position <= MAX_PLAIN_POSITION) {
+            for (int i = 0; i < n; i++) {
+                if (i == position) {
+                    buffer[length++] = '.';
+                }
+                buffer[length++] = digits[n - 1 - i];
+            }
+            for (int i = n; i < position; i++) {
+                buffer[length++] = '0';
+            }
+        } else if (position <= 0 && position >= MIN_PLAIN_POSITION) {
+            buffer[length++] = '0';
+            buffer[length++] = '.';
+            for (int i = position; i < 0; i++) {
+                buffer[length++] = '0';
+            }
+            for (int i = 0; i < n; i++) {
+                buffer[length++] = digits[n - 1 - i];
+            }
+        } else {
+            buffer[length++] = digits[n - 1];
+            if (n > 1) {
+                buffer[length++] = '.';
+                for (int i = 1; i < n; i++) {
+                    buffer[length++] = digits[n - 1 - i];
+                }
+            }
+            buffer[length++] = 'e';
+            int scientific = position - 1;
+            if (scientific < 0) {
+                buffer[length++] = '-';
+                scientific = -scientific;
+            }
+            if (scientific >= 100) {
+                buffer[length++] = (byte) ('0' + scientific / 100);
+            }
+            if (scientific >= 10) {
+                buffer[length++] = (byte) ('0' + scientific / 10 % 10);
+            }
+            buffer[length++] = (byte) ('0' + scientific % 10);
+        }
+        return length;
+    }
+
+    private int sign() {
+        buffer[0] = '-';
+        return 1;
+    }
+
+    private int ascii(String text, int length) {
+        for (int i = 0; i < text.length(); i++) {
+            buffer[length++] = (byte) text.charAt(i);
+        }
+        return length;
+    }
+
+    private static int floorLog10Pow2(int e) {
+        return (int) (e * 661_971_961_083L >> 41);
+    }
+
+    private static int floorLog10ThreeQuartersPow2(int e) {
+        return (int) (e * 661_971_961_083L - 274_743_187_321L >> 41);
+    }
+
+    private static int floorLog2Pow10(int e) {
+        return (int) (e * 913_124_641_741L >> 38);
+    }
+
+    private static long[] powersOfTen() {
+        long[] g = new long[(K_MAX - K_MIN + 1) << 1];
+        for (int k = K_MIN; k <= K_MAX; k++) {
+            int e = -k;
+            int r = floorLog2Pow10(e) - 125;
+            // A negative shift is a floor division by a power of two
+            BigInteger beta = e >= 0
+                    ? BigInteger.TEN.pow(e).shiftLeft(-r)
+                    : BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(-e));
+            BigInteger value = beta.add(BigInteger.ONE);
+            int index = (k - K_MIN) << 1;
+            g[index] = value.shiftRight(63).longValue();
+            g[index + 1] = value.longValue() & MASK_63;
+        }
+        return g;
+    }
+}
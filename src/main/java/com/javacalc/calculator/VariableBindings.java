@@ -0,0 +1,114 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.variables.VariableSnapshot;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Variable values for evaluating a {@link CompiledExpression}.
+ * Values are stored by the variable index assigned at compile time, so binding
+ * by index is a plain array store. Bindings also carry the operand stack and temporaries
+ * used while evaluating, so they are mutable and not thread-safe; create one per thread
+ * from the shared expression.
+ */
+public final class VariableBindings {
+    private final CompiledExpression expression;
+    private final double[] values;
+    // Operand stack for evaluation, sized by the expression's maximum depth
+    private final double[] stack;
+    // Values of common subexpressions, computed once per evaluation
+    private final double[] temporaries;
+    // Snapshot slots of the variables, resolved by load; -1 until the name is first published
+    private int[] snapshotSlots;
+
+    VariableBindings(CompiledExpression expression) {
+        this.expression = expression;
+        this.values = new double[expression.getVariableCount()];
+        this.stack = new double[expression.getMaxStackDepth()];
+        this.temporaries = new double[expression.getTemporaryCount()];
+    }
+
+    /**
+     * Binds every variable to its value in a snapshot. Variables the snapshot does not
+     * define are bound to 0, and the snapshot is not modified. Snapshot slots are resolved
+     * by name on first use and remembered, because they stay valid in later snapshots.
+     *
+     * @param snapshot the variable values to bind
+     * @return these bindings, for chaining
+     */
+    public VariableBindings load(VariableSnapshot snapshot) {
+        int[] slots = snapshotSlots;
+        if (slots == null) {
+            slots = snapshotSlots = new int[values.length];
+            Arrays.fill(slots, -1);
+        }
+        List<String> names = null;
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] < 0) {
+                if (names == null) {
+                    names = expression.getVariableNames();
+                }
+                slots[i] = snapshot.slotOf(names.get(i));
+            }
+            values[i] = slots[i] < 0 ? 0.0 : snapshot.getValue(slots[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Sets a variable by name.
+     *
+     * @param name the variable name
+     * @param value the value to set
+     * @return these bindings, for chaining
+     * @throws InvalidVariableException if the expression does not use the variable
+     */
+    public VariableBindings set(String name, double value) {
+        int index = expression.indexOf(name);
+        if (index < 0) {
+            throw new InvalidVariableException("ERROR: Expression does not use variable '" + name + "'");
+        }
+        values[index] = value;
+        return this;
+    }
+
+    /**
+     * Sets a variable by the index reported by {@link CompiledExpression#indexOf(String)}.
+     *
+     * @param index the variable index
+     * @param value the value to set
+     * @return these bindings, for chaining
+     */
+    public VariableBindings set(int index, double value) {
+        values[index] = value;
+        return this;
+    }
+
+    /**
+     * Gets the value bound to a variable index.
+     *
+     * @param index the variable index
+     * @return the bound value
+     */
+    public double get(int index) {
+        return values[index];
+    }
+
+    CompiledExpression getExpression() {
+        return expression;
+    }
+
+    double[] values() {
+        return values;
+    }
+
+    double[] stack() {
+        return stack;
+    }
+
+    double[] temporaries() {
+        return temporaries;
+    }
+}
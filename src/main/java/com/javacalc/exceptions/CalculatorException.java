@@ -2,13 +2,47 @@ package com.javacalc.exceptions;
 
 /**
  * Base exception class for all calculator-related errors.
+ * <p>
+ * Calculator exceptions report invalid input rather than programming errors, and invalid input
+ * is routine in production traffic, so they do not capture a stack trace: filling one in is
+ * most of the cost of creating an exception. Use {@link #getErrorCode()} to tell errors apart.
  */
 public class CalculatorException extends RuntimeException {
+    private final ErrorCode errorCode;
+
     public CalculatorException(String message) {
-        super(message);
+        this(ErrorCode.OTHER, message);
     }
 
     public CalculatorException(String message, Throwable cause) {
-        super(message, cause);
+        super(message, cause, true, false);
+        this.errorCode = ErrorCode.OTHER;
+    }
+
+    public CalculatorException(ErrorCode errorCode, String message) {
+        super(message, null, true, false);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Creates an exception, optionally one to be preallocated and thrown from any thread.
+     *
+     * @param errorCode the kind of error
+     * @param message the message
+     * @param shared true to also disable suppression, so that nothing about the exception
+     *               can change after creation
+     */
+    protected CalculatorException(ErrorCode errorCode, String message, boolean shared) {
+        super(message, null, !shared, false);
+        this.errorCode = errorCode;
+    }
+
+    /**
+     * Gets the kind of this error.
+     *
+     * @return the error code
+     */
+    public ErrorCode getErrorCode() {
+        return errorCode;
     }
 }
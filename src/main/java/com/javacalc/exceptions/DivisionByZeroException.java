@@ -4,7 +4,20 @@ package com.javacalc.exceptions;
  * Exception thrown when division by zero is attempted.
  */
 public class DivisionByZeroException extends CalculatorException {
+    /** The message of every division by zero. */
+    public static final String MESSAGE = "ERROR: Division by zero is not allowed";
+
+    /**
+     * A preallocated instance, thrown by the built-in division and modulo so that a division
+     * by zero allocates nothing. It carries no stack trace and cannot be modified.
+     */
+    public static final DivisionByZeroException INSTANCE = new DivisionByZeroException(true);
+
     public DivisionByZeroException() {
-        super("ERROR: Division by zero is not allowed");
+        super(ErrorCode.DIVISION_BY_ZERO, MESSAGE);
+    }
+
+    private DivisionByZeroException(boolean shared) {
+        super(ErrorCode.DIVISION_BY_ZERO, MESSAGE, shared);
     }
 }
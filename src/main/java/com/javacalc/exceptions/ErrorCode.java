@@ -0,0 +1,26 @@
+package com.javacalc.exceptions;
+
+/**
+ * Identifies the kind of a calculator error, so that callers can handle errors without
+ * parsing messages and evaluation can report them without throwing.
+ */
+public enum ErrorCode {
+    /** A token that is not a number, variable, registered operator or function call. */
+    INVALID_TOKEN,
+    /** An operator or function without enough operands before it. */
+    INSUFFICIENT_OPERANDS,
+    /** Operands left over at the end of an expression. */
+    TOO_MANY_OPERANDS,
+    /** A parenthesis without its partner. */
+    MISMATCHED_PARENTHESES,
+    /** A function called with a different number of arguments than it takes. */
+    WRONG_ARGUMENT_COUNT,
+    /** Division or modulo by zero. */
+    DIVISION_BY_ZERO,
+    /** Any other malformed expression. */
+    INVALID_EXPRESSION,
+    /** An invalid variable name or binding. */
+    INVALID_VARIABLE,
+    /** Any other calculator error. */
+    OTHER
+}
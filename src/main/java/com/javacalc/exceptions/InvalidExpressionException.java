@@ -5,6 +5,10 @@ package com.javacalc.exceptions;
  */
 public class InvalidExpressionException extends CalculatorException {
     public InvalidExpressionException(String message) {
-        super(message);
+        super(ErrorCode.INVALID_EXPRESSION, message);
+    }
+
+    public InvalidExpressionException(ErrorCode errorCode, String message) {
+        super(errorCode, message);
     }
 }
@@ -5,6 +5,6 @@ package com.javacalc.exceptions;
  */
 public class InvalidVariableException extends CalculatorException {
     public InvalidVariableException(String message) {
-        super(message);
+        super(ErrorCode.INVALID_VARIABLE, message);
     }
 }
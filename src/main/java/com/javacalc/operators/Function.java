@@ -0,0 +1,140 @@
+package com.javacalc.operators;
+
+/**
+ * Represents a named mathematical function, such as {@code sqrt} or {@code max}, that takes a
+ * fixed number of arguments.
+ * <p>
+ * Functions are written {@code max(a, b)} in infix notation and {@code a b max} in postfix
+ * notation. The operation is one of the arity-specialized interfaces {@link Unary},
+ * {@link Binary} or {@link Ternary}, so a call passes its arguments as plain doubles and
+ * allocates nothing.
+ */
+public final class Function {
+    private final String name;
+    private final int arity;
+    private final Unary unary;
+    private final Binary binary;
+    private final Ternary ternary;
+
+    /**
+     * Functional interface for functions of one argument.
+     */
+    @FunctionalInterface
+    public interface Unary {
+        double apply(double a);
+    }
+
+    /**
+     * Functional interface for functions of two arguments.
+     */
+    @FunctionalInterface
+    public interface Binary {
+        double apply(double a, double b);
+    }
+
+    /**
+     * Functional interface for functions of three arguments.
+     */
+    @FunctionalInterface
+    public interface Ternary {
+        double apply(double a, double b, double c);
+    }
+
+    public Function(String name, Unary operation) {
+        this(name, 1, operation, null, null);
+    }
+
+    public Function(String name, Binary operation) {
+        this(name, 2, null, operation, null);
+    }
+
+    public Function(String name, Ternary operation) {
+        this(name, 3, null, null, operation);
+    }
+
+    private Function(String name, int arity, Unary unary, Binary binary, Ternary ternary) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid function name '" + name + "'");
+        }
+        this.name = name;
+        this.arity = arity;
+        this.unary = unary;
+        this.binary = binary;
+        this.ternary = ternary;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of arguments of this function.
+     *
+     * @return 1, 2 or 3
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * Applies a function of one argument.
+     *
+     * @param a the argument
+     * @return the result
+     * @throws NullPointerException if the function does not take one argument
+     */
+    public double apply(double a) {
+        return unary.apply(a);
+    }
+
+    /**
+     * Applies a function of two arguments.
+     *
+     * @param a the first argument
+     * @param b the second argument
+     * @return the result
+     * @throws NullPointerException if the function does not take two arguments
+     */
+    public double apply(double a, double b) {
+        return binary.apply(a, b);
+    }
+
+    /**
+     * Applies a function of three arguments.
+     *
+     * @param a the first argument
+     * @param b the second argument
+     * @param c the third argument
+     * @return the result
+     * @throws NullPointerException if the function does not take three arguments
+     */
+    public double apply(double a, double b, double c) {
+        return ternary.apply(a, b, c);
+    }
+
+    /**
+     * Checks whether a name can be read back as a single identifier token: a letter followed
+     * by letters and digits.
+     */
+    private static boolean isValidName(String name) {
+        if (name == null || name.isEmpty() || !isLetter(name.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!isLetter(c) && !(c >= '0' && c <= '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
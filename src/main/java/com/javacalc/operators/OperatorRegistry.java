@@ -3,52 +3,218 @@ package com.javacalc.operators;
 import com.javacalc.exceptions.DivisionByZeroException;
 import com.javacalc.exceptions.InvalidExpressionException;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
- * Registry for all supported operators with extensibility support.
+ * Registry for all supported operators and functions with extensibility support.
+ * ASCII symbols, which cover every practical operator, are looked up in a dense array
+ * indexed by the character; other symbols fall back to a map. Functions are few, so they
+ * are found by comparing names against the identifier in the input, without creating a
+ * string for it. A variable may share a function's name: in infix notation the name is a call
+ * only when {@code (} follows it, and in postfix notation a defined variable shadows the
+ * function.
+ * <p>
+ * A registry can be {@link #freeze() frozen}, after which it rejects registration and can be
+ * shared by any number of calculators and threads. {@link #defaults()} is a shared frozen
+ * registry of the built-in operators, so creating a calculator with it does not rebuild the
+ * operator table.
  */
 public class OperatorRegistry {
+    /** Addition, the built-in {@code '+'} operator. */
+    public static final Operator ADDITION = new Operator('+', 1, (a, b) -> a + b);
+
+    /** Subtraction, the built-in {@code '-'} operator. */
+    public static final Operator SUBTRACTION = new Operator('-', 1, (a, b) -> a - b);
+
+    /** Multiplication, the built-in {@code '*'} operator. */
+    public static final Operator MULTIPLICATION = new Operator('*', 2, (a, b) -> a * b);
+
+    /** Division, the built-in {@code '/'} operator. */
+    public static final Operator DIVISION = new Operator('/', 2, (a, b) -> {
+        if (b == 0.0) {
+            throw DivisionByZeroException.INSTANCE;
+        }
+        return a / b;
+    });
+
+    /** Power, the built-in {@code '^'} operator. */
+    public static final Operator POWER = new Operator('^', 3, Math::pow);
+
+    /** Modulo, the built-in {@code '%'} operator. */
+    public static final Operator MODULO = new Operator('%', 2, (a, b) -> {
+        if (b == 0.0) {
+            throw DivisionByZeroException.INSTANCE;
+        }
+        return a % b;
+    });
+
+    /** Square root, the built-in {@code sqrt} function. */
+    public static final Function SQRT = new Function("sqrt", Math::sqrt);
+
+    /** Absolute value, the built-in {@code abs} function. */
+    public static final Function ABS = new Function("abs", Math::abs);
+
+    /** Sine of an angle in radians, the built-in {@code sin} function. */
+    public static final Function SIN = new Function("sin", Math::sin);
+
+    /** Cosine of an angle in radians, the built-in {@code cos} function. */
+    public static final Function COS = new Function("cos", Math::cos);
+
+    /** Natural logarithm, the built-in {@code log} function. */
+    public static final Function LOG = new Function("log", Math::log);
+
+    /** Smaller of two values, the built-in {@code min} function. */
+    public static final Function MIN = new Function("min", Math::min);
+
+    /** Larger of two values, the built-in {@code max} function. */
+    public static final Function MAX = new Function("max", Math::max);
+
+    private static final int DENSE_SYMBOLS = 128;
+
+    private final Operator[] denseOperators;
     private final Map<Character, Operator> operators;
+    private Function[] functions;
+    private int functionCount;
+    private int version;
+    private volatile boolean frozen;
 
     public OperatorRegistry() {
+        this.denseOperators = new Operator[DENSE_SYMBOLS];
         this.operators = new HashMap<>();
+        this.functions = new Function[8];
         registerDefaultOperators();
+        registerDefaultFunctions();
+    }
+
+    /**
+     * Creates an unfrozen registry with the same operators as another registry,
+     * for example to extend the {@link #defaults() defaults} with a custom operator.
+     *
+     * @param base the registry to copy
+     */
+    public OperatorRegistry(OperatorRegistry base) {
+        this.denseOperators = base.denseOperators.clone();
+        this.operators = new HashMap<>(base.operators);
+        this.functions = base.functions.clone();
+        this.functionCount = base.functionCount;
+        this.version = base.version;
+    }
+
+    /**
+     * Gets the shared frozen registry of the built-in operators.
+     *
+     * @return the default registry
+     */
+    public static OperatorRegistry defaults() {
+        return Defaults.INSTANCE;
+    }
+
+    private static final class Defaults {
+        static final OperatorRegistry INSTANCE = new OperatorRegistry().freeze();
     }
 
     /**
      * Registers all default mathematical operators.
+     * The instances are shared constants so that compilers can recognise the built-ins
+     * by identity and emit native arithmetic for them.
      */
     private void registerDefaultOperators() {
         // Basic arithmetic operators
-        register(new Operator('+', 1, (a, b) -> a + b));
-        register(new Operator('-', 1, (a, b) -> a - b));
-        register(new Operator('*', 2, (a, b) -> a * b));
-        register(new Operator('/', 2, (a, b) -> {
-            if (b == 0.0) {
-                throw new DivisionByZeroException();
-            }
-            return a / b;
-        }));
+        register(ADDITION);
+        register(SUBTRACTION);
+        register(MULTIPLICATION);
+        register(DIVISION);
 
         // Additional operators
-        register(new Operator('^', 3, Math::pow));  // Power
-        register(new Operator('%', 2, (a, b) -> {    // Modulo
-            if (b == 0.0) {
-                throw new DivisionByZeroException();
-            }
-            return a % b;
-        }));
+        register(POWER);
+        register(MODULO);
+    }
+
+    /**
+     * Registers all default functions, as shared constants for the same reason as the operators.
+     */
+    private void registerDefaultFunctions() {
+        register(SQRT);
+        register(ABS);
+        register(SIN);
+        register(COS);
+        register(LOG);
+        register(MIN);
+        register(MAX);
     }
 
     /**
      * Registers a new operator.
      *
      * @param operator the operator to register
+     * @throws IllegalStateException if the registry is frozen
      */
     public void register(Operator operator) {
-        operators.put(operator.getSymbol(), operator);
+        if (frozen) {
+            throw new IllegalStateException("Operator registry is frozen");
+        }
+        char symbol = operator.getSymbol();
+        if (symbol < DENSE_SYMBOLS) {
+            denseOperators[symbol] = operator;
+        } else {
+            operators.put(symbol, operator);
+        }
+        version++;
+    }
+
+    /**
+     * Registers a new function, replacing any function with the same name.
+     *
+     * @param function the function to register
+     * @throws IllegalStateException if the registry is frozen
+     */
+    public void register(Function function) {
+        if (frozen) {
+            throw new IllegalStateException("Operator registry is frozen");
+        }
+        String name = function.getName();
+        int index = indexOfFunction(name, 0, name.length());
+        if (index < 0) {
+            if (functionCount == functions.length) {
+                functions = Arrays.copyOf(functions, functionCount * 2);
+            }
+            index = functionCount++;
+        }
+        functions[index] = function;
+        version++;
+    }
+
+    /**
+     * Makes this registry read-only. A frozen registry never changes, so it can be shared
+     * between threads once it has been safely published.
+     *
+     * @return this registry
+     */
+    public OperatorRegistry freeze() {
+        frozen = true;
+        return this;
+    }
+
+    /**
+     * Checks if this registry is frozen.
+     *
+     * @return true if operators can no longer be registered
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Gets the registry version, which changes whenever an operator or function is registered.
+     * Anything derived from the operators and functions, such as parsed or compiled expressions,
+     * is stale once the version changes.
+     *
+     * @return the current version
+     */
+    public int getVersion() {
+        return version;
     }
 
     /**
@@ -59,7 +225,7 @@ public class OperatorRegistry {
      * @throws InvalidExpressionException if the operator is not found
      */
     public Operator getOperator(char symbol) {
-        Operator op = operators.get(symbol);
+        Operator op = find(symbol);
         if (op == null) {
             throw new InvalidExpressionException("ERROR: Unknown operator '" + symbol + "'");
         }
@@ -73,16 +239,64 @@ public class OperatorRegistry {
      * @return true if it's a registered operator
      */
     public boolean isOperator(char symbol) {
-        return operators.containsKey(symbol);
+        return find(symbol) != null;
     }
 
     /**
      * Gets the precedence of an operator.
      *
      * @param symbol the operator symbol
-     * @return the precedence value
+     * @return the precedence value, or 0 if the symbol is not an operator
      */
     public int getPrecedence(char symbol) {
-        return operators.getOrDefault(symbol, new Operator(symbol, 0, (a, b) -> 0)).getPrecedence();
+        Operator op = find(symbol);
+        return op == null ? 0 : op.getPrecedence();
+    }
+
+    /**
+     * Finds the function named by a range of characters, such as an identifier token.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return the function, or null if no function has that name
+     */
+    public Function findFunction(CharSequence text, int start, int end) {
+        int index = indexOfFunction(text, start, end);
+        return index < 0 ? null : functions[index];
+    }
+
+    /**
+     * Checks if a name is a registered function.
+     *
+     * @param name the name to check
+     * @return true if it's a registered function
+     */
+    public boolean isFunction(CharSequence name) {
+        return indexOfFunction(name, 0, name.length()) >= 0;
+    }
+
+    private int indexOfFunction(CharSequence text, int start, int end) {
+        int length = end - start;
+        for (int i = 0; i < functionCount; i++) {
+            String name = functions[i].getName();
+            if (name.length() == length && matches(name, text, start)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(String name, CharSequence text, int start) {
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Operator find(char symbol) {
+        return symbol < DENSE_SYMBOLS ? denseOperators[symbol] : operators.get(symbol);
     }
 }
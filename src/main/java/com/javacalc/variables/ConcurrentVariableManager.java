@@ -0,0 +1,72 @@
+package com.javacalc.variables;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A set of variables shared between threads, for many readers and occasional writers.
+ * <p>
+ * Readers take the current {@link VariableSnapshot} and evaluate against it; snapshots are
+ * immutable, so reads never block and never observe a partially applied update. Writers
+ * apply a batch of changes to a copy of the current snapshot and publish the new version
+ * with a single atomic compare-and-set, retrying if another writer published first.
+ * A batch therefore costs one copy of the variable arrays however many variables it
+ * changes, which suits a refresh thread that updates many values at a time.
+ * <p>
+ * Unlike {@link VariableManager}, reading an undefined variable does not define it: nothing
+ * a reader does changes the shared state.
+ */
+public final class ConcurrentVariableManager {
+    private final AtomicReference<VariableSnapshot> current =
+            new AtomicReference<>(VariableSnapshot.empty());
+
+    /**
+     * Gets the latest published version of the variables.
+     *
+     * @return the current snapshot
+     */
+    public VariableSnapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Applies a batch of changes atomically and publishes them as a new version.
+     * If another writer publishes first, the batch is applied again to the newer version,
+     * so {@code changes} may run more than once and should only modify the builder.
+     *
+     * @param changes the changes to apply
+     * @return the published snapshot
+     */
+    public VariableSnapshot update(Consumer<VariableSnapshot.Builder> changes) {
+        while (true) {
+            VariableSnapshot base = current.get();
+            VariableSnapshot.Builder builder = base.toBuilder();
+            changes.accept(builder);
+            VariableSnapshot next = builder.build();
+            if (current.compareAndSet(base, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Sets a single variable and publishes the change as a new version.
+     * Use {@link #update(Consumer)} to change several variables at once.
+     *
+     * @param name the variable name
+     * @param value the value to set
+     * @return the published snapshot
+     */
+    public VariableSnapshot setVariable(String name, double value) {
+        return update(builder -> builder.set(name, value));
+    }
+
+    /**
+     * Removes all variables in a new version.
+     *
+     * @return the published snapshot
+     */
+    public VariableSnapshot clear() {
+        return update(VariableSnapshot.Builder::clear);
+    }
+}
@@ -0,0 +1,24 @@
+package com.javacalc.variables;
+
+/**
+ * A variable definition that is computed from other variables, such as {@code total = price * qty}.
+ * A {@link VariableManager} recomputes a formula variable only after one of its dependencies
+ * has changed.
+ */
+public interface Formula {
+    /**
+     * Gets the slots of the variables this formula reads.
+     *
+     * @return the dependency slots, as returned by {@link VariableManager#slotOf(String)}
+     */
+    int[] getDependencies();
+
+    /**
+     * Computes the formula's value. Dependencies are up to date when this is called,
+     * so implementations read them with {@link VariableManager#getValue(int)}.
+     *
+     * @param variables the manager holding the dependencies
+     * @return the value
+     */
+    double compute(VariableManager variables);
+}
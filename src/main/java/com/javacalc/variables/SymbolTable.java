@@ -0,0 +1,179 @@
+package com.javacalc.variables;
+
+import java.util.Arrays;
+
+/**
+ * Maps names to dense integer slots, assigned in order of first use.
+ * Names can be looked up directly from a region of any {@link CharSequence}, so a lexer
+ * can resolve an identifier to its slot without creating a substring; a {@link String}
+ * is only created the first time a name is interned. Slots are never reused or removed.
+ */
+public final class SymbolTable {
+    private String[] names;
+    private int[] hashes;
+    // Open-addressing table of slot + 1, 0 marks an empty bucket
+    private int[] buckets;
+    private int size;
+
+    public SymbolTable() {
+        this.names = new String[16];
+        this.hashes = new int[16];
+        this.buckets = new int[32];
+    }
+
+    /**
+     * Creates a table holding the same names in the same slots as another, which later
+     * interning in either table does not affect.
+     *
+     * @param other the table to copy
+     */
+    SymbolTable(SymbolTable other) {
+        this.names = other.names.clone();
+        this.hashes = other.hashes.clone();
+        this.buckets = other.buckets.clone();
+        this.size = other.size;
+    }
+
+    /**
+     * Finds the slot of a name.
+     *
+     * @param name the name
+     * @return the slot, or -1 if the name has not been interned
+     */
+    public int find(String name) {
+        return find(name, 0, name.length());
+    }
+
+    /**
+     * Finds the slot of the name held in a region of a character sequence.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return the slot, or -1 if the name has not been interned
+     */
+    public int find(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int mask = buckets.length - 1;
+        for (int bucket = spread(hash) & mask; ; bucket = (bucket + 1) & mask) {
+            int entry = buckets[bucket];
+            if (entry == 0) {
+                return -1;
+            }
+            int slot = entry - 1;
+            if (hashes[slot] == hash && regionEquals(names[slot], text, start, end)) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Gets the slot of a name, assigning the next free slot if it is new.
+     *
+     * @param name the name
+     * @return the slot
+     */
+    public int intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * Gets the slot of the name held in a region of a character sequence,
+     * assigning the next free slot if it is new.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return the slot
+     */
+    public int intern(CharSequence text, int start, int end) {
+        int slot = find(text, start, end);
+        if (slot >= 0) {
+            return slot;
+        }
+
+        slot = size++;
+        if (slot == names.length) {
+            names = Arrays.copyOf(names, slot * 2);
+            hashes = Arrays.copyOf(hashes, slot * 2);
+        }
+        names[slot] = text.subSequence(start, end).toString();
+        hashes[slot] = hash(text, start, end);
+
+        if (size * 2 > buckets.length) {
+            buckets = new int[buckets.length * 2];
+            for (int i = 0; i < size; i++) {
+                insert(i);
+            }
+        } else {
+            insert(slot);
+        }
+        return slot;
+    }
+
+    private void insert(int slot) {
+        int mask = buckets.length - 1;
+        int bucket = spread(hashes[slot]) & mask;
+        while (buckets[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        buckets[bucket] = slot + 1;
+    }
+
+    /**
+     * Gets the name assigned to a slot.
+     *
+     * @param slot the slot
+     * @return the name
+     */
+    public String nameOf(int slot) {
+        if (slot < 0 || slot >= size) {
+            throw new IndexOutOfBoundsException("No symbol in slot " + slot);
+        }
+        return names[slot];
+    }
+
+    /**
+     * Gets the number of interned names, which is also the next slot to be assigned.
+     *
+     * @return the number of names
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets all interned names in slot order.
+     *
+     * @return a copy of the names
+     */
+    public String[] toArray() {
+        return Arrays.copyOf(names, size);
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        // Same function as String.hashCode, computed over the region
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean regionEquals(String name, CharSequence text, int start, int end) {
+        int length = end - start;
+        if (name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) != text.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
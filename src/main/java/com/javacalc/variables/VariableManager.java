@@ -1,17 +1,63 @@
 package com.javacalc.variables;
 
+import com.javacalc.exceptions.InvalidVariableException;
+
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Manages variables and their values for calculator expressions.
  * Supports dynamic variable creation and retrieval.
+ * <p>
+ * Names are resolved to integer slots by a {@link SymbolTable} and values are stored in a
+ * primitive {@code double[]} indexed by slot. Evaluators resolve a name once and then read
+ * and write through the slot API, which is a plain array access. The name-based methods
+ * are kept on top of the slots for compatibility.
+ * <p>
+ * A variable can also be defined by a {@link Formula} over other variables. The manager keeps
+ * the dependency graph between slots: changing a variable marks only its transitive dependents
+ * dirty, and a dirty formula is recomputed, after its own dirty dependencies, when it is read
+ * or when {@link #recalculate()} is called. Updating one input therefore costs time in
+ * proportion to the variables it affects, not to the size of the model.
  */
 public class VariableManager {
-    private final Map<String, Double> variables;
+    private final SymbolTable symbols;
+    private double[] values;
+    private boolean[] defined;
+
+    // Formula variables; dependents[slot] lists the formula slots that read slot
+    private Formula[] formulas;
+    private boolean[] dirty;
+    private int[][] dependents;
+    private int[] dependentCounts;
+
+    // Slots marked dirty since the last recalculate(); some may since have been refreshed by a read
+    private int[] dirtySlots;
+    private int dirtyCount;
+    private boolean[] queued;
+
+    // Scratch space for graph walks, reused and grown as needed so that walks do not allocate
+    private int[] refreshStack;
+    private int[] refreshNext;
+    private boolean refreshing;
+    private int[] walkStack;
+    private boolean[] visited;
 
     public VariableManager() {
-        this.variables = new HashMap<>();
+        this.symbols = new SymbolTable();
+        this.values = new double[16];
+        this.defined = new boolean[16];
+        this.formulas = new Formula[16];
+        this.dirty = new boolean[16];
+        this.dependents = new int[16][];
+        this.dependentCounts = new int[16];
+        this.dirtySlots = new int[16];
+        this.queued = new boolean[16];
+        this.refreshStack = new int[8];
+        this.refreshNext = new int[8];
+        this.walkStack = new int[16];
+        this.visited = new boolean[16];
     }
 
     /**
@@ -21,7 +67,7 @@ public class VariableManager {
      * @param value the value to set
      */
     public void setVariable(String name, double value) {
-        variables.put(name, value);
+        setValue(slotOf(name), value);
     }
 
     /**
@@ -31,7 +77,8 @@ public class VariableManager {
      * @return the variable value, or 0.0 if not defined
      */
     public double getVariable(String name) {
-        return variables.getOrDefault(name, 0.0);
+        int slot = symbols.find(name);
+        return slot < 0 ? 0.0 : getValue(slot);
     }
 
     /**
@@ -41,7 +88,172 @@ public class VariableManager {
      * @return true if the variable exists
      */
     public boolean hasVariable(String name) {
-        return variables.containsKey(name);
+        int slot = symbols.find(name);
+        return slot >= 0 && defined[slot];
+    }
+
+    /**
+     * Checks if the variable named by a region of a character sequence is defined, without
+     * creating a substring or assigning a slot.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return true if the variable exists
+     */
+    public boolean hasVariable(CharSequence text, int start, int end) {
+        int slot = symbols.find(text, start, end);
+        return slot >= 0 && defined[slot];
+    }
+
+    /**
+     * Resolves a variable name to its slot, assigning a new slot if the name is new.
+     * Assigning a slot does not define the variable. Slots stay valid for the lifetime
+     * of this manager, including across {@link #clear()}.
+     *
+     * @param name the variable name
+     * @return the variable's slot
+     */
+    public int slotOf(String name) {
+        return slotOf(name, 0, name.length());
+    }
+
+    /**
+     * Resolves the variable name held in a region of a character sequence to its slot,
+     * without creating a substring for names that have been seen before.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return the variable's slot
+     */
+    public int slotOf(CharSequence text, int start, int end) {
+        int slot = symbols.intern(text, start, end);
+        if (slot >= values.length) {
+            int capacity = Math.max(values.length * 2, slot + 1);
+            values = Arrays.copyOf(values, capacity);
+            defined = Arrays.copyOf(defined, capacity);
+            formulas = Arrays.copyOf(formulas, capacity);
+            dirty = Arrays.copyOf(dirty, capacity);
+            dependents = Arrays.copyOf(dependents, capacity);
+            dependentCounts = Arrays.copyOf(dependentCounts, capacity);
+            queued = Arrays.copyOf(queued, capacity);
+            visited = Arrays.copyOf(visited, capacity);
+        }
+        return slot;
+    }
+
+    /**
+     * Gets the value in a slot, recomputing it first if it is a formula whose
+     * dependencies have changed.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @return the value, or 0.0 if the variable is not defined
+     */
+    public double getValue(int slot) {
+        if (dirty[slot]) {
+            refresh(slot);
+        }
+        return values[slot];
+    }
+
+    /**
+     * Sets and defines the variable in a slot. A formula previously defining the
+     * variable is replaced by the plain value.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @param value the value to set
+     */
+    public void setValue(int slot, double value) {
+        if (formulas[slot] != null) {
+            unlink(slot);
+            formulas[slot] = null;
+            dirty[slot] = false;
+        }
+        values[slot] = value;
+        defined[slot] = true;
+        markDependentsDirty(slot);
+    }
+
+    /**
+     * Defines the variable in a slot by a formula. The formula is computed lazily,
+     * the first time the variable is read.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @param formula the formula
+     * @throws InvalidVariableException if the formula depends on the variable, directly
+     *                                  or through other formulas
+     */
+    public void setFormula(int slot, Formula formula) {
+        int[] dependencies = formula.getDependencies();
+        for (int dependency : dependencies) {
+            if (dependency == slot) {
+                throw circularReference(slot);
+            }
+        }
+        if (isReachable(slot, dependencies)) {
+            throw circularReference(slot);
+        }
+
+        if (formulas[slot] != null) {
+            unlink(slot);
+        }
+        formulas[slot] = formula;
+        for (int dependency : dependencies) {
+            addDependent(dependency, slot);
+        }
+        defined[slot] = true;
+        if (!dirty[slot]) {
+            markDirty(slot);
+        }
+        markDependentsDirty(slot);
+    }
+
+    /**
+     * Checks if the variable in a slot is defined by a formula.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @return true if the variable is a formula
+     */
+    public boolean isFormula(int slot) {
+        return formulas[slot] != null;
+    }
+
+    /**
+     * Recomputes every formula whose dependencies have changed, in dependency order.
+     * Only the formulas marked dirty since the last call are visited.
+     */
+    public void recalculate() {
+        for (int i = 0; i < dirtyCount; i++) {
+            int slot = dirtySlots[i];
+            if (dirty[slot]) {
+                refresh(slot);
+            }
+        }
+        for (int i = 0; i < dirtyCount; i++) {
+            queued[dirtySlots[i]] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * Checks if the variable in a slot is defined.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     * @return true if the variable is defined
+     */
+    public boolean isDefined(int slot) {
+        return defined[slot];
+    }
+
+    /**
+     * Defines the variable in a slot with the value 0 if it is not defined yet,
+     * which is how evaluators treat variables that are used before assignment.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)}
+     */
+    public void ensureDefined(int slot) {
+        defined[slot] = true;
     }
 
     /**
@@ -51,15 +263,37 @@ public class VariableManager {
      * @param token the token to check
      * @return true if the token is a valid variable name
      */
-    public static boolean isValidVariableName(String token) {
-        return token.matches("[a-zA-Z][a-zA-Z0-9]*");
+    public static boolean isValidVariableName(CharSequence token) {
+        int length = token.length();
+        if (length == 0 || !isLetter(token.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < length; i++) {
+            char c = token.charAt(i);
+            if (!isLetter(c) && !(c >= '0' && c <= '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
     /**
-     * Clears all variables.
+     * Clears all variables and formulas.
+     * Slots remain assigned, so previously resolved slots read as undefined zeros.
      */
     public void clear() {
-        variables.clear();
+        Arrays.fill(values, 0.0);
+        Arrays.fill(defined, false);
+        Arrays.fill(formulas, null);
+        Arrays.fill(dirty, false);
+        Arrays.fill(dependents, null);
+        Arrays.fill(dependentCounts, 0);
+        Arrays.fill(queued, false);
+        dirtyCount = 0;
     }
 
     /**
@@ -68,6 +302,197 @@ public class VariableManager {
      * @return a copy of all variables
      */
     public Map<String, Double> getAllVariables() {
-        return new HashMap<>(variables);
+        Map<String, Double> result = new HashMap<>();
+        for (int slot = 0; slot < symbols.size(); slot++) {
+            if (defined[slot]) {
+                result.put(symbols.nameOf(slot), getValue(slot));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Recomputes a dirty formula after its dirty dependencies, walking the dependencies with
+     * an explicit stack so that long formula chains cannot overflow the call stack.
+     * If a formula fails, it and its dependents stay dirty and are retried on the next read.
+     */
+    private void refresh(int slot) {
+        if (refreshing) {
+            // A formula read a dirty variable it does not declare; walk it with its own stack
+            refresh(slot, new int[8], new int[8], false);
+            return;
+        }
+        refreshing = true;
+        try {
+            refresh(slot, refreshStack, refreshNext, true);
+        } finally {
+            refreshing = false;
+        }
+    }
+
+    private void refresh(int slot, int[] stack, int[] next, boolean shared) {
+        int top = 0;
+        stack[0] = slot;
+        next[0] = 0;
+
+        while (top >= 0) {
+            int current = stack[top];
+            int[] dependencies = formulas[current].getDependencies();
+            if (next[top] < dependencies.length) {
+                int dependency = dependencies[next[top]++];
+                if (dirty[dependency]) {
+                    if (++top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        next = Arrays.copyOf(next, top * 2);
+                        if (shared) {
+                            refreshStack = stack;
+                            refreshNext = next;
+                        }
+                    }
+                    stack[top] = dependency;
+                    next[top] = 0;
+                }
+                continue;
+            }
+
+            if (dirty[current]) {
+                values[current] = formulas[current].compute(this);
+                dirty[current] = false;
+            }
+            top--;
+        }
+    }
+
+    /**
+     * Marks a formula slot dirty and queues it for {@link #recalculate()}. When the queue is
+     * full, entries already refreshed by reads are dropped before it grows, so it never holds
+     * more than one entry per slot.
+     */
+    private void markDirty(int slot) {
+        dirty[slot] = true;
+        if (queued[slot]) {
+            return;
+        }
+        if (dirtyCount == dirtySlots.length) {
+            int count = 0;
+            for (int i = 0; i < dirtyCount; i++) {
+                int queuedSlot = dirtySlots[i];
+                if (dirty[queuedSlot]) {
+                    dirtySlots[count++] = queuedSlot;
+                } else {
+                    queued[queuedSlot] = false;
+                }
+            }
+            dirtyCount = count;
+            if (count == dirtySlots.length) {
+                dirtySlots = Arrays.copyOf(dirtySlots, count * 2);
+            }
+        }
+        queued[slot] = true;
+        dirtySlots[dirtyCount++] = slot;
+    }
+
+    /**
+     * Marks the transitive dependents of a slot dirty. A dirty formula's dependents are
+     * already dirty, so the walk stops there and only visits affected variables.
+     */
+    private void markDependentsDirty(int slot) {
+        int[] stack = walkStack;
+        int top = 0;
+        stack[top++] = slot;
+        while (top > 0) {
+            int current = stack[--top];
+            int[] list = dependents[current];
+            for (int i = 0; i < dependentCounts[current]; i++) {
+                int dependent = list[i];
+                if (!dirty[dependent]) {
+                    markDirty(dependent);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                        walkStack = stack;
+                    }
+                    stack[top++] = dependent;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether any of the given slots reads {@code slot}, directly or through other
+     * formulas, by walking the dependents of {@code slot}. A new formula at the end of a
+     * chain has no dependents, so building a model one formula at a time stays linear.
+     */
+    private boolean isReachable(int slot, int[] targets) {
+        if (dependentCounts[slot] == 0) {
+            return false;
+        }
+        // Breadth-first, so that the visited slots are exactly walkStack[0, count) afterwards
+        boolean[] visited = this.visited;
+        int[] queue = walkStack;
+        int count = 0;
+        queue[count++] = slot;
+        visited[slot] = true;
+        for (int head = 0; head < count; head++) {
+            int current = queue[head];
+            int[] list = dependents[current];
+            for (int i = 0; i < dependentCounts[current]; i++) {
+                int dependent = list[i];
+                if (!visited[dependent]) {
+                    visited[dependent] = true;
+                    if (count == queue.length) {
+                        queue = Arrays.copyOf(queue, count * 2);
+                        walkStack = queue;
+                    }
+                    queue[count++] = dependent;
+                }
+            }
+        }
+
+        boolean reachable = false;
+        for (int target : targets) {
+            if (visited[target]) {
+                reachable = true;
+                break;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            visited[queue[i]] = false;
+        }
+        return reachable;
+    }
+
+    private InvalidVariableException circularReference(int slot) {
+        return new InvalidVariableException("ERROR: Circular reference in formula for '"
+                + symbols.nameOf(slot) + "'");
+    }
+
+    private void addDependent(int slot, int dependent) {
+        int[] list = dependents[slot];
+        int count = dependentCounts[slot];
+        if (list == null) {
+            list = new int[2];
+        } else if (count == list.length) {
+            list = Arrays.copyOf(list, count * 2);
+        }
+        list[count] = dependent;
+        dependents[slot] = list;
+        dependentCounts[slot] = count + 1;
+    }
+
+    /**
+     * Removes a formula slot from the dependent lists of its dependencies.
+     */
+    private void unlink(int formulaSlot) {
+        for (int dependency : formulas[formulaSlot].getDependencies()) {
+            int[] list = dependents[dependency];
+            int count = dependentCounts[dependency];
+            for (int i = 0; i < count; i++) {
+                if (list[i] == formulaSlot) {
+                    list[i] = list[count - 1];
+                    dependentCounts[dependency] = count - 1;
+                    break;
+                }
+            }
+        }
     }
 }
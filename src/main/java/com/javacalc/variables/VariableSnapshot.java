@@ -0,0 +1,242 @@
+package com.javacalc.variables;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An immutable version of a set of variables, published by a {@link ConcurrentVariableManager}.
+ * A snapshot never changes after it is published, so any number of threads can read it
+ * without locking, and an evaluation that reads several variables from one snapshot always
+ * sees a consistent set of values.
+ * <p>
+ * As in {@link VariableManager}, names are resolved to integer slots by a {@link SymbolTable}
+ * and values are stored in a {@code double[]} indexed by slot, so a name can be looked up from
+ * a region of the expression text without creating a substring. Slots are assigned in order of
+ * first use and are carried over to every later version, so a slot resolved against one
+ * snapshot stays valid for all snapshots that follow it.
+ */
+public final class VariableSnapshot {
+    private static final VariableSnapshot EMPTY =
+            new VariableSnapshot(0, new SymbolTable(), new double[0], new boolean[0]);
+
+    private final long version;
+    // Never interned into once published; a builder adding a name works on a copy
+    private final SymbolTable symbols;
+    private final double[] values;
+    private final boolean[] defined;
+
+    private VariableSnapshot(long version, SymbolTable symbols, double[] values, boolean[] defined) {
+        this.version = version;
+        this.symbols = symbols;
+        this.values = values;
+        this.defined = defined;
+    }
+
+    /**
+     * Gets the snapshot with no variables, version 0.
+     *
+     * @return the empty snapshot
+     */
+    public static VariableSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets the version of this snapshot. Every published update increments the version.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the value of a variable.
+     *
+     * @param name the variable name
+     * @return the variable value, or 0.0 if not defined
+     */
+    public double getVariable(String name) {
+        int slot = symbols.find(name);
+        return slot < 0 ? 0.0 : values[slot];
+    }
+
+    /**
+     * Checks if a variable is defined.
+     *
+     * @param name the variable name
+     * @return true if the variable exists
+     */
+    public boolean hasVariable(String name) {
+        return hasVariable(name, 0, name.length());
+    }
+
+    /**
+     * Checks if the variable named by a region of a character sequence is defined, without
+     * creating a substring.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return true if the variable exists
+     */
+    public boolean hasVariable(CharSequence text, int start, int end) {
+        int slot = symbols.find(text, start, end);
+        return slot >= 0 && defined[slot];
+    }
+
+    /**
+     * Finds the slot of a variable.
+     *
+     * @param name the variable name
+     * @return the slot, or -1 if no version up to this one has used the name
+     */
+    public int slotOf(String name) {
+        return symbols.find(name);
+    }
+
+    /**
+     * Finds the slot of the variable named by a region of a character sequence, without
+     * creating a substring.
+     *
+     * @param text the text containing the name
+     * @param start the offset of the first character of the name
+     * @param end the offset just past the last character of the name
+     * @return the slot, or -1 if no version up to this one has used the name
+     */
+    public int slotOf(CharSequence text, int start, int end) {
+        return symbols.find(text, start, end);
+    }
+
+    /**
+     * Gets the value in a slot.
+     *
+     * @param slot a slot returned by {@link #slotOf(String)} on any snapshot of the same manager
+     * @return the value, or 0.0 if the variable is not defined in this snapshot
+     */
+    public double getValue(int slot) {
+        return slot < values.length ? values[slot] : 0.0;
+    }
+
+    /**
+     * Gets all defined variables as a map.
+     *
+     * @return a copy of all variables
+     */
+    public Map<String, Double> getAllVariables() {
+        Map<String, Double> result = new HashMap<>();
+        for (int slot = 0; slot < values.length; slot++) {
+            if (defined[slot]) {
+                result.put(symbols.nameOf(slot), values[slot]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Starts a batch of changes that will become the next version of this snapshot.
+     *
+     * @return a builder initialized with this snapshot's variables
+     */
+    Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Collects a batch of variable changes. The arrays of the base snapshot are copied once,
+     * when the builder is created, and handed to the new snapshot unless new names made them
+     * grow; the symbol table is copied only when a new name is added.
+     * A builder is confined to the thread applying the update, and cannot be changed after it.
+     */
+    public static final class Builder {
+        private final VariableSnapshot base;
+        private SymbolTable symbols;
+        private boolean symbolsCopied;
+        private double[] values;
+        private boolean[] defined;
+        private int size;
+        private boolean built;
+
+        private Builder(VariableSnapshot base) {
+            this.base = base;
+            this.symbols = base.symbols;
+            this.size = base.values.length;
+            this.values = base.values.clone();
+            this.defined = base.defined.clone();
+        }
+
+        /**
+         * Sets a variable to a specific value.
+         *
+         * @param name the variable name
+         * @param value the value to set
+         * @return this builder, for chaining
+         * @throws IllegalStateException if the update this builder collected has been published
+         */
+        public Builder set(String name, double value) {
+            checkNotBuilt();
+            int slot = slotOf(name);
+            values[slot] = value;
+            defined[slot] = true;
+            return this;
+        }
+
+        /**
+         * Gets the value of a variable, including changes made earlier in this batch.
+         *
+         * @param name the variable name
+         * @return the variable value, or 0.0 if not defined
+         */
+        public double get(String name) {
+            int slot = symbols.find(name);
+            return slot < 0 ? 0.0 : values[slot];
+        }
+
+        /**
+         * Removes all variables. Slots remain assigned.
+         *
+         * @return this builder, for chaining
+         * @throws IllegalStateException if the update this builder collected has been published
+         */
+        public Builder clear() {
+            checkNotBuilt();
+            Arrays.fill(values, 0.0);
+            Arrays.fill(defined, false);
+            return this;
+        }
+
+        private void checkNotBuilt() {
+            if (built) {
+                throw new IllegalStateException("Snapshot builder used after its update was published");
+            }
+        }
+
+        private int slotOf(String name) {
+            int existing = symbols.find(name);
+            if (existing >= 0) {
+                return existing;
+            }
+            if (!symbolsCopied) {
+                symbols = new SymbolTable(symbols);
+                symbolsCopied = true;
+            }
+            int slot = symbols.intern(name);
+            size = slot + 1;
+            if (slot == values.length) {
+                int capacity = Math.max(16, slot * 2);
+                values = Arrays.copyOf(values, capacity);
+                defined = Arrays.copyOf(defined, capacity);
+            }
+            return slot;
+        }
+
+        VariableSnapshot build() {
+            // The builder cannot change once built, so arrays of the exact size are published as is
+            built = true;
+            double[] publishedValues = values.length == size ? values : Arrays.copyOf(values, size);
+            boolean[] publishedDefined = defined.length == size ? defined : Arrays.copyOf(defined, size);
+            return new VariableSnapshot(base.version + 1, symbols, publishedValues, publishedDefined);
+        }
+    }
+}
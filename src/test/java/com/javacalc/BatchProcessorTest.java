@@ -0,0 +1,139 @@
+package com.javacalc;
+
+import com.javacalc.calculator.Calculator;
+import com.javacalc.exceptions.DivisionByZeroException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchProcessorTest {
+    @TempDir
+    Path directory;
+
+    private List<String> run(BatchProcessor processor, String input) throws IOException {
+        Path in = directory.resolve("in.txt");
+        Path out = directory.resolve("out.txt");
+        Files.writeString(in, input, StandardCharsets.UTF_8);
+        long lines = processor.process(in, out);
+        List<String> output = Files.readAllLines(out, StandardCharsets.UTF_8);
+        assertEquals(output.size(), lines);
+        return output;
+    }
+
+    @Test
+    void testEvaluatesEachLine() throws IOException {
+        List<String> output = run(new BatchProcessor(new Calculator()), "3 4 +\n2 0.5 *\n1 3 /\n");
+        assertEquals(List.of("7", "1", "0.3333333333333333"), output);
+    }
+
+    @Test
+    void testCommandsAndVariables() throws IOException {
+        String input = String.join("\n",
+                "INFIX",
+                "x = 5 + 3",
+                "total := x * 2",
+                "x = 1",
+                "total + 1",
+                "",
+                "post",
+                "x 10 *") + "\n";
+        List<String> output = run(new BatchProcessor(new Calculator()), input);
+        assertEquals(List.of("", "x = 8", "total := 16", "x = 1", "3", "", "", "10"), output);
+    }
+
+    @Test
+    void testErrorsDoNotStopTheBatch() throws IOException {
+        List<String> output = run(new BatchProcessor(new Calculator()), "1 0 /\n1 +\n1 \u00e9\n2 2 +");
+        assertEquals(List.of(DivisionByZeroException.MESSAGE, "ERROR: Insufficient operands for operator '+'",
+                "ERROR: Invalid token '\u00e9'", "4"), output);
+    }
+
+    @Test
+    void testTrimsWhitespaceAndCarriageReturns() throws IOException {
+        List<String> output = run(new BatchProcessor(new Calculator()), "  1 2 +\t\r\n\r\n3 3 *\r\n");
+        assertEquals(List.of("3", "", "9"), output);
+    }
+
+    @Test
+    void testLinesSpanningRegions() throws IOException {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            input.append(i).append(' ').append(i % 7).append(" +\n");
+            expected.append(i + i % 7).append('\n');
+        }
+        List<String> output = run(new BatchProcessor(new Calculator(), 64), input.toString());
+        assertEquals(List.of(expected.toString().split("\n")), output);
+    }
+
+    @Test
+    void testLineLongerThanRegion() {
+        BatchProcessor processor = new BatchProcessor(new Calculator(), 8);
+        assertThrows(IOException.class, () -> run(processor, "1 2 3 4 5 + + + +\n"));
+    }
+
+    @Test
+    void testEmptyFile() throws IOException {
+        assertEquals(List.of(), run(new BatchProcessor(new Calculator()), ""));
+    }
+
+    private static List<String> runStream(BatchProcessor processor, String input) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long lines = processor.process(
+                Channels.newChannel(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8))),
+                Channels.newChannel(out));
+        List<String> output = out.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(output.size(), lines);
+        return output;
+    }
+
+    @Test
+    void testProcessesStreams() throws IOException {
+        List<String> output = runStream(new BatchProcessor(new Calculator()), "INFIX\nx = 2\nx ^ 10\n1 / 0");
+        assertEquals(List.of("", "x = 2", "1024", DivisionByZeroException.MESSAGE), output);
+    }
+
+    @Test
+    void testStreamBufferGrowsForLongLines() throws IOException {
+        String longLine = "1" + " 1 +".repeat(1000);
+        List<String> output = runStream(new BatchProcessor(new Calculator(), 16), "2 3 *\n" + longLine + "\n4\n");
+        assertEquals(List.of("6", "1001", "4"), output);
+    }
+
+    @Test
+    void testParallelOutputKeepsInputOrder() throws IOException {
+        StringBuilder input = new StringBuilder("INFIX\n");
+        for (int i = 0; i < 20_000; i++) {
+            if (i % 5_000 == 0) {
+                input.append("k = ").append(i).append('\n');
+            }
+            input.append("k + ").append(i).append(i % 1_000 == 0 ? " / 0" : "").append('\n');
+        }
+
+        List<String> expected = runStream(new BatchProcessor(new Calculator()), input.toString());
+        List<String> parallel = runStream(new BatchProcessor(Calculator::new, 4), input.toString());
+        assertEquals(expected, parallel);
+
+        Path in = directory.resolve("in.txt");
+        Path out = directory.resolve("out.txt");
+        Files.writeString(in, input);
+        new BatchProcessor(Calculator::new, 3).process(in, out);
+        assertEquals(expected, Files.readAllLines(out));
+        assertEquals("10001", expected.get(5_004));
+    }
+
+    @Test
+    void testInvalidParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchProcessor(Calculator::new, 0));
+    }
+}
@@ -0,0 +1,150 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchEvaluatorTest {
+    private static final int ROWS = 2500;
+
+    private Calculator calculator;
+
+    @BeforeEach
+    void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "x + y * 2",
+            "(x - y) / (y + 3)",
+            "2 * x - 3 / y + x * y",
+            "x ^ 2 % 7 + y",
+            "3 - x",
+            "10 / y",
+            "x",
+            "(2 + 3) * 4",
+            "sqrt(abs(x)) + max(x, y) - min(2, y)",
+            "sin(x) * cos(2) + log(abs(y) + 1)"
+    })
+    void testMatchesRowByRowEvaluation(String source) {
+        CompiledExpression expression = calculator.compile(source);
+        Map<String, double[]> columns = randomColumns(expression.getVariableNames());
+
+        double[] out = new double[ROWS];
+        calculator.evaluateBatch(expression, columns, out);
+
+        VariableBindings bindings = expression.newBindings();
+        for (int row = 0; row < ROWS; row++) {
+            for (String name : expression.getVariableNames()) {
+                bindings.set(name, columns.get(name)[row]);
+            }
+            assertEquals(expression.evaluate(bindings), out[row], "row " + row);
+        }
+    }
+
+    @Test
+    void testCustomOperator() {
+        calculator.setMode(Calculator.Mode.POSTFIX);
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 2 + b));
+        CompiledExpression expression = calculator.compile("x 1 @ 3 x @ @");
+
+        double[] x = {1, 2, 3};
+        double[] out = new double[3];
+        calculator.evaluateBatch(expression, Map.of("x", x), out);
+
+        assertArrayEquals(new double[]{13, 18, 23}, out);
+    }
+
+    @Test
+    void testSmallChunkSize() {
+        CompiledExpression expression = calculator.compile("x * y - x / 4");
+        Map<String, double[]> columns = randomColumns(expression.getVariableNames());
+
+        double[] expected = new double[ROWS];
+        double[] actual = new double[ROWS];
+        new BatchEvaluator().evaluate(expression, columns, expected);
+        new BatchEvaluator(7).evaluate(expression, columns, actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testLongerColumnsEvaluateOnlyOutputRows() {
+        CompiledExpression expression = calculator.compile("x + 1");
+        double[] out = new double[2];
+        calculator.evaluateBatch(expression, Map.of("x", new double[]{1, 2, 3}), out);
+        assertArrayEquals(new double[]{2, 3}, out);
+    }
+
+    @Test
+    void testMissingColumn() {
+        CompiledExpression expression = calculator.compile("x + y");
+        Map<String, double[]> columns = Map.of("x", new double[4]);
+        assertThrows(InvalidVariableException.class,
+                () -> calculator.evaluateBatch(expression, columns, new double[4]));
+    }
+
+    @Test
+    void testShortColumn() {
+        CompiledExpression expression = calculator.compile("x + y");
+        Map<String, double[]> columns = Map.of("x", new double[4], "y", new double[3]);
+        assertThrows(InvalidVariableException.class,
+                () -> calculator.evaluateBatch(expression, columns, new double[4]));
+    }
+
+    @Test
+    void testDivisionByZero() {
+        CompiledExpression expression = calculator.compile("x / y");
+        Map<String, double[]> columns = Map.of("x", new double[]{1, 2, 3}, "y", new double[]{1, 0, 1});
+        assertThrows(DivisionByZeroException.class,
+                () -> calculator.evaluateBatch(expression, columns, new double[3]));
+    }
+
+    @Test
+    void testInvalidChunkSize() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchEvaluator(0));
+    }
+
+    private static Map<String, double[]> randomColumns(List<String> names) {
+        Random random = new Random(42);
+        Map<String, double[]> columns = new HashMap<>();
+        for (String name : names) {
+            double[] column = new double[ROWS];
+            for (int i = 0; i < ROWS; i++) {
+                // Keep values away from zero so division is always defined
+                column[i] = 0.5 + random.nextDouble() * 100;
+            }
+            columns.put(name, column);
+        }
+        return columns;
+    }
+
+    @Test
+    void testCustomFunctions() {
+        calculator.getOperatorRegistry().register(new Function("twice", x -> 2 * x));
+        calculator.getOperatorRegistry().register(new Function("hypot", Math::hypot));
+        calculator.getOperatorRegistry().register(
+                new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high))));
+        CompiledExpression expression = calculator.compile("clamp(twice(x), 0, 5) + hypot(3, 4) + hypot(x, 0)");
+
+        double[] x = {-1, 2, 4};
+        double[] out = new double[3];
+        calculator.evaluateBatch(expression, Map.of("x", x), out);
+
+        assertArrayEquals(new double[]{6, 11, 14}, out);
+    }
+}
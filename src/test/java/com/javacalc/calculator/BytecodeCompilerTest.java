@@ -0,0 +1,99 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BytecodeCompilerTest {
+    private Calculator calculator;
+    private BytecodeCompiler bytecodeCompiler;
+
+    @BeforeEach
+    void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        bytecodeCompiler = new BytecodeCompiler();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {
+            "2 + 3 * 4",
+            "(2 + 3) * 4 - 1",
+            "x * y + x / y",
+            "x ^ 3 - y % 4",
+            "0 * x + 1 * y",
+            "1.5 * (x - 2.25) / (y + 0.5)",
+            "sqrt(x) + max(x, y) * abs(2 - y)",
+            "sin(x) * cos(y) - log(x) + min(x, y)"
+    })
+    void testMatchesInterpreter(String source) {
+        CompiledExpression expression = calculator.compile(source);
+        VariableBindings bindings = expression.newBindings();
+        double[] vars = new double[expression.getVariableNames().size()];
+        for (int i = 0; i < vars.length; i++) {
+            vars[i] = 3.5 + i;
+            bindings.set(i, vars[i]);
+        }
+
+        BytecodeExpression generated = bytecodeCompiler.compile(expression);
+        assertEquals(expression.evaluate(bindings), generated.eval(vars));
+    }
+
+    @Test
+    void testCustomOperator() {
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 2 + b));
+        calculator.setMode(Calculator.Mode.POSTFIX);
+        CompiledExpression expression = calculator.compile("x 3 @ 1 +");
+        BytecodeExpression generated = bytecodeCompiler.compile(expression);
+        assertEquals(14.0, generated.eval(new double[] {5}));
+    }
+
+    @Test
+    void testDivisionByZero() {
+        BytecodeExpression generated = bytecodeCompiler.compile(calculator.compile("1 / x"));
+        assertThrows(DivisionByZeroException.class, () -> generated.eval(new double[] {0}));
+    }
+
+    @Test
+    void testModuloByZero() {
+        BytecodeExpression generated = bytecodeCompiler.compile(calculator.compile("1 % x"));
+        assertThrows(DivisionByZeroException.class, () -> generated.eval(new double[] {-0.0}));
+    }
+
+    @Test
+    void testManyVariables() {
+        StringBuilder source = new StringBuilder("v0");
+        double[] vars = new double[300];
+        vars[0] = 0;
+        for (int i = 1; i < vars.length; i++) {
+            source.append(" + v").append(i);
+            vars[i] = i;
+        }
+        BytecodeExpression generated = bytecodeCompiler.compile(calculator.compile(source.toString()));
+        assertEquals(299.0 * 300.0 / 2.0, generated.eval(vars));
+    }
+
+    @Test
+    void testNegativeZeroConstant() {
+        BytecodeExpression generated = bytecodeCompiler.compile(new Calculator().compile("-0.0 1 *"));
+        assertEquals(-0.0, generated.eval(new double[0]));
+    }
+
+    @Test
+    void testCustomFunctions() {
+        calculator.getOperatorRegistry().register(new Function("twice", x -> 2 * x));
+        calculator.getOperatorRegistry().register(new Function("hypot", Math::hypot));
+        calculator.getOperatorRegistry().register(
+                new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high))));
+        CompiledExpression expression = calculator.compile("clamp(twice(x), 0, hypot(x, 4)) + twice(1 + x)");
+        BytecodeExpression generated = bytecodeCompiler.compile(expression);
+        assertEquals(13.0, generated.eval(new double[] {3}));
+        assertEquals(expression.evaluate(expression.newBindings().set("x", -2)), generated.eval(new double[] {-2}));
+    }
+}
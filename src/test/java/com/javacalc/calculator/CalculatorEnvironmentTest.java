@@ -0,0 +1,265 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CalculatorEnvironmentTest {
+    private CalculatorEnvironment environment;
+
+    @BeforeEach
+    void setUp() {
+        environment = new CalculatorEnvironment();
+    }
+
+    @Test
+    void testSessionEvaluation() {
+        CalculatorSession session = environment.newSession();
+        assertEquals(Calculator.Mode.POSTFIX, session.getMode());
+        assertEquals(7.0, session.evaluate("3 4 +"));
+
+        session.setMode(Calculator.Mode.INFIX);
+        assertEquals(14.0, session.evaluate("2 * (3 + 4)"));
+    }
+
+    @Test
+    void testSessionsHaveIsolatedVariables() {
+        CalculatorSession first = environment.newSession();
+        CalculatorSession second = environment.newSession();
+        first.assignVariable("x = 2");
+        second.assignVariable("x = 10");
+
+        assertEquals(4.0, first.evaluate("x x +"));
+        assertEquals(20.0, second.evaluate("x x +"));
+    }
+
+    @Test
+    void testExpressionsCompiledOncePerEnvironment() {
+        CalculatorSession first = environment.newSession();
+        CalculatorSession second = environment.newSession();
+        first.evaluate("x 1 +");
+        second.evaluate("x 1 +");
+
+        assertEquals(1, environment.getCachedExpressionCount());
+        assertSame(environment.compile("x 1 +", Calculator.Mode.POSTFIX),
+                environment.compile("x 1 +", Calculator.Mode.POSTFIX));
+    }
+
+    @Test
+    void testModesCachedSeparately() {
+        environment.compile("2", Calculator.Mode.POSTFIX);
+        environment.compile("2", Calculator.Mode.INFIX);
+        assertEquals(2, environment.getCachedExpressionCount());
+    }
+
+    @Test
+    void testUndefinedVariablesReadAsZero() {
+        CalculatorSession session = environment.newSession();
+        assertEquals(5.0, session.evaluate("y 5 +"));
+        assertTrue(session.getVariableManager().hasVariable("y"));
+    }
+
+    @Test
+    void testEvaluationBeyondCacheBound() {
+        CalculatorEnvironment small = new CalculatorEnvironment(OperatorRegistry.defaults(), 1, 0);
+        CalculatorSession session = small.newSession();
+        session.assignVariable("x = 3");
+        assertEquals(4.0, session.evaluate("x 1 +"));
+        assertEquals(6.0, session.evaluate("x 2 *"));
+        assertEquals(6.0, session.evaluate("x 2 *"));
+        assertEquals(1, small.getCachedExpressionCount());
+    }
+
+    @Test
+    void testCacheEvictsLeastRecentlyUsed() {
+        CalculatorEnvironment small = new CalculatorEnvironment(OperatorRegistry.defaults(), 2, 0);
+        CompiledExpression first = small.compile("1 1 +", Calculator.Mode.POSTFIX);
+        small.compile("2 2 +", Calculator.Mode.POSTFIX);
+        assertSame(first, small.compile("1 1 +", Calculator.Mode.POSTFIX));
+        small.compile("3 3 +", Calculator.Mode.POSTFIX);
+
+        assertEquals(2, small.getCachedExpressionCount());
+        assertSame(first, small.compile("1 1 +", Calculator.Mode.POSTFIX));
+        assertNotSame(small.compile("2 2 +", Calculator.Mode.POSTFIX),
+                small.compile("2 2 +", Calculator.Mode.INFIX));
+    }
+
+    @Test
+    void testPromotedAfterCompileThreshold() {
+        environment.setCompileThreshold(3);
+        CalculatorSession first = environment.newSession();
+        CalculatorSession second = environment.newSession();
+        first.assignVariable("x = 2");
+        second.assignVariable("x = 5");
+
+        // Evaluations from every session count towards the threshold
+        assertEquals(4.0, first.evaluate("x x *"));
+        assertEquals(25.0, second.evaluate("x x *"));
+        CalculatorEnvironment.Program program = environment.lookup("x x *", Calculator.Mode.POSTFIX);
+        assertNull(program.code);
+        assertEquals(4.0, first.evaluate("x x *"));
+        assertNotNull(program.code);
+        assertEquals(25.0, second.evaluate("x x *"));
+        assertThrows(IllegalArgumentException.class, () -> environment.setCompileThreshold(0));
+    }
+
+    @Test
+    void testPromotedAfterThresholdIsLowered() {
+        environment.setCompileThreshold(10);
+        CalculatorSession session = environment.newSession();
+        for (int i = 0; i < 5; i++) {
+            session.evaluate("2 3 +");
+        }
+        CalculatorEnvironment.Program program = environment.lookup("2 3 +", Calculator.Mode.POSTFIX);
+        assertNull(program.code);
+
+        // The count has already passed the new threshold
+        environment.setCompileThreshold(3);
+        assertEquals(5.0, session.evaluate("2 3 +"));
+        assertNotNull(program.code);
+    }
+
+    @Test
+    void testInterpretedEvaluationsSeeVariableUpdates() {
+        CalculatorSession session = environment.newSession();
+        for (int x = 0; x < 5; x++) {
+            session.assignVariable("x = " + x);
+            assertEquals(x + 1.0, session.evaluate("x 1 +"));
+        }
+        assertNull(environment.lookup("x 1 +", Calculator.Mode.POSTFIX).code);
+
+        session.reset();
+        assertEquals(1.0, session.evaluate("x 1 +"));
+    }
+
+    @Test
+    void testTooLargeForBytecodeStaysInterpreted() {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 2; i <= 20_000; i++) {
+            expression.append(" + x*").append(i).append("/y");
+        }
+        environment.setCompileThreshold(1);
+        CalculatorSession session = environment.newSession();
+        session.setMode(Calculator.Mode.INFIX);
+        session.assignVariable("x = 1");
+        session.assignVariable("y = 2");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1 + (20_000.0 * 20_001 / 2 - 1) / 2, session.evaluate(expression.toString()), 1e-6);
+        }
+        CalculatorEnvironment.Program program = environment.lookup(expression.toString(), Calculator.Mode.INFIX);
+        assertNull(program.code);
+        assertTrue(program.uncompilable);
+    }
+
+    @Test
+    void testSessionVariablesShadowFunctions() {
+        CalculatorSession shadowing = environment.newSession();
+        CalculatorSession plain = environment.newSession();
+        shadowing.assignVariable("max = 10");
+
+        assertEquals(20.0, shadowing.evaluate("max 2 *"));
+        assertEquals(2.0, plain.evaluate("1 2 max"));
+        assertThrows(InvalidExpressionException.class, () -> shadowing.evaluate("1 2 max"));
+        shadowing.setMode(Calculator.Mode.INFIX);
+        assertEquals(10.0, shadowing.evaluate("max(1, max)"));
+    }
+
+    @Test
+    void testErrors() {
+        CalculatorSession session = environment.newSession();
+        assertThrows(InvalidExpressionException.class, () -> session.evaluate("2 +"));
+        assertThrows(InvalidExpressionException.class, () -> session.assignVariable("1x = 2"));
+        assertThrows(DivisionByZeroException.class, () -> session.evaluate("1 0 /"));
+        // Only the valid expression is cached
+        assertEquals(1, environment.getCachedExpressionCount());
+    }
+
+    @Test
+    void testPooledSessionsAreReset() {
+        CalculatorSession session = environment.acquireSession();
+        session.setMode(Calculator.Mode.INFIX);
+        session.assignVariable("x = 5");
+        environment.releaseSession(session);
+        assertEquals(1, environment.getIdleSessionCount());
+
+        CalculatorSession reused = environment.acquireSession();
+        assertSame(session, reused);
+        assertEquals(0, environment.getIdleSessionCount());
+        assertEquals(Calculator.Mode.POSTFIX, reused.getMode());
+        assertFalse(reused.getVariableManager().hasVariable("x"));
+        assertEquals(1.0, reused.evaluate("x 1 +"));
+    }
+
+    @Test
+    void testPoolIsBounded() {
+        CalculatorEnvironment small = new CalculatorEnvironment(OperatorRegistry.defaults(), 10, 1);
+        small.releaseSession(small.newSession());
+        small.releaseSession(small.newSession());
+        assertEquals(1, small.getIdleSessionCount());
+    }
+
+    @Test
+    void testReleaseForeignSession() {
+        CalculatorSession foreign = new CalculatorEnvironment().newSession();
+        assertThrows(IllegalArgumentException.class, () -> environment.releaseSession(foreign));
+    }
+
+    @Test
+    void testRegistryIsFrozenSnapshot() {
+        OperatorRegistry registry = new OperatorRegistry(OperatorRegistry.defaults());
+        registry.register(new Operator('&', 2, (a, b) -> a + 2 * b));
+        CalculatorEnvironment custom = new CalculatorEnvironment(registry, 10, 1);
+
+        // The caller's registry stays mutable, and later changes do not reach the environment
+        assertFalse(registry.isFrozen());
+        registry.register(new Operator('&', 2, (a, b) -> a - b));
+        assertEquals(7.0, custom.newSession().evaluate("1 3 &"));
+        assertTrue(custom.getOperatorRegistry().isFrozen());
+        assertThrows(IllegalStateException.class,
+                () -> custom.getOperatorRegistry().register(new Operator('|', 1, Math::max)));
+    }
+
+    @Test
+    void testFrozenRegistryIsShared() {
+        assertSame(OperatorRegistry.defaults(), environment.getOperatorRegistry());
+    }
+
+    @Test
+    void testConcurrentSessions() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Double>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                double value = i;
+                results.add(executor.submit(() -> {
+                    CalculatorSession session = environment.acquireSession();
+                    try {
+                        session.setMode(Calculator.Mode.INFIX);
+                        session.getVariableManager().setVariable("x", value);
+                        return session.evaluate("x * x + 1");
+                    } finally {
+                        environment.releaseSession(session);
+                    }
+                }));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(i * i + 1.0, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, environment.getCachedExpressionCount());
+    }
+}
@@ -1,7 +1,11 @@
 package com.javacalc.calculator;
 
 import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.ErrorCode;
 import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.OperatorRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -37,6 +41,27 @@ class CalculatorTest {
         assertEquals(7.0, calculator.evaluate("3 + 4"));
     }
 
+    @Test
+    void testExponentLiterals() {
+        assertEquals(2e-9, calculator.evaluate("1e-9 2 *"));
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertEquals(2500.5, calculator.evaluate("2.5E3 + 5e-1"));
+    }
+
+    @Test
+    void testTryEvaluateUncached() {
+        EvaluationResult result = new EvaluationResult();
+        assertTrue(calculator.tryEvaluateUncached(new StringBuilder("3 4 +"), result));
+        assertEquals(7.0, result.getValue());
+
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertTrue(calculator.tryEvaluateUncached("2 * (3 + 4)", result));
+        assertEquals(14.0, result.getValue());
+        assertFalse(calculator.tryEvaluateUncached("(1 + 2", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertEquals(0, calculator.getExpressionCache().size());
+    }
+
     @Test
     void testInfixWithParentheses() {
         calculator.setMode(Calculator.Mode.INFIX);
@@ -128,4 +153,245 @@ class CalculatorTest {
         calculator.assignVariable("x1 = 5");
         assertEquals(57.0, calculator.evaluate("result + myVar + x1"));
     }
+
+    @Test
+    void testExpressionPromotedAfterThreshold() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.setCompileThreshold(3);
+
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(14.0, calculator.evaluate("2 + 3 * 4"));
+            ExpressionProfile profile = calculator.getExpressionProfiles().get(0);
+            assertEquals(i, profile.getInvocationCount());
+            assertEquals(i >= 3, profile.isPromoted());
+        }
+
+        ExpressionProfile profile = calculator.getPromotedExpressions().get(0);
+        assertEquals("2 + 3 * 4", profile.getExpression());
+        assertEquals(Calculator.Mode.INFIX, profile.getMode());
+        assertEquals(3, profile.getPromotionInvocation());
+        assertNotNull(profile.getPromotedAt());
+    }
+
+    @Test
+    void testColdExpressionsStayInterpreted() {
+        calculator.setCompileThreshold(2);
+        calculator.evaluate("1 2 +");
+        calculator.evaluate("3 4 +");
+        assertEquals(2, calculator.getExpressionProfiles().size());
+        assertTrue(calculator.getPromotedExpressions().isEmpty());
+    }
+
+    @Test
+    void testCacheWeightCountsParsedPostfix() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.setCompileThreshold(100);
+        calculator.evaluate("x+1");
+        long estimated = calculator.getExpressionCache().getWeight();
+
+        // The second call parses, and the marked postfix is longer than the expression
+        calculator.evaluate("x+1");
+        assertTrue(calculator.getExpressionCache().getWeight() > estimated);
+    }
+
+    @Test
+    void testPromotedExpressionSeesVariableUpdates() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.setCompileThreshold(1);
+        calculator.assignVariable("x = 2");
+        assertEquals(5.0, calculator.evaluate("x + 3"));
+        calculator.assignVariable("x = 10");
+        assertEquals(13.0, calculator.evaluate("x + 3"));
+    }
+
+    @Test
+    void testPromotedExpressionInitializesUndefinedVariables() {
+        calculator.setCompileThreshold(1);
+        assertEquals(5.0, calculator.evaluate("5 y +"));
+        assertTrue(calculator.getVariableManager().hasVariable("y"));
+    }
+
+    @Test
+    void testPromotedDivisionByZero() {
+        calculator.setCompileThreshold(1);
+        assertThrows(DivisionByZeroException.class, () -> calculator.evaluate("10 0 /"));
+    }
+
+    @Test
+    void testModesProfiledSeparately() {
+        calculator.evaluate("2");
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.evaluate("2");
+        assertEquals(2, calculator.getExpressionProfiles().size());
+    }
+
+    @Test
+    void testInvalidCompileThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> calculator.setCompileThreshold(0));
+    }
+
+    @Test
+    void testFormulaTracksDependencies() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.assignVariable("price = 2");
+        calculator.assignVariable("qty = 3");
+        assertEquals(6.0, calculator.defineFormula("total := price * qty"));
+
+        calculator.assignVariable("price = 4");
+        assertEquals(12.0, calculator.getVariableManager().getVariable("total"));
+        assertEquals(13.0, calculator.evaluate("total + 1"));
+    }
+
+    @Test
+    void testPostfixFormula() {
+        calculator.assignVariable("x = 2");
+        assertEquals(4.0, calculator.defineFormula("y := x x *"));
+        calculator.assignVariable("x = 5");
+        assertEquals(25.0, calculator.getVariableManager().getVariable("y"));
+    }
+
+    @Test
+    void testCircularFormula() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.defineFormula("a := b + 1");
+        assertThrows(InvalidVariableException.class, () -> calculator.defineFormula("b := a * 2"));
+    }
+
+    @Test
+    void testInvalidFormula() {
+        assertThrows(InvalidExpressionException.class, () -> calculator.defineFormula("1x := 2"));
+        assertThrows(InvalidExpressionException.class, () -> calculator.defineFormula("x := "));
+    }
+
+    @Test
+    void testSharedOperatorRegistry() {
+        Calculator first = new Calculator(OperatorRegistry.defaults());
+        Calculator second = new Calculator(OperatorRegistry.defaults());
+        first.assignVariable("x = 2");
+
+        assertSame(first.getOperatorRegistry(), second.getOperatorRegistry());
+        assertEquals(4.0, first.evaluate("x 2 *"));
+        assertEquals(0.0, second.evaluate("x 2 *"));
+    }
+
+    @Test
+    void testTryEvaluate() {
+        EvaluationResult result = new EvaluationResult();
+        assertTrue(calculator.tryEvaluate("3 4 +", result));
+        assertTrue(result.isSuccess());
+        assertEquals(7.0, result.getValue());
+        assertNull(result.getError());
+        assertNull(result.getMessage());
+    }
+
+    @Test
+    void testTryEvaluateReportsErrors() {
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(calculator.tryEvaluate("3 +", result));
+        assertEquals(ErrorCode.INSUFFICIENT_OPERANDS, result.getError());
+        assertEquals("ERROR: Insufficient operands for operator '+'", result.getMessage());
+        assertTrue(Double.isNaN(result.getValue()));
+
+        assertFalse(calculator.tryEvaluate("1 0 /", result));
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, result.getError());
+
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertFalse(calculator.tryEvaluate("(1 + 2", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertFalse(calculator.tryEvaluate("2 & 3", result));
+        assertEquals(ErrorCode.INVALID_TOKEN, result.getError());
+        assertEquals("ERROR: Invalid token '&'", result.getMessage());
+
+        assertTrue(calculator.tryEvaluate("2 * 3", result));
+        assertEquals(6.0, result.getValue());
+    }
+
+    @Test
+    void testTryEvaluateCompiled() {
+        calculator.setCompileThreshold(1);
+        EvaluationResult result = new EvaluationResult();
+        calculator.assignVariable("x = 0");
+        assertFalse(calculator.tryEvaluate("1 x /", result));
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, result.getError());
+        assertFalse(calculator.tryEvaluate("1 2", result));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, result.getError());
+    }
+
+    @Test
+    void testThrowingApiMatchesResult() {
+        InvalidExpressionException e = assertThrows(InvalidExpressionException.class,
+                () -> calculator.evaluate("1 2"));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, e.getErrorCode());
+        assertEquals("ERROR: Invalid expression - too many operands", e.getMessage());
+    }
+
+    @Test
+    void testExceptionsAreStackless() {
+        InvalidExpressionException e = assertThrows(InvalidExpressionException.class,
+                () -> calculator.evaluate("2 &"));
+        assertEquals(0, e.getStackTrace().length);
+        assertSame(DivisionByZeroException.INSTANCE,
+                assertThrows(DivisionByZeroException.class, () -> calculator.evaluate("1 0 /")));
+    }
+
+    @Test
+    void testFunctions() {
+        calculator.assignVariable("x = 16");
+        assertEquals(9.0, calculator.evaluate("x sqrt 5 max 4 +"));
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertEquals(9.0, calculator.evaluate("max(sqrt(x), 5) + 4"));
+        // Every tier, from the single-pass evaluator to generated bytecode, calls the same functions
+        calculator.setCompileThreshold(2);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1.0, calculator.evaluate("abs(sin(x)) ^ 2 + cos(x) ^ 2 + log(min(x, 1))"), 1e-15);
+        }
+    }
+
+    @Test
+    void testFunctionNamesAsVariables() {
+        // Variables named before the functions existed keep working
+        assertEquals(10.0, calculator.assignVariable("max = 10"));
+        assertEquals(20.0, calculator.evaluate("max 2 *"));
+        assertEquals(3.0, calculator.defineFormula("sqrt := 1 2 +"));
+        calculator.getOperatorRegistry().register(new Function("twice", x -> 2 * x));
+        assertEquals(4.0, calculator.assignVariable("twice = 4"));
+        assertEquals(8.0, calculator.evaluate("twice 2 *"));
+
+        // In infix notation, a call is still a call
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertEquals(20.0, calculator.evaluate("max * 2"));
+        assertEquals(30.0, calculator.evaluate("max(max, 30)"));
+        assertEquals(10.0, calculator.evaluate("twice(5)"));
+    }
+
+    @Test
+    void testCompiledCodeFollowsShadowing() {
+        calculator.setCompileThreshold(2);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(2.0, calculator.evaluate("1 2 max"));
+        }
+        // Once a variable shadows the function, the compiled program is stale and recompiled
+        calculator.getVariableManager().setVariable("max", 10);
+        assertThrows(InvalidExpressionException.class, () -> calculator.evaluate("1 2 max"));
+        assertEquals(11.0, calculator.evaluate("1 max +"));
+        assertEquals(11.0, calculator.evaluate("1 max +"));
+        calculator.getVariableManager().clear();
+        assertEquals(2.0, calculator.evaluate("1 2 max"));
+        assertThrows(InvalidExpressionException.class, () -> calculator.evaluate("1 max +"));
+
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.assignVariable("sin = 2");
+        for (int i = 0; i < 3; i++) {
+            assertEquals(Math.sin(2) + 2, calculator.evaluate("sin(sin) + sin"));
+        }
+    }
+
+    @Test
+    void testFormulaWithFunctions() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.assignVariable("a = 3");
+        assertEquals(3.0, calculator.defineFormula("longest := max(a, b)"));
+        calculator.assignVariable("b = 7");
+        assertEquals(7.0, calculator.getVariableManager().getVariable("longest"));
+    }
 }
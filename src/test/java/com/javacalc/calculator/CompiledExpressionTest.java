@@ -0,0 +1,162 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.exceptions.InvalidVariableException;
+import com.javacalc.operators.Operator;
+import com.javacalc.variables.ConcurrentVariableManager;
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompiledExpressionTest {
+    private Calculator calculator;
+
+    @BeforeEach
+    void setUp() {
+        calculator = new Calculator();
+    }
+
+    @Test
+    void testCompilePostfix() {
+        CompiledExpression expression = calculator.compile("2 3 + 4 *");
+        assertEquals(20.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testCompileInfix() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        CompiledExpression expression = calculator.compile("2 * (3 + 4) ^ 2");
+        assertEquals(98.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testEvaluateWithDifferentBindings() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        CompiledExpression expression = calculator.compile("x * y + x");
+        VariableBindings bindings = expression.newBindings();
+
+        assertEquals(0.0, expression.evaluate(bindings));
+        assertEquals(8.0, expression.evaluate(bindings.set("x", 2).set("y", 3)));
+        assertEquals(16.0, expression.evaluate(bindings.set("x", 4)));
+    }
+
+    @Test
+    void testVariableIndices() {
+        CompiledExpression expression = calculator.compile("a b a + *");
+        assertEquals(List.of("a", "b"), expression.getVariableNames());
+        assertEquals(0, expression.indexOf("a"));
+        assertEquals(1, expression.indexOf("b"));
+        assertEquals(-1, expression.indexOf("c"));
+
+        VariableBindings bindings = expression.newBindings().set(0, 2).set(1, 5);
+        assertEquals(14.0, expression.evaluate(bindings));
+    }
+
+    @Test
+    void testUnknownVariableBinding() {
+        CompiledExpression expression = calculator.compile("x 1 +");
+        assertThrows(InvalidVariableException.class, () -> expression.newBindings().set("y", 1));
+    }
+
+    @Test
+    void testBindingsFromOtherExpression() {
+        CompiledExpression first = calculator.compile("x 1 +");
+        CompiledExpression second = calculator.compile("x 2 +");
+        assertThrows(InvalidVariableException.class, () -> second.evaluate(first.newBindings()));
+    }
+
+    @Test
+    void testDoesNotTouchCalculatorVariables() {
+        CompiledExpression expression = calculator.compile("x 1 +");
+        expression.evaluate(expression.newBindings());
+        assertFalse(calculator.getVariableManager().hasVariable("x"));
+    }
+
+    @Test
+    void testCustomOperator() {
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 2 + b));
+        CompiledExpression expression = calculator.compile("x 3 @ 1 +");
+        assertEquals(14.0, expression.evaluate(expression.newBindings().set("x", 5)));
+    }
+
+    @Test
+    void testOverriddenBuiltinOperator() {
+        calculator.getOperatorRegistry().register(new Operator('+', 1, (a, b) -> a + b + 1));
+        CompiledExpression expression = calculator.compile("1 2 +");
+        assertEquals(4.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testAllBuiltinOperators() {
+        CompiledExpression expression = calculator.compile("7 2 % 3 ^ 1.5 * 4 / 2 - 1 +");
+        assertEquals(-0.625, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testDivisionByZero() {
+        CompiledExpression expression = calculator.compile("1 x /");
+        assertThrows(DivisionByZeroException.class, () -> expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testInsufficientOperands() {
+        assertThrows(InvalidExpressionException.class, () -> calculator.compile("2 +"));
+    }
+
+    @Test
+    void testTooManyOperands() {
+        assertThrows(InvalidExpressionException.class, () -> calculator.compile("2 3 4 +"));
+    }
+
+    @Test
+    void testInvalidToken() {
+        assertThrows(InvalidExpressionException.class, () -> calculator.compile("2 3 &"));
+    }
+
+    @Test
+    void testSource() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertEquals("1 + 2", calculator.compile("1 + 2").getSource());
+    }
+
+    @Test
+    void testEvaluationDoesNotAllocate() {
+        calculator.setMode(Calculator.Mode.INFIX);
+        CompiledExpression expression = calculator.compile("(x + 3.5) * 4 - x / 2");
+        VariableBindings bindings = expression.newBindings().set("x", 2);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 10_000; i++) {
+            expression.evaluate(bindings);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        double sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            sum += expression.evaluate(bindings);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(210_000.0, sum);
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void testLoadSnapshot() {
+        ConcurrentVariableManager shared = new ConcurrentVariableManager();
+        shared.setVariable("x", 3);
+        CompiledExpression expression = calculator.compile("x y +");
+        VariableBindings bindings = expression.newBindings();
+
+        assertEquals(3.0, expression.evaluate(bindings.load(shared.snapshot())));
+        shared.update(builder -> builder.set("x", 10).set("y", 1));
+        assertEquals(11.0, expression.evaluate(bindings.load(shared.snapshot())));
+        assertFalse(shared.snapshot().hasVariable("z"));
+    }
+}
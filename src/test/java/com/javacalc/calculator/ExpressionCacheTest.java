@@ -0,0 +1,127 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionCacheTest {
+    private OperatorRegistry registry;
+    private ExpressionCache cache;
+
+    @BeforeEach
+    void setUp() {
+        registry = new OperatorRegistry();
+        cache = new ExpressionCache(registry, 3, Long.MAX_VALUE);
+    }
+
+    @Test
+    void testHitsAndMisses() {
+        ExpressionProfile first = cache.getOrCreate("1 2 +", Calculator.Mode.POSTFIX);
+        assertSame(first, cache.getOrCreate("1 2 +", Calculator.Mode.POSTFIX));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    void testKeyedOnMode() {
+        ExpressionProfile postfix = cache.getOrCreate("2", Calculator.Mode.POSTFIX);
+        ExpressionProfile infix = cache.getOrCreate("2", Calculator.Mode.INFIX);
+        assertNotSame(postfix, infix);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEviction() {
+        cache.getOrCreate("a", Calculator.Mode.POSTFIX);
+        cache.getOrCreate("b", Calculator.Mode.POSTFIX);
+        cache.getOrCreate("c", Calculator.Mode.POSTFIX);
+        cache.getOrCreate("a", Calculator.Mode.POSTFIX);
+        cache.getOrCreate("d", Calculator.Mode.POSTFIX);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(List.of("c", "a", "d"), cache.getEntries().stream()
+                .map(ExpressionProfile::getExpression)
+                .toList());
+    }
+
+    @Test
+    void testWeightBound() {
+        cache = new ExpressionCache(registry, 1000, 2000);
+        for (int i = 0; i < 100; i++) {
+            cache.getOrCreate("x" + i + " 1 +", Calculator.Mode.POSTFIX);
+        }
+        assertTrue(cache.getWeight() <= 2000);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertEquals(100, cache.size() + cache.getEvictionCount());
+    }
+
+    @Test
+    void testWeightFollowsParsedPostfix() {
+        ExpressionProfile postfix = cache.getOrCreate("1 2 +", Calculator.Mode.POSTFIX);
+        ExpressionProfile infix = cache.getOrCreate("1+2", Calculator.Mode.INFIX);
+        long weight = cache.getWeight();
+
+        postfix.postfix = postfix.getExpression();
+        cache.updateWeight(postfix);
+        assertEquals(weight, cache.getWeight());
+
+        infix.postfix = "1 2 +";
+        cache.updateWeight(infix);
+        assertEquals(weight + 2 * ("1 2 +".length() - "1+2".length()), cache.getWeight());
+    }
+
+    @Test
+    void testShrinkingEvicts() {
+        cache.getOrCreate("a", Calculator.Mode.POSTFIX);
+        cache.getOrCreate("b", Calculator.Mode.POSTFIX);
+        cache.setMaximumSize(1);
+        assertEquals(1, cache.size());
+        assertEquals("b", cache.getEntries().get(0).getExpression());
+    }
+
+    @Test
+    void testInvalidatedByOperatorRegistration() {
+        ExpressionProfile before = cache.getOrCreate("1 2 +", Calculator.Mode.POSTFIX);
+        registry.register(new Operator('@', 2, (a, b) -> a + b));
+        ExpressionProfile after = cache.getOrCreate("1 2 +", Calculator.Mode.POSTFIX);
+
+        assertNotSame(before, after);
+        assertEquals(1, cache.getInvalidationCount());
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    void testCalculatorReusesParsedExpressions() {
+        Calculator calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(14.0, calculator.evaluate("2 + 3 * 4"));
+        }
+        ExpressionCache calculatorCache = calculator.getExpressionCache();
+        assertEquals(4, calculatorCache.getHitCount());
+        assertEquals(1, calculatorCache.getMissCount());
+    }
+
+    @Test
+    void testCalculatorSeesNewOperators() {
+        Calculator calculator = new Calculator();
+        calculator.setCompileThreshold(1);
+        assertThrows(InvalidExpressionException.class, () -> calculator.evaluate("1 2 @"));
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 10 + b));
+        assertEquals(12.0, calculator.evaluate("1 2 @"));
+    }
+
+    @Test
+    void testInvalidBounds() {
+        assertThrows(IllegalArgumentException.class, () -> cache.setMaximumSize(0));
+        assertThrows(IllegalArgumentException.class, () -> cache.setMaximumWeight(0));
+    }
+}
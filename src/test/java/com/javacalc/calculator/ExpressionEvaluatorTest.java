@@ -1,11 +1,20 @@
 package com.javacalc.calculator;
 
 import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.ErrorCode;
 import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
 import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.ConcurrentVariableManager;
 import com.javacalc.variables.VariableManager;
+import com.javacalc.variables.VariableSnapshot;
+import com.sun.management.ThreadMXBean;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class ExpressionEvaluatorTest {
@@ -111,4 +120,169 @@ class ExpressionEvaluatorTest {
     void testFloatingPointDivision() {
         assertEquals(2.5, evaluator.evaluatePostfix("5 2 /"));
     }
+
+    @Test
+    void testStackGrowsForDeepExpressions() {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            expression.append("1 ");
+        }
+        for (int i = 0; i < 99; i++) {
+            expression.append("+ ");
+        }
+        assertEquals(100.0, evaluator.evaluatePostfix(expression));
+    }
+
+    @Test
+    void testEvaluationDoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        variableManager.setVariable("x", 2.0);
+        for (int i = 0; i < 10_000; i++) {
+            evaluator.evaluatePostfix("x 3.5 + 4 * 10 x / -");
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        double sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            sum += evaluator.evaluatePostfix("x 3.5 + 4 * 10 x / -");
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(170_000.0, sum);
+        // Allow for incidental allocation by the measurement itself, far below one byte per evaluation
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void testEvaluateAgainstSnapshot() {
+        ConcurrentVariableManager shared = new ConcurrentVariableManager();
+        VariableSnapshot snapshot = shared.update(builder -> builder.set("x", 4).set("y", 5));
+
+        assertEquals(20.0, evaluator.evaluatePostfix("x y *", snapshot));
+        assertEquals(4.0, evaluator.evaluatePostfix("x z +", snapshot));
+        assertFalse(variableManager.hasVariable("x"));
+        assertFalse(shared.snapshot().hasVariable("z"));
+        assertEquals(snapshot.getVersion(), shared.snapshot().getVersion());
+    }
+
+    @Test
+    void testSnapshotEvaluationDoesNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        VariableSnapshot snapshot = new ConcurrentVariableManager().setVariable("x", 2.0);
+        String expression = "x 3.5 + 4 * 10 x / - y +";
+        for (int i = 0; i < 10_000; i++) {
+            evaluator.evaluatePostfix(expression, snapshot);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        double sum = 0;
+        for (int i = 0; i < 10_000; i++) {
+            sum += evaluator.evaluatePostfix(expression, snapshot);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertEquals(170_000.0, sum);
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    void testResultApi() {
+        EvaluationResult result = new EvaluationResult();
+        assertTrue(evaluator.evaluatePostfix("2 3 ^", null, result));
+        assertEquals(8.0, result.getValue());
+
+        assertFalse(evaluator.evaluatePostfix("2 3 $", null, result));
+        assertEquals(ErrorCode.INVALID_TOKEN, result.getError());
+        assertEquals("ERROR: Invalid token '$'", result.getMessage());
+
+        assertFalse(evaluator.evaluatePostfix("5 0 %", null, result));
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, result.getError());
+        assertSame(DivisionByZeroException.INSTANCE, result.toException());
+
+        assertFalse(evaluator.evaluatePostfix("", null, result));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, result.getError());
+    }
+
+    @Test
+    void testResultApiReportsOperatorExceptions() {
+        OperatorRegistry registry = new OperatorRegistry();
+        InvalidExpressionException failure = new InvalidExpressionException("ERROR: Custom failure");
+        registry.register(new Operator('&', 2, (a, b) -> {
+            throw failure;
+        }));
+        ExpressionEvaluator custom = new ExpressionEvaluator(registry, variableManager);
+        EvaluationResult result = new EvaluationResult();
+
+        assertFalse(custom.evaluatePostfix("1 2 &", null, result));
+        assertEquals(ErrorCode.INVALID_EXPRESSION, result.getError());
+        assertEquals("ERROR: Custom failure", result.getMessage());
+        assertSame(failure, assertThrows(InvalidExpressionException.class, () -> custom.evaluatePostfix("1 2 &")));
+    }
+
+    @Test
+    void testFunctions() {
+        assertEquals(4.0, evaluator.evaluatePostfix("16 sqrt"));
+        assertEquals(11.0, evaluator.evaluatePostfix("16 sqrt 3 -7 abs max +"));
+        assertEquals(-3.0, evaluator.evaluatePostfix("2 -3 min"));
+        assertEquals(Math.sin(1) * Math.cos(2), evaluator.evaluatePostfix("1 sin 2 cos *"));
+        assertEquals(1.0, evaluator.evaluatePostfix("1 log 1 +"));
+        assertFalse(variableManager.hasVariable("sqrt"));
+    }
+
+    @Test
+    void testFunctionWithoutEnoughOperands() {
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluatePostfix("sqrt", null, result));
+        assertEquals(ErrorCode.INSUFFICIENT_OPERANDS, result.getError());
+        assertEquals("ERROR: Insufficient operands for operator 'sqrt'", result.getMessage());
+        assertFalse(evaluator.evaluatePostfix("1 max", null, result));
+        assertEquals("ERROR: Insufficient operands for operator 'max'", result.getMessage());
+    }
+
+    @Test
+    void testCustomFunctions() {
+        OperatorRegistry registry = new OperatorRegistry();
+        registry.register(new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high))));
+        registry.register(new Function("hypot", Math::hypot));
+        registry.register(new Function("fail", x -> {
+            throw new InvalidExpressionException("ERROR: Custom failure");
+        }));
+        ExpressionEvaluator custom = new ExpressionEvaluator(registry, variableManager);
+
+        assertEquals(10.0, custom.evaluatePostfix("12 0 10 clamp"));
+        assertEquals(5.0, custom.evaluatePostfix("3 4 hypot"));
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(custom.evaluatePostfix("1 fail", null, result));
+        assertEquals("ERROR: Custom failure", result.getMessage());
+    }
+
+    @Test
+    void testFunctionCallsDoNotAllocate() {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        OperatorRegistry registry = new OperatorRegistry();
+        registry.register(new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high))));
+        ExpressionEvaluator custom = new ExpressionEvaluator(registry, variableManager);
+        variableManager.setVariable("x", 9.0);
+        String expression = "x sqrt 5 max -20 abs 0 10 clamp min";
+        for (int i = 0; i < 10_000; i++) {
+            custom.evaluatePostfix(expression);
+        }
+
+        // Best of a few rounds: profiles left by other tests can deoptimize the loop once, and
+        // deoptimization materializes objects that escape analysis had removed
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 3 && allocated >= 1024; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            double sum = 0;
+            for (int i = 0; i < 10_000; i++) {
+                sum += custom.evaluatePostfix(expression);
+            }
+            allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            assertEquals(50_000.0, sum);
+        }
+        assertTrue(allocated < 1024, "allocated " + allocated + " bytes");
+    }
 }
@@ -0,0 +1,90 @@
+package com.javacalc.calculator;
+
+import com.javacalc.calculator.ExpressionLexer.Token;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionLexerTest {
+
+    private static List<String> lex(ExpressionLexer lexer, CharSequence input) {
+        List<String> tokens = new ArrayList<>();
+        lexer.reset(input);
+        for (Token token = lexer.next(); token != Token.END; token = lexer.next()) {
+            tokens.add(token + ":" + lexer.tokenText());
+        }
+        return tokens;
+    }
+
+    @Test
+    void testInfixTokens() {
+        assertEquals(List.of("LEFT_PAREN:(", "IDENTIFIER:x1", "SYMBOL:+", "NUMBER:2.5", "RIGHT_PAREN:)",
+                        "SYMBOL:*", "NUMBER:3"),
+                lex(new ExpressionLexer(false), " (x1+2.5) *\t3 "));
+    }
+
+    @Test
+    void testOffsetsIntoOriginalInput() {
+        ExpressionLexer lexer = new ExpressionLexer(false).reset("ab + 12");
+        assertEquals(Token.IDENTIFIER, lexer.next());
+        assertEquals(0, lexer.tokenStart());
+        assertEquals(2, lexer.tokenEnd());
+        assertEquals(Token.SYMBOL, lexer.next());
+        assertEquals('+', lexer.tokenChar());
+        assertEquals(Token.NUMBER, lexer.next());
+        assertEquals(5, lexer.tokenStart());
+        assertEquals(7, lexer.tokenEnd());
+        assertEquals(Token.END, lexer.next());
+        assertEquals(Token.END, lexer.next());
+    }
+
+    @Test
+    void testMinusIsAnOperatorInInfix() {
+        assertEquals(List.of("NUMBER:3", "SYMBOL:-", "NUMBER:5"), lex(new ExpressionLexer(false), "3 -5"));
+    }
+
+    @Test
+    void testSignedNumbersInPostfix() {
+        ExpressionLexer lexer = new ExpressionLexer(true);
+        assertEquals(List.of("NUMBER:3", "NUMBER:-5", "SYMBOL:+"), lex(lexer, "3 -5 +"));
+        assertEquals(List.of("NUMBER:5", "NUMBER:3", "SYMBOL:-"), lex(lexer, "5 3 -"));
+        assertEquals(List.of("NUMBER:-2"), lex(lexer, "-2"));
+    }
+
+    @Test
+    void testNumberValues() {
+        ExpressionLexer lexer = new ExpressionLexer(true);
+        for (String literal : new String[] {"0", "42", "3.14", "-2.5", "0.1", "123456789.123456789",
+                "98765432109876543210", "0.000000000000000000000000123", "9007199254740993"}) {
+            lexer.reset(literal).next();
+            assertEquals(Double.parseDouble(literal), lexer.numberValue(), literal);
+        }
+    }
+
+    @Test
+    void testTrailingDotIsNotPartOfNumber() {
+        assertEquals(List.of("NUMBER:3", "SYMBOL:."), lex(new ExpressionLexer(false), "3."));
+    }
+
+    @Test
+    void testUnknownCharactersAreSymbols() {
+        assertEquals(List.of("NUMBER:2", "SYMBOL:&", "NUMBER:3"), lex(new ExpressionLexer(false), "2&3"));
+    }
+
+    @Test
+    void testLexesAnyCharSequence() {
+        StringBuilder input = new StringBuilder("x*y");
+        assertEquals(List.of("IDENTIFIER:x", "SYMBOL:*", "IDENTIFIER:y"), lex(new ExpressionLexer(false), input));
+    }
+
+    @Test
+    void testExponentLiterals() {
+        assertEquals(List.of("NUMBER:1e-9", "SYMBOL:*", "NUMBER:2.5E3", "SYMBOL:-", "IDENTIFIER:e"),
+                lex(new ExpressionLexer(false), "1e-9*2.5E3 - e"));
+        assertEquals(List.of("NUMBER:-1e-9", "NUMBER:2", "IDENTIFIER:e", "SYMBOL:+"),
+                lex(new ExpressionLexer(true), "-1e-9 2e +"));
+    }
+}
@@ -0,0 +1,327 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpressionOptimizerTest {
+    private Calculator calculator;
+
+    @BeforeEach
+    void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+    }
+
+    @Test
+    void testFoldsConstantSubexpression() {
+        CompiledExpression expression = calculator.compile("(60 * 60 * 24)");
+        assertArrayEquals(new byte[]{Opcodes.PUSH_CONSTANT}, expression.instructions());
+        assertEquals(86400.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testFoldsLeadingConstants() {
+        CompiledExpression expression = calculator.compile("2 * 3.14159 * r");
+        assertArrayEquals(new byte[]{Opcodes.PUSH_CONSTANT, Opcodes.LOAD_VARIABLE, Opcodes.MULTIPLY},
+                expression.instructions());
+        assertEquals(2 * 3.14159 * 10, expression.evaluate(expression.newBindings().set("r", 10)));
+    }
+
+    @Test
+    void testFoldsEveryBuiltInOperator() {
+        CompiledExpression expression = calculator.compile("(7 % 4 + 2 ^ 3 - 6 / 4) * x");
+        assertEquals(3, expression.instructions().length);
+        assertEquals(9.5, expression.evaluate(expression.newBindings().set("x", 1)));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "x * 1", "1 * x", "x / 1", "x ^ 1", "x + 0", "0 + x", "x - 0", "x * (3 - 2)", "(x + 0) * 1 ^ 5"
+    })
+    void testIdentities(String source) {
+        CompiledExpression expression = calculator.compile(source);
+        assertArrayEquals(new byte[]{Opcodes.LOAD_VARIABLE}, expression.instructions());
+        assertEquals(-2.5, expression.evaluate(expression.newBindings().set("x", -2.5)));
+    }
+
+    @Test
+    void testDoesNotApplyNonIdentities() {
+        // 1 - x, 1 / x and 0 * x are not identities and must stay as written
+        assertEquals(3, calculator.compile("1 - x").instructions().length);
+        assertEquals(3, calculator.compile("1 / x").instructions().length);
+        assertEquals(3, calculator.compile("0 * x").instructions().length);
+    }
+
+    @Test
+    void testDivisionByConstantZeroIsNotFolded() {
+        CompiledExpression division = calculator.compile("1 / 0");
+        assertEquals(3, division.instructions().length);
+        assertThrows(DivisionByZeroException.class, () -> division.evaluate(division.newBindings()));
+
+        CompiledExpression modulo = calculator.compile("x + 5 % (2 - 2)");
+        assertThrows(DivisionByZeroException.class, () -> modulo.evaluate(modulo.newBindings()));
+    }
+
+    @Test
+    void testIdentityKeepsDivisionThatMayThrow() {
+        CompiledExpression expression = calculator.compile("x / y * 1");
+        assertThrows(DivisionByZeroException.class, () -> expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testCustomOperatorsAreNotFolded() {
+        calculator.setMode(Calculator.Mode.POSTFIX);
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 2 + b));
+        CompiledExpression expression = calculator.compile("1 2 @");
+        assertEquals(3, expression.instructions().length);
+        assertEquals(4.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testReplacedBuiltInOperatorIsNotFolded() {
+        calculator.getOperatorRegistry().register(new Operator('+', 1, (a, b) -> a + b + 1));
+        CompiledExpression expression = calculator.compile("2 + 3");
+        assertEquals(6.0, expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testVariablesKeepTheirIndices() {
+        CompiledExpression expression = calculator.compile("a * 1 + b");
+        assertEquals(0, expression.indexOf("a"));
+        assertEquals(1, expression.indexOf("b"));
+    }
+
+    @Test
+    void testDeepExpressionDoesNotOverflow() {
+        StringBuilder source = new StringBuilder("x");
+        for (int i = 0; i < 100_000; i++) {
+            source.append(" x +");
+        }
+        calculator.setMode(Calculator.Mode.POSTFIX);
+        CompiledExpression expression = calculator.compile(source.toString());
+        assertEquals(100_001.0, expression.evaluate(expression.newBindings().set("x", 1)));
+    }
+
+    @Test
+    void testSquareIsReducedInRelaxedMode() {
+        // Math.pow is only specified to within an ulp, so even x * x may round differently
+        assertArrayEquals(new byte[]{Opcodes.LOAD_VARIABLE, Opcodes.PUSH_CONSTANT, Opcodes.POWER},
+                calculator.compile("x ^ 2").instructions());
+
+        calculator.setRelaxedFloatingPoint(true);
+        CompiledExpression expression = calculator.compile("x ^ 2");
+        assertArrayEquals(new byte[]{Opcodes.LOAD_VARIABLE, Opcodes.INTEGER_POWER}, expression.instructions());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+            double expected = Math.pow(x, 2);
+            assertEquals(expected, expression.evaluate(expression.newBindings().set("x", x)), Math.ulp(expected));
+        }
+    }
+
+    @Test
+    void testRoundingChangingRewritesNeedRelaxedMode() {
+        assertEquals(Opcodes.POWER, lastInstruction(calculator.compile("x ^ 2")));
+        assertEquals(Opcodes.POWER, lastInstruction(calculator.compile("x ^ 3")));
+        assertEquals(Opcodes.DIVIDE, lastInstruction(calculator.compile("x / 3")));
+        assertEquals(Opcodes.ADD, lastInstruction(calculator.compile("a * b + c")));
+
+        calculator.setRelaxedFloatingPoint(true);
+        assertEquals(Opcodes.INTEGER_POWER, lastInstruction(calculator.compile("x ^ 2")));
+        assertEquals(Opcodes.INTEGER_POWER, lastInstruction(calculator.compile("x ^ 3")));
+        assertEquals(Opcodes.MULTIPLY, lastInstruction(calculator.compile("x / 3")));
+        assertEquals(Opcodes.FUSED_MULTIPLY_ADD, lastInstruction(calculator.compile("a * b + c")));
+        assertEquals(Opcodes.FUSED_MULTIPLY_ADD, lastInstruction(calculator.compile("c + a * b")));
+    }
+
+    @Test
+    void testDivisionByPowerOfTwoIsExact() {
+        CompiledExpression expression = calculator.compile("x / 8");
+        assertEquals(Opcodes.MULTIPLY, lastInstruction(expression));
+
+        Random random = new Random(11);
+        for (int i = 0; i < 1000; i++) {
+            double x = random.nextDouble() * Double.MIN_NORMAL * 16;
+            assertEquals(x / 8, expression.evaluate(expression.newBindings().set("x", x)));
+        }
+    }
+
+    @Test
+    void testFractionalAndLargeExponentsAreNotReduced() {
+        calculator.setRelaxedFloatingPoint(true);
+        assertEquals(Opcodes.POWER, lastInstruction(calculator.compile("x ^ 2.5")));
+        assertEquals(Opcodes.POWER, lastInstruction(calculator.compile("x ^ 65")));
+        assertEquals(Opcodes.POWER, lastInstruction(calculator.compile("x ^ y")));
+    }
+
+    @Test
+    void testRelaxedResultsAreClose() {
+        calculator.setRelaxedFloatingPoint(true);
+        CompiledExpression expression = calculator.compile("x ^ 7 + x * y / 3");
+        double x = 1.37;
+        double y = -2.9;
+        double expected = Math.pow(x, 7) + x * y / 3;
+        assertEquals(expected, expression.evaluate(expression.newBindings().set("x", x).set("y", y)),
+                Math.ulp(expected) * 8);
+    }
+
+    @Test
+    void testBackendsAgreeOnReducedPrograms() {
+        calculator.setRelaxedFloatingPoint(true);
+        CompiledExpression expression = calculator.compile("x ^ 2 + y ^ 5 * x + 3 / y + x * y + 2 * 7");
+        BytecodeExpression code = new BytecodeCompiler().compile(expression);
+
+        double[] xs = {1.5, -2.25, 3.75};
+        double[] ys = {0.5, 7.0, -1.125};
+        double[] batch = new double[3];
+        calculator.evaluateBatch(expression, Map.of("x", xs, "y", ys), batch);
+
+        for (int i = 0; i < xs.length; i++) {
+            VariableBindings bindings = expression.newBindings().set("x", xs[i]).set("y", ys[i]);
+            double interpreted = expression.evaluate(bindings);
+            assertEquals(interpreted, code.eval(new double[]{xs[i], ys[i]}));
+            assertEquals(interpreted, batch[i]);
+        }
+    }
+
+    @Test
+    void testChangingModeInvalidatesCompiledExpressions() {
+        calculator.setCompileThreshold(1);
+        calculator.evaluate("2 ^ 3");
+        assertEquals(1, calculator.getExpressionCache().size());
+
+        calculator.setRelaxedFloatingPoint(true);
+        assertTrue(calculator.isRelaxedFloatingPoint());
+        assertEquals(0, calculator.getExpressionCache().size());
+    }
+
+    @Test
+    void testIntegerPower() {
+        for (int exponent = 1; exponent <= 20; exponent++) {
+            assertEquals(Math.pow(3, exponent), Opcodes.integerPower(3, exponent), "3^" + exponent);
+        }
+        assertEquals(-8.0, Opcodes.integerPower(-2, 3));
+    }
+
+    @Test
+    void testCommonSubexpressionIsComputedOnce() {
+        CompiledExpression expression = calculator.compile("(x + y) * (x + y) + (x + y) / z");
+        assertEquals(2, expression.getEliminatedNodes());
+        // One addition for (x + y) and one for the sum
+        assertEquals(2, count(expression, Opcodes.ADD));
+        assertEquals(1, count(expression, Opcodes.STORE_TEMP));
+        assertEquals(2, count(expression, Opcodes.LOAD_TEMP));
+
+        VariableBindings bindings = expression.newBindings().set("x", 2).set("y", 3).set("z", 4);
+        assertEquals(25 + 5 / 4.0, expression.evaluate(bindings));
+    }
+
+    @Test
+    void testNestedCommonSubexpressions() {
+        CompiledExpression expression = calculator.compile("(x + y) * z - ((x + y) * z) ^ 2 + (x + y)");
+        // The second (x + y) * z and the third (x + y) are eliminated
+        assertEquals(3, expression.getEliminatedNodes());
+        VariableBindings bindings = expression.newBindings().set("x", 1).set("y", 2).set("z", 3);
+        assertEquals(9 - 81 + 3, expression.evaluate(bindings));
+    }
+
+    @Test
+    void testNoCommonSubexpressions() {
+        CompiledExpression expression = calculator.compile("(x + y) * (x - y)");
+        assertEquals(0, expression.getEliminatedNodes());
+        assertEquals(0, count(expression, Opcodes.STORE_TEMP));
+    }
+
+    @Test
+    void testCustomOperatorsAreNotShared() {
+        calculator.setMode(Calculator.Mode.POSTFIX);
+        calculator.getOperatorRegistry().register(new Operator('@', 2, (a, b) -> a * 2 + b));
+        CompiledExpression expression = calculator.compile("x 1 @ x 1 @ +");
+        assertEquals(0, expression.getEliminatedNodes());
+        assertEquals(2, count(expression, Opcodes.APPLY_OPERATOR));
+    }
+
+    @Test
+    void testSharedDivisionByZeroStillThrows() {
+        CompiledExpression expression = calculator.compile("x / y + x / y");
+        assertEquals(1, expression.getEliminatedNodes());
+        assertThrows(DivisionByZeroException.class, () -> expression.evaluate(expression.newBindings()));
+    }
+
+    @Test
+    void testBackendsAgreeOnSharedSubexpressions() {
+        CompiledExpression expression = calculator.compile(
+                "(x + y) * (x + y) + (x + y) / z + (x * z) ^ 2 - (x * z) + 2 * (x + y)");
+        BytecodeExpression code = new BytecodeCompiler().compile(expression);
+
+        int rows = 3000;
+        double[] xs = new double[rows];
+        double[] ys = new double[rows];
+        double[] zs = new double[rows];
+        Random random = new Random(13);
+        for (int i = 0; i < rows; i++) {
+            xs[i] = random.nextDouble() * 10;
+            ys[i] = random.nextDouble() * 10;
+            zs[i] = 0.5 + random.nextDouble();
+        }
+        double[] batch = new double[rows];
+        calculator.evaluateBatch(expression, Map.of("x", xs, "y", ys, "z", zs), batch);
+
+        for (int i = 0; i < rows; i++) {
+            VariableBindings bindings = expression.newBindings().set("x", xs[i]).set("y", ys[i]).set("z", zs[i]);
+            double interpreted = expression.evaluate(bindings);
+            assertEquals(interpreted, code.eval(new double[]{xs[i], ys[i], zs[i]}));
+            assertEquals(interpreted, batch[i]);
+        }
+    }
+
+    private static int count(CompiledExpression expression, byte opcode) {
+        int count = 0;
+        for (byte instruction : expression.instructions()) {
+            if (instruction == opcode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte lastInstruction(CompiledExpression expression) {
+        byte[] instructions = expression.instructions();
+        return instructions[instructions.length - 1];
+    }
+
+    @Test
+    void testFoldsBuiltInFunctions() {
+        CompiledExpression expression = calculator.compile("x * sqrt(max(16, 9)) + abs(0 - 2) * log(1)");
+        assertArrayEquals(new byte[]{Opcodes.LOAD_VARIABLE, Opcodes.PUSH_CONSTANT, Opcodes.MULTIPLY},
+                expression.instructions());
+        assertEquals(12.0, expression.evaluate(expression.newBindings().set("x", 3)));
+    }
+
+    @Test
+    void testBuiltInFunctionsHaveOpcodes() {
+        CompiledExpression expression = calculator.compile("min(sin(x), cos(x))");
+        assertArrayEquals(new byte[]{Opcodes.LOAD_VARIABLE, Opcodes.SIN, Opcodes.LOAD_VARIABLE, Opcodes.COS,
+                Opcodes.MIN}, expression.instructions());
+    }
+
+    @Test
+    void testCustomFunctionsAreNotFoldedOrShared() {
+        calculator.getOperatorRegistry().register(new Function("twice", x -> 2 * x));
+        CompiledExpression expression = calculator.compile("twice(1) + twice(1)");
+        assertEquals(5, expression.instructions().length);
+        assertEquals(0, expression.getEliminatedNodes());
+        assertEquals(4.0, expression.evaluate(expression.newBindings()));
+    }
+}
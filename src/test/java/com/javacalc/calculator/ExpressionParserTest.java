@@ -1,5 +1,6 @@
 package com.javacalc.calculator;
 
+import com.javacalc.exceptions.ErrorCode;
 import com.javacalc.exceptions.InvalidExpressionException;
 import com.javacalc.operators.OperatorRegistry;
 import org.junit.jupiter.api.BeforeEach;
@@ -88,4 +89,58 @@ class ExpressionParserTest {
         String result = parser.infixToPostfix("10 % 3");
         assertEquals("10 3 %", result);
     }
+
+    @Test
+    void testResultApi() {
+        EvaluationResult result = new EvaluationResult();
+        assertEquals("2 3 +", parser.infixToPostfix("2 + 3", result));
+
+        assertNull(parser.infixToPostfix("(2 + 3", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertNull(parser.infixToPostfix("2 + 3)", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertNull(parser.infixToPostfix("2 $ 3", result));
+        assertEquals(ErrorCode.INVALID_TOKEN, result.getError());
+        assertEquals("ERROR: Invalid token '$'", result.getMessage());
+    }
+
+    @Test
+    void testFunctionCalls() {
+        assertEquals("16 sqrt", parser.infixToPostfix("sqrt(16)"));
+        assertEquals("x 2 max 16 sqrt +", parser.infixToPostfix("max(x, 2) + sqrt(16)"));
+        assertEquals("1 2 max 3 4 * min", parser.infixToPostfix("min(max(1, 2), 3 * 4)"));
+        assertEquals("2 x y + abs *", parser.infixToPostfix("2 * abs((x + y))"));
+        assertEquals("a b + c d - max", parser.infixToPostfix("max(a + b, c - d)"));
+    }
+
+    @Test
+    void testFunctionErrors() {
+        EvaluationResult result = new EvaluationResult();
+        for (String expression : new String[] {"max(1)", "sin(1, 2)", "sin()", "max(1,)", "max(, 1)", "max(1 2)"}) {
+            assertNull(parser.infixToPostfix(expression, result), expression);
+            assertEquals(ErrorCode.WRONG_ARGUMENT_COUNT, result.getError(), expression);
+        }
+        assertEquals("ERROR: Wrong number of arguments for function 'max'", result.getMessage());
+
+        assertNull(parser.infixToPostfix("(1, 2)", result));
+        assertEquals("ERROR: Invalid token ','", result.getMessage());
+        assertNull(parser.infixToPostfix("1, 2", result));
+        assertEquals("ERROR: Invalid token ','", result.getMessage());
+        assertNull(parser.infixToPostfix("max(1, 2", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+    }
+
+    @Test
+    void testFunctionNamesAsVariables() {
+        // Only a name followed by '(' is a call
+        assertEquals("max 2 *", parser.infixToPostfix("max * 2"));
+        assertEquals("2 cos +", parser.infixToPostfix("2 + cos"));
+        assertEquals("max 1 max", parser.infixToPostfix("max(max, 1)"));
+
+        // Marked output keeps calls and variables apart for the evaluators
+        EvaluationResult result = new EvaluationResult();
+        assertEquals("\uFFFEmax 1 \uFFFFmax", parser.infixToPostfix("max(max, 1)", result, true));
+        assertEquals("x 2 \uFFFFsqrt \uFFFEsin * +", parser.infixToPostfix("x + sqrt(2) * sin", result, true));
+        assertEquals("x y +", parser.infixToPostfix("x + y", result, true));
+    }
 }
@@ -0,0 +1,207 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.CalculatorException;
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.ErrorCode;
+import com.javacalc.exceptions.InvalidExpressionException;
+import com.javacalc.operators.Function;
+import com.javacalc.operators.Operator;
+import com.javacalc.operators.OperatorRegistry;
+import com.javacalc.variables.VariableManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InfixEvaluatorTest {
+    private OperatorRegistry registry;
+    private VariableManager variables;
+    private InfixEvaluator evaluator;
+
+    @BeforeEach
+    void setUp() {
+        registry = new OperatorRegistry();
+        variables = new VariableManager();
+        evaluator = new InfixEvaluator(registry, variables);
+    }
+
+    @Test
+    void testArithmetic() {
+        assertEquals(7.0, evaluator.evaluate("3 + 4"));
+        assertEquals(14.0, evaluator.evaluate("2 * (3 + 4)"));
+        assertEquals(11.0, evaluator.evaluate("3 + 4 * 2"));
+        assertEquals(1.0, evaluator.evaluate("10 % 3"));
+        assertEquals(2.5, evaluator.evaluate("((5)) / 2"));
+        assertEquals(-1.0, evaluator.evaluate("1 - 2"));
+        assertEquals(2e-9, evaluator.evaluate("1e-9 * 2"));
+    }
+
+    @Test
+    void testVariables() {
+        variables.setVariable("x", 4);
+        assertEquals(20.0, evaluator.evaluate("x * (x + 1)"));
+        assertEquals(1.0, evaluator.evaluate("y + 1"));
+        assertTrue(variables.hasVariable("y"));
+    }
+
+    @Test
+    void testReportsErrors() {
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("(1 + 2", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertFalse(evaluator.evaluate("1 + 2)", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertFalse(evaluator.evaluate("1 $ 2", result));
+        assertEquals("ERROR: Invalid token '$'", result.getMessage());
+        assertFalse(evaluator.evaluate("1 +", result));
+        assertEquals("ERROR: Insufficient operands for operator '+'", result.getMessage());
+        assertFalse(evaluator.evaluate("1 2", result));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, result.getError());
+        assertFalse(evaluator.evaluate("", result));
+        assertEquals(ErrorCode.TOO_MANY_OPERANDS, result.getError());
+        assertThrows(DivisionByZeroException.class, () -> evaluator.evaluate("1 / (2 - 2)"));
+    }
+
+    @Test
+    void testSyntaxErrorsTakePrecedence() {
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("1 / 0 + (2", result));
+        assertEquals(ErrorCode.MISMATCHED_PARENTHESES, result.getError());
+        assertFalse(evaluator.evaluate("* 2 $", result));
+        assertEquals(ErrorCode.INVALID_TOKEN, result.getError());
+    }
+
+    @Test
+    void testVariablesAreOnlyDefinedWhenTheExpressionParses() {
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("a + (b", result));
+        assertFalse(variables.hasVariable("a"));
+
+        // As in postfix evaluation, variables read before the failing operator are defined
+        assertFalse(evaluator.evaluate("c / 0 + d", result));
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, result.getError());
+        assertTrue(variables.hasVariable("c"));
+        assertFalse(variables.hasVariable("d"));
+    }
+
+    @Test
+    void testCustomOperators() {
+        registry.register(new Operator('&', 2, (a, b) -> {
+            if (a < 0) {
+                throw new CalculatorException("ERROR: negative");
+            }
+            return Math.max(a, b);
+        }));
+        assertEquals(9.0, evaluator.evaluate("2 & 3 * 3"));
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("(0 - 1) & 2", result));
+        assertEquals("ERROR: negative", result.getMessage());
+    }
+
+    @Test
+    void testFunctions() {
+        variables.setVariable("x", -9);
+        assertEquals(3.0, evaluator.evaluate("sqrt(abs(x))"));
+        assertEquals(7.0, evaluator.evaluate("max(x, 2) + min(5, 10)"));
+        assertEquals(Math.sin(0.5) + Math.cos(0.5), evaluator.evaluate("sin(1 / 2) + cos(0.5)"));
+        assertEquals(2.0, evaluator.evaluate("log(1) + max(1, min(2, 3) * 1)"));
+
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("max(1)", result));
+        assertEquals("ERROR: Wrong number of arguments for function 'max'", result.getMessage());
+        assertFalse(evaluator.evaluate("1 / 0 + sin 1", result));
+        assertEquals(ErrorCode.DIVISION_BY_ZERO, result.getError());
+        assertFalse(variables.hasVariable("sin"));
+    }
+
+    @Test
+    void testFunctionNamesAsVariables() {
+        // Without '(' a function name is a variable
+        variables.setVariable("max", 10);
+        assertEquals(20.0, evaluator.evaluate("max * 2"));
+        assertEquals(30.0, evaluator.evaluate("max(max, 30)"));
+        assertEquals(0.0, evaluator.evaluate("cos"));
+        assertTrue(variables.hasVariable("cos"));
+    }
+
+    @Test
+    void testCustomFunctions() {
+        registry.register(new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high))));
+        registry.register(new Function("negative", x -> {
+            throw new InvalidExpressionException("ERROR: negative");
+        }));
+        assertEquals(10.0, evaluator.evaluate("clamp(3 * 4, 0, 2 * 5)"));
+        assertEquals(-1.0, evaluator.evaluate("clamp(0 - 1, 0 - 2, 2)"));
+
+        EvaluationResult result = new EvaluationResult();
+        assertFalse(evaluator.evaluate("clamp(1, 2)", result));
+        assertEquals(ErrorCode.WRONG_ARGUMENT_COUNT, result.getError());
+        assertFalse(evaluator.evaluate("1 + negative(2)", result));
+        assertEquals("ERROR: negative", result.getMessage());
+    }
+
+    @Test
+    void testMatchesParseThenEvaluate() {
+        ExpressionParser parser = new ExpressionParser(registry);
+        ExpressionEvaluator postfix = new ExpressionEvaluator(registry, new VariableManager());
+        EvaluationResult expected = new EvaluationResult();
+        EvaluationResult actual = new EvaluationResult();
+        for (String expression : new String[] {"2 ^ 3 ^ 2", "8 / 4 / 2", "1 - 2 - 3", "2 - - 3",
+                "(1 + 2) * (3 + 4) - 5 % 3", "((", "))", "1 + * 2", "3 4 +", "2 * (3 + 4) ^ 2",
+                "1 / 0", "0 % 0", "x + 1", "max(1, 2) * sqrt(16)", "min(max(1, 2), 3 * 4)", "2 + sin()",
+                "max(1)", "max(1 2)", "sin 2", "(1, 2)", "abs(1 / 0)", "max(1, 2", "sqrt(1 +)", "cos",
+                "max * 2", "max(max, 1)", "1 / 0 + sin 1"}) {
+            String converted = parser.infixToPostfix(expression, expected, true);
+            if (converted != null) {
+                postfix.evaluatePostfix(converted, null, expected);
+            }
+            evaluator.evaluate(expression, actual);
+            assertEquals(expected.getError(), actual.getError(), expression);
+            assertEquals(expected.getMessage(), actual.getMessage(), expression);
+            assertEquals(expected.getValue(), actual.getValue(), expression);
+        }
+    }
+
+    @Test
+    void testDeepNesting() {
+        String expression = "(".repeat(10_000) + "1" + " + 1)".repeat(10_000);
+        assertEquals(10_001.0, evaluator.evaluate(expression));
+        assertEquals(Map.of(), variables.getAllVariables());
+    }
+
+    @Test
+    void testStreamsFromReader() throws IOException {
+        variables.setVariable("rate", 0.5);
+        EvaluationResult expected = new EvaluationResult();
+        EvaluationResult actual = new EvaluationResult();
+        for (String expression : new String[] {"1e-9 * 2 + rate", "(12.75 - 3) * (rate + 1)", "2 ^ 10 - 1e+3",
+                "1 + (2", "1 + 2)", "3 $ 4", "1 / 0 + 2", "1 +", "x1 + x22", "max(rate, 2) + sqrt(16)",
+                "min(abs(rate), 1", "sin(rate, 1)", "log"}) {
+            // Reading one character at a time places a chunk boundary after every token
+            Reader reader = new Reader() {
+                private int position;
+
+                @Override
+                public int read(char[] buffer, int offset, int count) {
+                    if (position == expression.length()) {
+                        return -1;
+                    }
+                    buffer[offset] = expression.charAt(position++);
+                    return 1;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+            evaluator.evaluate(expression, expected);
+            evaluator.evaluate(reader, actual);
+            assertEquals(expected.getValue(), actual.getValue(), expression);
+            assertEquals(expected.getMessage(), actual.getMessage(), expression);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.InvalidExpressionException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Evaluates expressions far larger than the heap of the JVM that evaluates them, streamed
+ * from a reader that generates the text as it is read.
+ */
+class LargeExpressionTest {
+    private static final long SIZE = 50L << 20;
+    private static final String INFIX_UNIT = "(x + 2 * 3) - 6 + ";
+    private static final String POSTFIX_UNIT = "x 2 3 * + 6 - + ";
+    private static final double TOO_LARGE_VALUE = 1 + (20_000.0 * 20_001 / 2 - 1) / 2;
+
+    @Test
+    void testInfixInSmallHeap() throws Exception {
+        assertEquals(Long.toString(SIZE / INFIX_UNIT.length()), runInSmallHeap("INFIX"));
+    }
+
+    @Test
+    void testPostfixInSmallHeap() throws Exception {
+        assertEquals(Long.toString(SIZE / POSTFIX_UNIT.length()), runInSmallHeap("POSTFIX"));
+    }
+
+    @Test
+    void testChunkedReadsMatchWholeInput() throws IOException {
+        Calculator calculator = new Calculator();
+        calculator.getVariableManager().setVariable("x", 1);
+        assertEquals(3.0, calculator.evaluate(new RepeatingReader("0 ", POSTFIX_UNIT, 3, "")));
+        calculator.setMode(Calculator.Mode.INFIX);
+        assertEquals(1000.0, calculator.evaluate(new RepeatingReader("", INFIX_UNIT, 1000, "0")));
+    }
+
+    @Test
+    void testTooLargeForBytecodeStaysInterpreted() {
+        String expression = tooLargeForBytecode();
+        Calculator calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.getVariableManager().setVariable("x", 1);
+        calculator.getVariableManager().setVariable("y", 2);
+
+        EvaluationResult result = new EvaluationResult();
+        for (int i = 0; i < Calculator.DEFAULT_COMPILE_THRESHOLD + 10; i++) {
+            assertTrue(calculator.tryEvaluate(expression, result), result::getMessage);
+            assertEquals(TOO_LARGE_VALUE, result.getValue(), 1e-6);
+        }
+        ExpressionProfile profile = calculator.getExpressionProfiles().get(0);
+        assertFalse(profile.isPromoted());
+        assertTrue(profile.isUncompilable());
+    }
+
+    @Test
+    void testMethodSizeLimit() {
+        // Each x is aload_1, iconst_0, daload and each + a dadd, so with the closing dreturn a
+        // sum of 16384 terms is 65536 bytes, one more than a method may hold
+        Calculator calculator = new Calculator();
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        assertEquals(16383.0, compiler.compile(calculator.compile(sumOfX(16383))).eval(new double[]{1}));
+        assertThrows(InvalidExpressionException.class, () -> compiler.compile(calculator.compile(sumOfX(16384))));
+
+        calculator.setCompileThreshold(1);
+        calculator.getVariableManager().setVariable("x", 1);
+        for (int terms = 16383; terms <= 16385; terms++) {
+            EvaluationResult result = new EvaluationResult();
+            for (int i = 0; i < 3; i++) {
+                assertTrue(calculator.tryEvaluate(sumOfX(terms), result), result::getMessage);
+                assertEquals(terms, result.getValue());
+            }
+        }
+    }
+
+    @Test
+    void testTooLargeFormulaIsInterpreted() {
+        Calculator calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        calculator.getVariableManager().setVariable("x", 1);
+        calculator.getVariableManager().setVariable("y", 2);
+
+        assertEquals(TOO_LARGE_VALUE, calculator.defineFormula("total := " + tooLargeForBytecode()), 1e-6);
+        calculator.getVariableManager().setVariable("x", 2);
+        assertEquals(2 * TOO_LARGE_VALUE, calculator.getVariableManager().getVariable("total"), 1e-6);
+    }
+
+    /**
+     * Builds "x + x*2/y + x*3/y + ... + x*20000/y", which exceeds the JVM's method size limit.
+     * With x = 1 and y = 2 it evaluates to {@link #TOO_LARGE_VALUE}.
+     */
+    private static String tooLargeForBytecode() {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 2; i <= 20_000; i++) {
+            expression.append(" + x*").append(i).append("/y");
+        }
+        return expression.toString();
+    }
+
+    /**
+     * Builds the postfix sum "x x + x + ... x +" of a number of terms.
+     */
+    private static String sumOfX(int terms) {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 1; i < terms; i++) {
+            expression.append(" x +");
+        }
+        return expression.toString();
+    }
+
+    private static String runInSmallHeap(String mode) throws Exception {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        Process process = new ProcessBuilder(java, "-Xmx16m", "-cp", System.getProperty("java.class.path"),
+                LargeExpressionTest.class.getName(), mode)
+                .redirectErrorStream(true)
+                .start();
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), "timed out");
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        assertEquals(0, process.exitValue(), output);
+        return output;
+    }
+
+    /**
+     * Runs in the small-heap JVM: evaluates about 50 MB of expression and prints the result.
+     */
+    public static void main(String[] args) throws IOException {
+        Calculator calculator = new Calculator();
+        calculator.getVariableManager().setVariable("x", 1);
+        Reader expression;
+        if (args[0].equals("INFIX")) {
+            calculator.setMode(Calculator.Mode.INFIX);
+            expression = new RepeatingReader("", INFIX_UNIT, SIZE / INFIX_UNIT.length(), "0");
+        } else {
+            expression = new RepeatingReader("0 ", POSTFIX_UNIT, SIZE / POSTFIX_UNIT.length(), "");
+        }
+        System.out.println((long) calculator.evaluate(expression));
+    }
+
+    /**
+     * Generates a prefix, a unit repeated many times and a suffix, without holding the text.
+     */
+    private static final class RepeatingReader extends Reader {
+        private final String prefix;
+        private final String unit;
+        private final String suffix;
+        private final long length;
+        private long position;
+
+        RepeatingReader(String prefix, String unit, long repeat, String suffix) {
+            this.prefix = prefix;
+            this.unit = unit;
+            this.suffix = suffix;
+            this.length = prefix.length() + unit.length() * repeat + suffix.length();
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) {
+            if (position == length) {
+                return -1;
+            }
+            // Odd-sized reads put chunk boundaries at every offset within a unit
+            int n = (int) Math.min(Math.min(count, 4093), length - position);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = charAt(position++);
+            }
+            return n;
+        }
+
+        private char charAt(long index) {
+            if (index < prefix.length()) {
+                return prefix.charAt((int) index);
+            }
+            long body = index - prefix.length();
+            long units = length - prefix.length() - suffix.length();
+            if (body < units) {
+                return unit.charAt((int) (body % unit.length()));
+            }
+            return suffix.charAt((int) (body - units));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
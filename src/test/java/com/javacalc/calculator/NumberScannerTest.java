@@ -0,0 +1,117 @@
+package com.javacalc.calculator;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NumberScannerTest {
+    private final NumberScanner scanner = new NumberScanner();
+
+    private double parse(String literal) {
+        assertEquals(literal.length(), scanner.scan(literal, 0), "scanned length of " + literal);
+        return scanner.value();
+    }
+
+    @Test
+    void testIntegersAndDecimals() {
+        assertEquals(0.0, parse("0"));
+        assertEquals(42.0, parse("42"));
+        assertEquals(3.25, parse("3.25"));
+        assertEquals(0.1, parse("0.1"));
+        assertEquals(0.000123, parse("0.000123"));
+        assertEquals(-7.5, parse("-7.5"));
+        assertEquals(123.0, parse("000123"));
+    }
+
+    @Test
+    void testExponents() {
+        assertEquals(1e-9, parse("1e-9"));
+        assertEquals(2.5e10, parse("2.5E10"));
+        assertEquals(1e3, parse("1e+3"));
+        assertEquals(-4e-2, parse("-4e-2"));
+        assertEquals(1.23e32, parse("123e30"));
+        assertEquals(Double.POSITIVE_INFINITY, parse("1e400"));
+        assertEquals(0.0, parse("1e-400"));
+        assertEquals(Double.MIN_VALUE, parse("4.9e-324"));
+        assertEquals(Double.POSITIVE_INFINITY, parse("1e99999999999"));
+        assertEquals(0.0, parse("0e99999"));
+    }
+
+    @Test
+    void testNegativeZero() {
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(parse("-0")));
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(parse("-0.0e5")));
+    }
+
+    @Test
+    void testLongLiteralsRoundCorrectly() {
+        assertEquals(9007199254740993.0, parse("9007199254740993"));
+        assertEquals(0.30000000000000004, parse("0.30000000000000004"));
+        assertEquals(Math.PI, parse("3.14159265358979323846264338327950288"));
+        assertEquals(Double.MAX_VALUE, parse("17976931348623157" + "0".repeat(292)));
+    }
+
+    @Test
+    void testLiteralBoundaries() {
+        assertEquals(1, scanner.scan("2.x", 0));
+        assertEquals(1, scanner.scan("2e", 0));
+        assertEquals(1, scanner.scan("2e-", 0));
+        assertEquals(1, scanner.scan("2E+x", 0));
+        assertEquals(3, scanner.scan("2e5x", 0));
+        assertEquals(2e5, scanner.value());
+        assertEquals(5, scanner.scan("x 1.5 y", 2));
+    }
+
+    @Test
+    void testNotALiteral() {
+        assertEquals(0, scanner.scan("x", 0));
+        assertEquals(0, scanner.scan("-", 0));
+        assertEquals(0, scanner.scan("-x", 0));
+        assertEquals(0, scanner.scan(".5", 0));
+        assertEquals(3, scanner.scan("abc", 3));
+    }
+
+    @Test
+    void testMatchesParseDouble() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String literal = randomLiteral(random);
+            assertEquals(Double.parseDouble(literal), parse(literal), literal);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong() & Long.MAX_VALUE);
+            if (Double.isFinite(value)) {
+                String literal = Double.toString(value);
+                assertEquals(value, parse(literal), literal);
+            }
+        }
+    }
+
+    private static String randomLiteral(Random random) {
+        StringBuilder literal = new StringBuilder();
+        if (random.nextBoolean()) {
+            literal.append('-');
+        }
+        int integerDigits = 1 + random.nextInt(random.nextBoolean() ? 4 : 25);
+        for (int i = 0; i < integerDigits; i++) {
+            literal.append((char) ('0' + random.nextInt(10)));
+        }
+        if (random.nextBoolean()) {
+            literal.append('.');
+            int fractionDigits = 1 + random.nextInt(random.nextBoolean() ? 4 : 25);
+            for (int i = 0; i < fractionDigits; i++) {
+                literal.append((char) ('0' + random.nextInt(10)));
+            }
+        }
+        if (random.nextInt(3) == 0) {
+            literal.append(random.nextBoolean() ? 'e' : 'E');
+            if (random.nextBoolean()) {
+                literal.append(random.nextBoolean() ? '-' : '+');
+            }
+            literal.append(random.nextInt(random.nextBoolean() ? 40 : 330));
+        }
+        return literal.toString();
+    }
+}
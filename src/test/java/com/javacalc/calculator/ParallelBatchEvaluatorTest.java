@@ -0,0 +1,132 @@
+package com.javacalc.calculator;
+
+import com.javacalc.exceptions.DivisionByZeroException;
+import com.javacalc.exceptions.InvalidVariableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ParallelBatchEvaluatorTest {
+    private static final int ROWS = 100_000;
+
+    private Calculator calculator;
+    private ForkJoinPool pool;
+    private ParallelBatchEvaluator evaluator;
+
+    @BeforeEach
+    void setUp() {
+        calculator = new Calculator();
+        calculator.setMode(Calculator.Mode.INFIX);
+        pool = new ForkJoinPool(4);
+        // A small threshold forces many splits even for test-sized inputs
+        evaluator = new ParallelBatchEvaluator(pool, 1000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    void testColumnsMatchSequentialBatch() {
+        CompiledExpression expression = calculator.compile("(x - y) / (y + 3) * x");
+        double[] x = randomColumn(1);
+        double[] y = randomColumn(2);
+        Map<String, double[]> columns = Map.of("x", x, "y", y);
+
+        double[] expected = new double[ROWS];
+        double[] actual = new double[ROWS];
+        new BatchEvaluator().evaluate(expression, columns, expected);
+        evaluator.evaluate(expression, columns, actual);
+
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void testRowsMatchCompiledEvaluation() {
+        CompiledExpression expression = calculator.compile("a * b + a ^ 2");
+        double[][] rows = new double[ROWS][];
+        Random random = new Random(3);
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = new double[]{random.nextDouble(), random.nextDouble()};
+        }
+
+        double[] out = new double[ROWS];
+        evaluator.evaluate(expression, rows, out);
+
+        VariableBindings bindings = expression.newBindings();
+        for (int i = 0; i < ROWS; i += 997) {
+            bindings.set(0, rows[i][0]).set(1, rows[i][1]);
+            assertEquals(expression.evaluate(bindings), out[i]);
+        }
+    }
+
+    @Test
+    void testShortRow() {
+        CompiledExpression expression = calculator.compile("a + b");
+        double[][] rows = {{1, 2}, {3}};
+        assertThrows(InvalidVariableException.class, () -> evaluator.evaluate(expression, rows, new double[2]));
+    }
+
+    @Test
+    void testShortOutput() {
+        CompiledExpression expression = calculator.compile("a + 1");
+        double[][] rows = {{1}, {2}};
+        assertThrows(IllegalArgumentException.class, () -> evaluator.evaluate(expression, rows, new double[1]));
+    }
+
+    @Test
+    void testDivisionByZeroInWorker() {
+        CompiledExpression expression = calculator.compile("1 / x");
+        double[] x = randomColumn(4);
+        x[ROWS - 1] = 0;
+        assertThrows(DivisionByZeroException.class,
+                () -> evaluator.evaluate(expression, Map.of("x", x), new double[ROWS]));
+    }
+
+    @Test
+    void testCalculatorParallelism() {
+        calculator.setParallelism(2);
+        assertEquals(2, calculator.getParallelism());
+
+        CompiledExpression expression = calculator.compile("x * 2");
+        double[] x = randomColumn(5);
+        double[] out = new double[ROWS];
+        calculator.evaluateParallel(expression, Map.of("x", x), out);
+        assertEquals(x[ROWS / 2] * 2, out[ROWS / 2]);
+
+        assertThrows(IllegalArgumentException.class, () -> calculator.setParallelism(0));
+    }
+
+    @Test
+    void testCloseShutsDownOwnPool() {
+        CompiledExpression expression = calculator.compile("x + 1");
+        double[] x = randomColumn(6);
+        double[] out = new double[ROWS];
+        try (Calculator owner = new Calculator()) {
+            owner.setParallelism(2);
+            owner.evaluateParallel(expression, Map.of("x", x), out);
+            owner.close();
+            assertEquals(ForkJoinPool.commonPool().getParallelism(), owner.getParallelism());
+
+            // Still usable, on the common pool
+            owner.evaluateParallel(expression, Map.of("x", x), out);
+            assertEquals(x[0] + 1, out[0]);
+        }
+    }
+
+    private static double[] randomColumn(long seed) {
+        Random random = new Random(seed);
+        double[] column = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            column[i] = 0.5 + random.nextDouble() * 100;
+        }
+        return column;
+    }
+}
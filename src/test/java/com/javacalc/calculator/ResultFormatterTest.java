@@ -0,0 +1,127 @@
+package com.javacalc.calculator;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultFormatterTest {
+    private final ResultFormatter formatter = new ResultFormatter();
+
+    @Test
+    void testIntegers() {
+        assertEquals("0", formatter.format(0.0));
+        assertEquals("0", formatter.format(-0.0));
+        assertEquals("42", formatter.format(42.0));
+        assertEquals("-7", formatter.format(-7.0));
+        assertEquals("9007199254740992", formatter.format(9007199254740992.0));
+        assertEquals("100000000000000000000", formatter.format(1e20));
+    }
+
+    @Test
+    void testShortestFractions() {
+        assertEquals("0.1", formatter.format(0.1));
+        assertEquals("0.30000000000000004", formatter.format(0.1 + 0.2));
+        assertEquals("3.141592653589793", formatter.format(Math.PI));
+        assertEquals("-2.5", formatter.format(-2.5));
+        assertEquals("0.333333333333", formatter.format(0.333333333333));
+        assertEquals("0.000001", formatter.format(1e-6));
+    }
+
+    @Test
+    void testScientificNotation() {
+        assertEquals("1e21", formatter.format(1e21));
+        assertEquals("1.5e-7", formatter.format(1.5e-7));
+        assertEquals("-1e-9", formatter.format(-1e-9));
+        assertEquals("1.7976931348623157e308", formatter.format(Double.MAX_VALUE));
+        assertEquals("2.2250738585072014e-308", formatter.format(Double.MIN_NORMAL));
+        assertEquals("5e-324", formatter.format(Double.MIN_VALUE));
+        assertEquals("1e23", formatter.format(1e23));
+    }
+
+    @Test
+    void testNonFiniteValues() {
+        assertEquals("NaN", formatter.format(Double.NaN));
+        assertEquals("Infinity", formatter.format(Double.POSITIVE_INFINITY));
+        assertEquals("-Infinity", formatter.format(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    void testFixedPrecision() {
+        ResultFormatter sixPlaces = new ResultFormatter(6);
+        assertEquals("0.333333", sixPlaces.format(1.0 / 3));
+        assertEquals("0.666667", sixPlaces.format(2.0 / 3));
+        assertEquals("0.3", sixPlaces.format(0.1 + 0.2));
+        assertEquals("10", sixPlaces.format(9.9999999));
+        assertEquals("-1.5", sixPlaces.format(-1.5));
+        assertEquals("0", sixPlaces.format(-1e-9));
+        assertEquals("0.000001", sixPlaces.format(5e-7));
+        assertEquals("1e21", sixPlaces.format(1e21));
+        assertEquals("3", new ResultFormatter(0).format(2.5));
+        assertThrows(IllegalArgumentException.class, () -> new ResultFormatter(-1));
+    }
+
+    @Test
+    void testFixedPrecisionMatchesStringFormat() {
+        ResultFormatter sixPlaces = new ResultFormatter(6);
+        Random random = new Random(7);
+        for (int i = 0; i < 10_000; i++) {
+            double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+            String expected = String.format("%.6f", value).replaceAll("0+$", "").replaceAll("\\.$", "");
+            if (expected.equals("-0")) {
+                expected = "0";
+            }
+            assertEquals(expected, sixPlaces.format(value), Double.toString(value));
+        }
+    }
+
+    @Test
+    void testAppendsToBuilderAndBytes() {
+        StringBuilder out = new StringBuilder("x = ");
+        assertSame(out, formatter.format(0.25, out));
+        assertEquals("x = 0.25", out.toString());
+
+        byte[] bytes = new byte[2 + ResultFormatter.MAX_LENGTH];
+        bytes[0] = '[';
+        int end = formatter.format(-1.2345678901234567e-300, bytes, 1);
+        assertEquals("[-1.2345678901234568e-300", new String(bytes, 0, end, StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void testShortestRoundTrip() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isFinite(value) && value != 0) {
+                assertShortest(value);
+            }
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertShortest(random.nextDouble() * 1000);
+            assertShortest(Math.scalb(1.0, random.nextInt(2098) - 1074));
+            assertShortest(Double.longBitsToDouble(random.nextInt(1 << 20) + 1));
+        }
+    }
+
+    private void assertShortest(double value) {
+        String text = formatter.format(value);
+        assertTrue(text.length() <= ResultFormatter.MAX_LENGTH, text);
+        assertEquals(value, Double.parseDouble(text), text);
+
+        // No representation with one digit less reads back as the same value
+        BigDecimal decimal = new BigDecimal(text);
+        int precision = decimal.stripTrailingZeros().precision();
+        if (precision > 1) {
+            MathContext shorter = new MathContext(precision - 1, RoundingMode.FLOOR);
+            BigDecimal below = decimal.round(shorter);
+            BigDecimal above = decimal.round(new MathContext(precision - 1, RoundingMode.CEILING));
+            assertNotEquals(value, below.doubleValue(), text);
+            assertNotEquals(value, above.doubleValue(), text);
+        }
+    }
+}
@@ -94,4 +94,117 @@ class OperatorRegistryTest {
         assertTrue(registry.isOperator('@'));
         assertEquals(4, registry.getPrecedence('@'));
     }
+
+    @Test
+    void testUnknownOperatorPrecedence() {
+        assertEquals(0, registry.getPrecedence('&'));
+        assertEquals(0, registry.getPrecedence('\u00D7'));
+    }
+
+    @Test
+    void testNonAsciiOperatorRegistration() {
+        registry.register(new Operator('\u00D7', 2, (a, b) -> a * b));
+        assertTrue(registry.isOperator('\u00D7'));
+        assertEquals(2, registry.getPrecedence('\u00D7'));
+        assertEquals(12.0, registry.getOperator('\u00D7').apply(3.0, 4.0));
+    }
+
+    @Test
+    void testOverrideBuiltinOperator() {
+        registry.register(new Operator('+', 1, (a, b) -> a + b + 1));
+        assertNotSame(OperatorRegistry.ADDITION, registry.getOperator('+'));
+        assertEquals(4.0, registry.getOperator('+').apply(1.0, 2.0));
+    }
+
+    @Test
+    void testVersionChangesOnRegister() {
+        int version = registry.getVersion();
+        registry.register(new Operator('@', 4, (a, b) -> a));
+        assertNotEquals(version, registry.getVersion());
+    }
+
+    @Test
+    void testFreeze() {
+        assertFalse(registry.isFrozen());
+        assertSame(registry, registry.freeze());
+        assertTrue(registry.isFrozen());
+        assertThrows(IllegalStateException.class,
+                () -> registry.register(new Operator('&', 2, (a, b) -> a)));
+        assertTrue(registry.isOperator('+'));
+    }
+
+    @Test
+    void testDefaultsAreSharedAndFrozen() {
+        assertSame(OperatorRegistry.defaults(), OperatorRegistry.defaults());
+        assertTrue(OperatorRegistry.defaults().isFrozen());
+        assertSame(OperatorRegistry.ADDITION, OperatorRegistry.defaults().getOperator('+'));
+    }
+
+    @Test
+    void testCopyIsIndependent() {
+        OperatorRegistry copy = new OperatorRegistry(OperatorRegistry.defaults());
+        assertFalse(copy.isFrozen());
+        copy.register(new Operator('&', 2, (a, b) -> a));
+        copy.register(new Operator('\u2227', 2, (a, b) -> b));
+
+        assertTrue(copy.isOperator('&'));
+        assertTrue(copy.isOperator('\u2227'));
+        assertFalse(OperatorRegistry.defaults().isOperator('&'));
+        assertFalse(OperatorRegistry.defaults().isOperator('\u2227'));
+    }
+
+    @Test
+    void testBuiltInFunctions() {
+        for (String name : new String[] {"sqrt", "abs", "sin", "cos", "log", "min", "max"}) {
+            assertTrue(registry.isFunction(name), name);
+        }
+        assertFalse(registry.isFunction("x"));
+        assertFalse(registry.isFunction("sq"));
+        assertSame(OperatorRegistry.SQRT, registry.findFunction("(sqrt(2))", 1, 5));
+        assertNull(registry.findFunction("sqrt2", 0, 5));
+        assertEquals(1, OperatorRegistry.ABS.getArity());
+        assertEquals(2, OperatorRegistry.MAX.getArity());
+        assertEquals(3.0, OperatorRegistry.MAX.apply(-1.0, 3.0));
+    }
+
+    @Test
+    void testRegisterFunction() {
+        int version = registry.getVersion();
+        Function clamp = new Function("clamp", (x, low, high) -> Math.max(low, Math.min(x, high)));
+        registry.register(clamp);
+        assertTrue(registry.getVersion() > version);
+        assertSame(clamp, registry.findFunction("clamp", 0, 5));
+        assertEquals(3, clamp.getArity());
+        assertEquals(10.0, clamp.apply(12, 0, 10));
+    }
+
+    @Test
+    void testReplaceFunction() {
+        Function degrees = new Function("sin", x -> Math.sin(Math.toRadians(x)));
+        registry.register(degrees);
+        assertSame(degrees, registry.findFunction("sin", 0, 3));
+        assertSame(OperatorRegistry.SIN, OperatorRegistry.defaults().findFunction("sin", 0, 3));
+    }
+
+    @Test
+    void testCopyHasIndependentFunctions() {
+        OperatorRegistry copy = new OperatorRegistry(OperatorRegistry.defaults());
+        copy.register(new Function("twice", x -> 2 * x));
+        assertTrue(copy.isFunction("twice"));
+        assertTrue(copy.isFunction("max"));
+        assertFalse(OperatorRegistry.defaults().isFunction("twice"));
+    }
+
+    @Test
+    void testFrozenRegistryRejectsFunctions() {
+        assertThrows(IllegalStateException.class,
+                () -> OperatorRegistry.defaults().register(new Function("twice", x -> 2 * x)));
+    }
+
+    @Test
+    void testInvalidFunctionName() {
+        assertThrows(IllegalArgumentException.class, () -> new Function("2x", x -> x));
+        assertThrows(IllegalArgumentException.class, () -> new Function("", x -> x));
+        assertThrows(IllegalArgumentException.class, () -> new Function("log_2", x -> x));
+    }
 }
@@ -0,0 +1,149 @@
+package com.javacalc.variables;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentVariableManagerTest {
+    private ConcurrentVariableManager variables;
+
+    @BeforeEach
+    void setUp() {
+        variables = new ConcurrentVariableManager();
+    }
+
+    @Test
+    void testEmptySnapshot() {
+        VariableSnapshot snapshot = variables.snapshot();
+        assertEquals(0, snapshot.getVersion());
+        assertFalse(snapshot.hasVariable("x"));
+        assertEquals(0.0, snapshot.getVariable("x"));
+        assertEquals(-1, snapshot.slotOf("x"));
+        assertTrue(snapshot.getAllVariables().isEmpty());
+    }
+
+    @Test
+    void testUpdatePublishesNewVersion() {
+        VariableSnapshot before = variables.snapshot();
+        VariableSnapshot after = variables.update(builder -> builder.set("x", 1).set("y", 2));
+
+        assertSame(after, variables.snapshot());
+        assertEquals(1, after.getVersion());
+        assertEquals(1.0, after.getVariable("x"));
+        assertEquals(2.0, after.getVariable("y"));
+        assertFalse(before.hasVariable("x"));
+    }
+
+    @Test
+    void testSnapshotsAreImmutable() {
+        VariableSnapshot first = variables.setVariable("x", 1);
+        variables.setVariable("x", 2);
+        variables.setVariable("y", 3);
+
+        assertEquals(1.0, first.getVariable("x"));
+        assertFalse(first.hasVariable("y"));
+        assertEquals(2.0, variables.snapshot().getVariable("x"));
+        assertEquals(3, variables.snapshot().getVersion());
+    }
+
+    @Test
+    void testBuilderCannotChangePublishedSnapshot() {
+        AtomicReference<VariableSnapshot.Builder> retained = new AtomicReference<>();
+        VariableSnapshot snapshot = variables.update(builder -> retained.set(builder.set("x", 1)));
+
+        assertThrows(IllegalStateException.class, () -> retained.get().set("x", 2));
+        assertThrows(IllegalStateException.class, () -> retained.get().clear());
+        assertEquals(1.0, snapshot.getVariable("x"));
+    }
+
+    @Test
+    void testSlotsStableAcrossVersions() {
+        VariableSnapshot first = variables.setVariable("x", 1);
+        int slot = first.slotOf("x");
+        variables.update(builder -> {
+            for (int i = 0; i < 100; i++) {
+                builder.set("v" + i, i);
+            }
+            builder.set("x", 5);
+        });
+
+        assertEquals(slot, variables.snapshot().slotOf("x"));
+        assertEquals(5.0, variables.snapshot().getValue(slot));
+        int newer = variables.snapshot().slotOf("v99");
+        assertEquals(0.0, first.getValue(newer));
+    }
+
+    @Test
+    void testBuilderSeesPendingChanges() {
+        variables.setVariable("x", 2);
+        variables.update(builder -> builder.set("x", builder.get("x") * 10).set("y", builder.get("x") + 1));
+        assertEquals(20.0, variables.snapshot().getVariable("x"));
+        assertEquals(21.0, variables.snapshot().getVariable("y"));
+    }
+
+    @Test
+    void testClear() {
+        variables.setVariable("x", 2);
+        VariableSnapshot cleared = variables.clear();
+        assertFalse(cleared.hasVariable("x"));
+        assertEquals(0.0, cleared.getVariable("x"));
+        assertTrue(cleared.getAllVariables().isEmpty());
+    }
+
+    @Test
+    void testReadersNeverSeePartialUpdates() throws InterruptedException {
+        variables.update(builder -> builder.set("a", 0).set("b", 0));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                while (!done.get()) {
+                    VariableSnapshot snapshot = variables.snapshot();
+                    double a = snapshot.getVariable("a");
+                    double b = snapshot.getVariable("b");
+                    if (a + b != 0) {
+                        failure.set("a = " + a + ", b = " + b + " in version " + snapshot.getVersion());
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        for (int i = 1; i <= 10_000; i++) {
+            double value = i;
+            variables.update(builder -> builder.set("a", value).set("b", -value));
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(10_001, variables.snapshot().getVersion());
+    }
+
+    @Test
+    void testConcurrentWritersLoseNoUpdates() throws InterruptedException {
+        variables.setVariable("count", 0);
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    variables.update(builder -> builder.set("count", builder.get("count") + 1));
+                }
+            });
+            writers[i].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertEquals(4000.0, variables.snapshot().getVariable("count"));
+    }
+}
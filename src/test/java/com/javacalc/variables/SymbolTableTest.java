@@ -0,0 +1,57 @@
+package com.javacalc.variables;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SymbolTableTest {
+    private SymbolTable symbols;
+
+    @BeforeEach
+    void setUp() {
+        symbols = new SymbolTable();
+    }
+
+    @Test
+    void testSlotsAssignedInOrder() {
+        assertEquals(0, symbols.intern("x"));
+        assertEquals(1, symbols.intern("y"));
+        assertEquals(0, symbols.intern("x"));
+        assertEquals(2, symbols.size());
+        assertEquals("y", symbols.nameOf(1));
+    }
+
+    @Test
+    void testFindMissing() {
+        assertEquals(-1, symbols.find("x"));
+        symbols.intern("x");
+        assertEquals(-1, symbols.find("x1"));
+    }
+
+    @Test
+    void testRegionLookup() {
+        symbols.intern("rate");
+        String text = "2 rate * rates +";
+        assertEquals(0, symbols.find(text, 2, 6));
+        assertEquals(-1, symbols.find(text, 9, 14));
+        assertEquals(1, symbols.intern(text, 9, 14));
+        assertEquals("rates", symbols.nameOf(1));
+    }
+
+    @Test
+    void testGrowth() {
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, symbols.intern("v" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, symbols.find("v" + i));
+        }
+        assertEquals(1000, symbols.toArray().length);
+    }
+
+    @Test
+    void testInvalidSlot() {
+        assertThrows(IndexOutOfBoundsException.class, () -> symbols.nameOf(0));
+    }
+}
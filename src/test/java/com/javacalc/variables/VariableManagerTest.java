@@ -1,5 +1,6 @@
 package com.javacalc.variables;
 
+import com.javacalc.exceptions.InvalidVariableException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
@@ -64,4 +65,280 @@ class VariableManagerTest {
         assertEquals(10.0, allVars.get("x"));
         assertEquals(20.0, allVars.get("y"));
     }
+
+    @Test
+    void testSlotAccess() {
+        int slot = variableManager.slotOf("x");
+        assertFalse(variableManager.isDefined(slot));
+        assertFalse(variableManager.hasVariable("x"));
+
+        variableManager.setValue(slot, 7.0);
+        assertTrue(variableManager.hasVariable("x"));
+        assertEquals(7.0, variableManager.getVariable("x"));
+
+        variableManager.setVariable("x", 9.0);
+        assertEquals(9.0, variableManager.getValue(slot));
+    }
+
+    @Test
+    void testSlotsSurviveClear() {
+        int slot = variableManager.slotOf("x");
+        variableManager.setValue(slot, 7.0);
+        variableManager.clear();
+        assertEquals(slot, variableManager.slotOf("x"));
+        assertFalse(variableManager.isDefined(slot));
+        assertEquals(0.0, variableManager.getValue(slot));
+        assertTrue(variableManager.getAllVariables().isEmpty());
+    }
+
+    @Test
+    void testEnsureDefined() {
+        int slot = variableManager.slotOf("x");
+        variableManager.ensureDefined(slot);
+        assertTrue(variableManager.hasVariable("x"));
+        assertEquals(0.0, variableManager.getVariable("x"));
+    }
+
+    @Test
+    void testSlotOfRegion() {
+        int slot = variableManager.slotOf("total");
+        assertEquals(slot, variableManager.slotOf("a total b", 2, 7));
+    }
+
+    @Test
+    void testManyVariables() {
+        for (int i = 0; i < 500; i++) {
+            variableManager.setVariable("v" + i, i);
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, variableManager.getVariable("v" + i));
+        }
+        assertEquals(500, variableManager.getAllVariables().size());
+    }
+
+    @Test
+    void testFormulaRecomputedWhenDependencyChanges() {
+        int price = variableManager.slotOf("price");
+        int qty = variableManager.slotOf("qty");
+        int total = variableManager.slotOf("total");
+        variableManager.setValue(price, 2);
+        variableManager.setValue(qty, 3);
+        CountingFormula formula = new CountingFormula(price, qty);
+        variableManager.setFormula(total, formula);
+
+        assertTrue(variableManager.isFormula(total));
+        assertEquals(5.0, variableManager.getValue(total));
+        assertEquals(5.0, variableManager.getVariable("total"));
+        assertEquals(1, formula.computations);
+
+        variableManager.setValue(price, 10);
+        assertEquals(13.0, variableManager.getValue(total));
+        assertEquals(2, formula.computations);
+    }
+
+    @Test
+    void testOnlyAffectedFormulasRecomputed() {
+        int a = variableManager.slotOf("a");
+        int b = variableManager.slotOf("b");
+        CountingFormula fromA = new CountingFormula(a);
+        CountingFormula fromB = new CountingFormula(b);
+        variableManager.setFormula(variableManager.slotOf("fa"), fromA);
+        variableManager.setFormula(variableManager.slotOf("fb"), fromB);
+        variableManager.recalculate();
+
+        variableManager.setValue(a, 1);
+        variableManager.recalculate();
+        assertEquals(2, fromA.computations);
+        assertEquals(1, fromB.computations);
+    }
+
+    @Test
+    void testFormulaChain() {
+        int x = variableManager.slotOf("x");
+        int y = variableManager.slotOf("y");
+        int z = variableManager.slotOf("z");
+        variableManager.setValue(x, 1);
+        variableManager.setFormula(y, new CountingFormula(x, x));
+        variableManager.setFormula(z, new CountingFormula(y, x));
+        assertEquals(3.0, variableManager.getValue(z));
+
+        variableManager.setValue(x, 10);
+        assertEquals(30.0, variableManager.getValue(z));
+        assertEquals(20.0, variableManager.getValue(y));
+    }
+
+    @Test
+    void testDeepFormulaChain() {
+        int previous = variableManager.slotOf("v0");
+        variableManager.setValue(previous, 1);
+        for (int i = 1; i <= 100_000; i++) {
+            int slot = variableManager.slotOf("v" + i);
+            variableManager.setFormula(slot, new CountingFormula(previous));
+            previous = slot;
+        }
+        assertEquals(1.0, variableManager.getValue(previous));
+
+        variableManager.setVariable("v0", 7);
+        assertEquals(7.0, variableManager.getValue(previous));
+    }
+
+    @Test
+    void testCircularFormulaRejected() {
+        int a = variableManager.slotOf("a");
+        int b = variableManager.slotOf("b");
+        variableManager.setFormula(a, new CountingFormula(b));
+        assertThrows(InvalidVariableException.class,
+                () -> variableManager.setFormula(b, new CountingFormula(a)));
+        assertThrows(InvalidVariableException.class,
+                () -> variableManager.setFormula(a, new CountingFormula(a)));
+        assertFalse(variableManager.isFormula(b));
+    }
+
+    @Test
+    void testSetValueReplacesFormula() {
+        int x = variableManager.slotOf("x");
+        int y = variableManager.slotOf("y");
+        CountingFormula formula = new CountingFormula(x);
+        variableManager.setFormula(y, formula);
+        variableManager.setValue(y, 4);
+
+        assertFalse(variableManager.isFormula(y));
+        variableManager.setValue(x, 9);
+        assertEquals(4.0, variableManager.getValue(y));
+        assertEquals(0, formula.computations);
+    }
+
+    @Test
+    void testFailedFormulaRetried() {
+        int x = variableManager.slotOf("x");
+        int y = variableManager.slotOf("y");
+        boolean[] fail = {true};
+        variableManager.setFormula(y, new Formula() {
+            @Override
+            public int[] getDependencies() {
+                return new int[] {x};
+            }
+
+            @Override
+            public double compute(VariableManager variables) {
+                if (fail[0]) {
+                    throw new IllegalStateException();
+                }
+                return variables.getValue(x) + 1;
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> variableManager.getValue(y));
+
+        fail[0] = false;
+        assertEquals(1.0, variableManager.getValue(y));
+    }
+
+    @Test
+    void testRecalculateAfterReads() {
+        int x = variableManager.slotOf("x");
+        CountingFormula[] formulas = new CountingFormula[100];
+        for (int i = 0; i < formulas.length; i++) {
+            formulas[i] = new CountingFormula(x);
+            variableManager.setFormula(variableManager.slotOf("f" + i), formulas[i]);
+        }
+        // Formulas refreshed by reads are not computed again by recalculate
+        for (int round = 1; round <= 50; round++) {
+            variableManager.setValue(x, round);
+            assertEquals(round, variableManager.getVariable("f0"));
+        }
+        variableManager.recalculate();
+        assertEquals(50, formulas[0].computations);
+        assertEquals(1, formulas[1].computations);
+
+        variableManager.recalculate();
+        assertEquals(1, formulas[99].computations);
+        assertEquals(50.0, variableManager.getVariable("f99"));
+    }
+
+    @Test
+    void testRecalculateRetriesFailedFormula() {
+        int x = variableManager.slotOf("x");
+        int y = variableManager.slotOf("y");
+        boolean[] fail = {true};
+        variableManager.setFormula(y, new Formula() {
+            @Override
+            public int[] getDependencies() {
+                return new int[] {x};
+            }
+
+            @Override
+            public double compute(VariableManager variables) {
+                if (fail[0]) {
+                    throw new IllegalStateException();
+                }
+                return variables.getValue(x) + 1;
+            }
+        });
+        assertThrows(IllegalStateException.class, () -> variableManager.recalculate());
+
+        fail[0] = false;
+        variableManager.recalculate();
+        assertEquals(1.0, variableManager.getValue(y));
+    }
+
+    @Test
+    void testFormulaReadingUndeclaredFormula() {
+        int x = variableManager.slotOf("x");
+        int inner = variableManager.slotOf("inner");
+        int outer = variableManager.slotOf("outer");
+        variableManager.setFormula(inner, new CountingFormula(x));
+        // Declares no dependencies, but reads a dirty formula while it is itself being refreshed
+        variableManager.setFormula(outer, new Formula() {
+            @Override
+            public int[] getDependencies() {
+                return new int[0];
+            }
+
+            @Override
+            public double compute(VariableManager variables) {
+                return variables.getValue(inner) * 2;
+            }
+        });
+        variableManager.setValue(x, 4);
+        assertEquals(8.0, variableManager.getValue(outer));
+    }
+
+    @Test
+    void testClearRemovesFormulas() {
+        int x = variableManager.slotOf("x");
+        int y = variableManager.slotOf("y");
+        variableManager.setFormula(y, new CountingFormula(x));
+        variableManager.clear();
+
+        assertFalse(variableManager.isFormula(y));
+        variableManager.setValue(x, 3);
+        assertEquals(0.0, variableManager.getValue(y));
+    }
+
+    /**
+     * Sums its dependencies and counts how often it is computed.
+     */
+    private static final class CountingFormula implements Formula {
+        private final int[] dependencies;
+        int computations;
+
+        CountingFormula(int... dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public int[] getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public double compute(VariableManager variables) {
+            computations++;
+            double sum = 0;
+            for (int dependency : dependencies) {
+                sum += variables.getValue(dependency);
+            }
+            return sum;
+        }
+    }
 }